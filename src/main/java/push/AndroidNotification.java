@@ -2,19 +2,82 @@ package push;
 
 import org.json.JSONObject;
 
-import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
 
 public abstract class AndroidNotification extends UmengNotification {
+    /**
+     * Payload level fields
+     */
+    static final FieldTable PAYLOAD = new FieldTable("display_type");
+    /**
+     * Body level fields, body is under payload
+     */
+    static final FieldTable BODY = new FieldTable("ticker", "title", "text", "builder_id", "icon", "largeIcon", "img",
+            "play_vibrate", "play_lights", "play_sound", "sound", "after_open", "url", "activity", "custom");
+    private static final int PAYLOAD_LEVEL = 2;
+    private static final int BODY_LEVEL = 3;
+    private static final byte[] BODY_PREFIX = Utf8JsonWriter.namePrefix("body");
+    private static final byte[] EXTRA_PREFIX = Utf8JsonWriter.namePrefix("extra");
+    static final NotificationLayout LAYOUT = new NotificationLayout(PushMetrics.ANDROID, ROOT, POLICY, PAYLOAD, BODY) {
+        @Override
+        boolean writePayload(Utf8JsonWriter writer, boolean first, Object[][] levels, Map<String, String> extra) {
+            Object[] payload = levels[PAYLOAD_LEVEL];
+            Object[] body = levels[BODY_LEVEL];
+            boolean hasBody = !FieldTable.isEmpty(body);
+            boolean hasExtra = extra != null && !extra.isEmpty();
+            if (FieldTable.isEmpty(payload) && !hasBody && !hasExtra) {
+                return first;
+            }
+            beginPayload(writer, first);
+            boolean empty = PAYLOAD.writeFields(writer, payload, 0, PAYLOAD.size(), true);
+            if (hasBody) {
+                if (!empty) {
+                    writer.writeByte(',');
+                }
+                writer.writeRaw(BODY_PREFIX);
+                BODY.writeObject(writer, body);
+                empty = false;
+            }
+            if (hasExtra) {
+                if (!empty) {
+                    writer.writeByte(',');
+                }
+                writer.writeRaw(EXTRA_PREFIX);
+                writer.writeStringMap(extra);
+            }
+            writer.writeByte('}');
+            return false;
+        }
+    };
+    /**
+     * All predefined keys: key -> (level << 16 | index)
+     */
+    static final HashMap<String, Integer> SLOTS = LAYOUT.slots();
     /**
      * Keys can be set in the payload level
      */
-    protected static final HashSet<String> PAYLOAD_KEYS = new HashSet<>(Arrays.asList("display_type"));
+    protected static final HashSet<String> PAYLOAD_KEYS = PAYLOAD.keys();
     /**
      * Keys can be set in the body level
      */
-    protected static final HashSet<String> BODY_KEYS = new HashSet<String>(Arrays.asList("ticker", "title", "text", "builder_id", "icon", "largeIcon", "img", "play_vibrate", "play_lights", "play_sound",
-            "sound", "after_open", "url", "activity", "custom"));
+    protected static final HashSet<String> BODY_KEYS = BODY.keys();
+    
+    protected final Object[] payload = new Object[PAYLOAD.size()];
+    protected final Object[] body = new Object[BODY.size()];
+    /**
+     * Extra key/values, created on first use
+     */
+    protected LinkedHashMap<String, String> extra;
+    /**
+     * Serialized sizes of the payload level fields, body and extra, updated as fields are set
+     */
+    private final ObjectSize payloadSize = new ObjectSize();
+    private final ObjectSize bodySize = new ObjectSize();
+    private final ObjectSize extraSize = new ObjectSize();
     
     public enum DisplayType {
         NOTIFICATION {
@@ -42,83 +105,105 @@ public abstract class AndroidNotification extends UmengNotification {
         go_custom//用户自定义内容。
     }
     
-    // Set key/value in the rootJson, for the keys can be set please see ROOT_KEYS, PAYLOAD_KEYS,
+    // Set key/value for the predefined keys, for the keys can be set please see ROOT_KEYS, PAYLOAD_KEYS,
     // BODY_KEYS and POLICY_KEYS.
     @Override
     public boolean setPredefinedKeyValue(String key, Object value) throws Exception {
-        if (ROOT_KEYS.contains(key)) {
-            // This key should be in the root level
-            rootJson.put(key, value);
-        } else if (PAYLOAD_KEYS.contains(key)) {
-            // This key should be in the payload level
-            JSONObject payloadJson = null;
-            if (rootJson.has("payload")) {
-                payloadJson = rootJson.getJSONObject("payload");
-            } else {
-                payloadJson = new JSONObject();
-                rootJson.put("payload", payloadJson);
-            }
-            payloadJson.put(key, value);
-        } else if (BODY_KEYS.contains(key)) {
-            // This key should be in the body level
-            JSONObject bodyJson = null;
-            JSONObject payloadJson = null;
-            // 'body' is under 'payload', so build a payload if it doesn't exist
-            if (rootJson.has("payload")) {
-                payloadJson = rootJson.getJSONObject("payload");
-            } else {
-                payloadJson = new JSONObject();
-                rootJson.put("payload", payloadJson);
-            }
-            // Get body JSONObject, generate one if not existed
-            if (payloadJson.has("body")) {
-                bodyJson = payloadJson.getJSONObject("body");
-            } else {
-                bodyJson = new JSONObject();
-                payloadJson.put("body", bodyJson);
-            }
-            bodyJson.put(key, value);
-        } else if (POLICY_KEYS.contains(key)) {
-            // This key should be in the body level
-            JSONObject policyJson = null;
-            if (rootJson.has("policy")) {
-                policyJson = rootJson.getJSONObject("policy");
-            } else {
-                policyJson = new JSONObject();
-                rootJson.put("policy", policyJson);
-            }
-            policyJson.put(key, value);
-        } else {
-            if (key == "payload" || key == "body" || key == "policy" || key == "extra") {
+        Integer slot = SLOTS.get(key);
+        if (slot == null) {
+            if (Objects.equals(key, "payload") || Objects.equals(key, "body") || Objects.equals(key, "policy") || Objects.equals(key, "extra")) {
                 throw new Exception("You don't need to set value for " + key + " , just set values for the sub keys in it.");
             } else {
                 throw new Exception("Unknown key: " + key);
             }
         }
+        int level = slot >>> 16;
+        int index = slot & 0xffff;
+        Object[] values = level(level);
+        if (level == PAYLOAD_LEVEL) {
+            payloadSize.update(PAYLOAD.memberLength(index, values[index]), PAYLOAD.memberLength(index, value));
+        } else if (level == BODY_LEVEL) {
+            bodySize.update(BODY.memberLength(index, values[index]), BODY.memberLength(index, value));
+        }
+        values[index] = value;
         return true;
     }
     
+    @Override
+    public Object getPredefinedKeyValue(String key) {
+        Integer slot = SLOTS.get(key);
+        return slot == null ? null : value(slot);
+    }
+    
+    @Override
+    Object[] level(int level) {
+        switch (level) {
+            case ROOT_LEVEL:
+                return root;
+            case POLICY_LEVEL:
+                return policy;
+            case PAYLOAD_LEVEL:
+                return payload;
+            case BODY_LEVEL:
+                return body;
+            default:
+                throw new IllegalArgumentException("Unknown level: " + level);
+        }
+    }
+    
     // Set extra key/value for Android notification
     public boolean setExtraField(String key, String value) throws Exception {
-        JSONObject payloadJson = null;
-        JSONObject extraJson = null;
-        if (rootJson.has("payload")) {
-            payloadJson = rootJson.getJSONObject("payload");
-        } else {
-            payloadJson = new JSONObject();
-            rootJson.put("payload", payloadJson);
+        if (extra == null) {
+            extra = new LinkedHashMap<>();
         }
-        
-        if (payloadJson.has("extra")) {
-            extraJson = payloadJson.getJSONObject("extra");
-        } else {
-            extraJson = new JSONObject();
-            payloadJson.put("extra", extraJson);
-        }
-        extraJson.put(key, value);
+        boolean existed = extra.containsKey(key);
+        String old = extra.put(key, value);
+        extraSize.update(existed ? ObjectSize.memberLength(key, old) : 0, ObjectSize.memberLength(key, value));
         return true;
     }
     
+    /**
+     * @Description Remove an extra key
+     */
+    public void removeExtraField(String key) {
+        if (extra != null && extra.containsKey(key)) {
+            extraSize.update(ObjectSize.memberLength(key, extra.remove(key)), 0);
+        }
+    }
+    
+    /**
+     * @Description payload序列化后的字节数, 随字段设置增量维护, O(1)。嵌套的JSON对象(custom)按设置时的内容计算
+     */
+    @Override
+    public int getPayloadSize() {
+        int members = payloadSize.members();
+        int bytes = payloadSize.contentLength();
+        if (!bodySize.isEmpty()) {
+            bytes += (members > 0 ? 1 : 0) + BODY_PREFIX.length + bodySize.length();
+            members++;
+        }
+        if (!extraSize.isEmpty()) {
+            bytes += (members > 0 ? 1 : 0) + EXTRA_PREFIX.length + extraSize.length();
+            members++;
+        }
+        return members == 0 ? 0 : bytes + 2;
+    }
+    
+    @Override
+    NotificationLayout layout() {
+        return LAYOUT;
+    }
+    
+    @Override
+    Object[][] levels() {
+        return new Object[][]{root, policy, payload, body};
+    }
+    
+    @Override
+    LinkedHashMap<String, String> fields() {
+        return extra;
+    }
+    
     //
     public void setDisplayType(DisplayType d) throws Exception {
         setPredefinedKeyValue("display_type", d.getValue());
@@ -126,17 +211,17 @@ public abstract class AndroidNotification extends UmengNotification {
     
     ///通知栏提示文字
     public void setTicker(String ticker) throws Exception {
-        setPredefinedKeyValue("ticker", ticker);
+        setPredefinedKeyValue("ticker", sanitize(ticker));
     }
     
     ///通知标题
     public void setTitle(String title) throws Exception {
-        setPredefinedKeyValue("title", title);
+        setPredefinedKeyValue("title", sanitize(title));
     }
     
     ///通知文字描述
     public void setText(String text) throws Exception {
-        setPredefinedKeyValue("text", text);
+        setPredefinedKeyValue("text", sanitize(text));
     }
     
     ///用于标识该通知采用的样式。使用该参数时, 必须在SDK里面实现自定义通知栏样式。
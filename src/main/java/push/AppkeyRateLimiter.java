@@ -0,0 +1,124 @@
+package push;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author zzh
+ * @description 按appkey的令牌桶限流(GCRA实现), 每个appkey只有一个AtomicLong, 获取令牌只做CAS不加锁。
+ * 令牌不足时按 {@link Mode} 阻塞、限时等待或立即失败。
+ */
+public class AppkeyRateLimiter {
+    
+    public enum Mode {
+        /**
+         * 一直等到有令牌
+         */
+        BLOCK,
+        /**
+         * 最多等待timeout, 超过则失败
+         */
+        TIMEOUT,
+        /**
+         * 没有令牌立即失败
+         */
+        FAIL_FAST
+    }
+    
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final double defaultPermitsPerSecond;
+    private final int defaultBurst;
+    private final Mode mode;
+    private final long timeoutNanos;
+    
+    public AppkeyRateLimiter(double permitsPerSecond, int burst, Mode mode, long timeout, TimeUnit unit) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive and burst at least 1");
+        }
+        this.defaultPermitsPerSecond = permitsPerSecond;
+        this.defaultBurst = burst;
+        this.mode = mode;
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+    
+    /**
+     * @Description 为单个appkey设置不同的速率和突发量
+     */
+    public void configure(String appkey, double permitsPerSecond, int burst) {
+        buckets.put(appkey, new Bucket(permitsPerSecond, burst));
+    }
+    
+    /**
+     * @Description 获取一个令牌, 按模式等待或抛出RateLimitedException
+     */
+    public void acquire(String appkey) throws RateLimitedException, InterruptedException {
+        long wait = reserve(appkey);
+        long deadline = System.nanoTime() + wait;
+        while (wait > 0) {
+            LockSupport.parkNanos(this, wait);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            wait = deadline - System.nanoTime();
+        }
+    }
+    
+    /**
+     * @Description 预占一个令牌但不等待, 返回令牌到达前还需要等待的纳秒数, 由调用方在这之后发出请求。
+     * 需要等待的时间超出模式允许的范围时不预占, 抛出RateLimitedException
+     */
+    public long reserve(String appkey) throws RateLimitedException {
+        Bucket bucket = buckets.get(appkey);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(appkey, k -> new Bucket(defaultPermitsPerSecond, defaultBurst));
+        }
+        long wait = bucket.reserve(mode == Mode.FAIL_FAST ? 0 : mode == Mode.TIMEOUT ? timeoutNanos : Long.MAX_VALUE);
+        if (wait < 0) {
+            throw new RateLimitedException(appkey);
+        }
+        return wait;
+    }
+    
+    private static final class Bucket {
+        /**
+         * 两个令牌之间的间隔
+         */
+        private final long interval;
+        /**
+         * 允许提前消费的时间, 即突发量
+         */
+        private final long tolerance;
+        /**
+         * 理论上下一个令牌的到达时间(nanoTime)
+         */
+        private final AtomicLong tat = new AtomicLong(System.nanoTime());
+        
+        private Bucket(double permitsPerSecond, int burst) {
+            this.interval = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+            this.tolerance = interval * (burst - 1);
+        }
+        
+        /**
+         * @Description 预占一个令牌, 返回需要等待的纳秒数; 等待超过maxWait时不预占并返回-1
+         */
+        private long reserve(long maxWait) {
+            while (true) {
+                long now = System.nanoTime();
+                long current = tat.get();
+                long start = current - now > 0 ? current : now;
+                long wait = start - tolerance - now;
+                if (wait < 0) {
+                    wait = 0;
+                }
+                if (wait > maxWait) {
+                    return -1;
+                }
+                if (tat.compareAndSet(current, start + interval)) {
+                    return wait;
+                }
+            }
+        }
+    }
+}
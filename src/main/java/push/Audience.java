@@ -0,0 +1,111 @@
+package push;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * @author zzh
+ * @description 推送对象: 指定的alias或device_token、filter表达式圈定的人群, 或者全部设备。
+ * 由 {@link DeliveryPlanner} 选择具体的发送方式。alias和device_token去重后保持原有顺序。
+ */
+public final class Audience {
+    
+    public enum Kind {
+        ALIASES, DEVICE_TOKENS, FILTER, EVERYONE
+    }
+    
+    private static final Audience EVERYONE = new Audience(Kind.EVERYONE, null, Collections.emptyList(), null);
+    
+    private final Kind kind;
+    private final String aliasType;
+    private final List<String> recipients;
+    private final PushFilter filter;
+    
+    private Audience(Kind kind, String aliasType, List<String> recipients, PushFilter filter) {
+        this.kind = kind;
+        this.aliasType = aliasType;
+        this.recipients = recipients;
+        this.filter = filter;
+    }
+    
+    /**
+     * @param aliasType SDK调用addAlias(alias, alias_type)时指定的alias_type
+     */
+    public static Audience aliases(String aliasType, Collection<String> aliases) {
+        if (aliasType == null || aliasType.isEmpty()) {
+            throw new IllegalArgumentException("Alias type must not be empty");
+        }
+        return new Audience(Kind.ALIASES, aliasType, distinct(aliases), null);
+    }
+    
+    public static Audience deviceTokens(Collection<String> deviceTokens) {
+        return new Audience(Kind.DEVICE_TOKENS, null, distinct(deviceTokens), null);
+    }
+    
+    public static Audience filter(PushFilter filter) {
+        if (filter == null) {
+            throw new IllegalArgumentException("Filter must not be null");
+        }
+        return new Audience(Kind.FILTER, null, Collections.emptyList(), filter);
+    }
+    
+    public static Audience everyone() {
+        return EVERYONE;
+    }
+    
+    /**
+     * @Description 去重, 并检查不含逗号和换行, 它们在alias列表和上传的文件中是分隔符
+     */
+    private static List<String> distinct(Collection<String> recipients) {
+        LinkedHashSet<String> set = new LinkedHashSet<>(recipients);
+        for (String recipient : set) {
+            if (recipient == null || recipient.isEmpty()) {
+                throw new IllegalArgumentException("Recipient must not be empty");
+            }
+            for (int i = 0; i < recipient.length(); i++) {
+                char c = recipient.charAt(i);
+                if (c == ',' || c == '\n' || c == '\r') {
+                    throw new IllegalArgumentException("Recipient must not contain separators: " + recipient);
+                }
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<>(set));
+    }
+    
+    public Kind getKind() {
+        return kind;
+    }
+    
+    /**
+     * @Description alias_type, 不是alias人群时返回null
+     */
+    public String getAliasType() {
+        return aliasType;
+    }
+    
+    /**
+     * @Description 去重后的alias或device_token, 其它人群为空列表
+     */
+    public List<String> getRecipients() {
+        return recipients;
+    }
+    
+    public PushFilter getFilter() {
+        return filter;
+    }
+    
+    @Override
+    public String toString() {
+        switch (kind) {
+            case FILTER:
+                return "filter " + filter;
+            case EVERYONE:
+                return "everyone";
+            default:
+                return recipients.size() + (kind == Kind.ALIASES ? " aliases(" + aliasType + ")" : " device tokens");
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package push;
+
+/**
+ * @author zzh
+ * @description 在途请求已满且等待超时, 请求未发出
+ */
+public class BulkheadFullException extends Exception {
+    private static final long serialVersionUID = 1L;
+    private final int maxInFlight;
+    
+    public BulkheadFullException(int maxInFlight) {
+        super("Too many requests in flight, limit is " + maxInFlight);
+        this.maxInFlight = maxInFlight;
+    }
+    
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+}
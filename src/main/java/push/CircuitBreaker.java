@@ -0,0 +1,81 @@
+package push;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author zzh
+ * @description 单个接口的熔断器: 连续失败达到阈值后打开, 打开期间直接拒绝请求;
+ * 打开时间结束后进入半开状态, 只放行一个探测请求, 成功则关闭, 失败则重新打开。
+ */
+public class CircuitBreaker {
+    private final int failureThreshold;
+    private final long openNanos;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private volatile boolean open;
+    private volatile long openedAt;
+    
+    public CircuitBreaker(int failureThreshold, long openTime, TimeUnit unit) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = unit.toNanos(openTime);
+    }
+    
+    /**
+     * @Description 放行凭证, 请求结束时通过 {@link #onSuccess}、{@link #onFailure} 或 {@link #release} 交回;
+     * 只有半开状态下放行的探测请求持有 {@link #PROBE}, 也只有它能结束半开状态
+     */
+    public enum Permit {
+        NORMAL, PROBE
+    }
+    
+    /**
+     * @Description 申请发出请求, 拒绝时返回null
+     */
+    public Permit allowRequest() {
+        if (!open) {
+            return Permit.NORMAL;
+        }
+        if (System.nanoTime() - openedAt < openNanos) {
+            return null;
+        }
+        return probing.compareAndSet(false, true) ? Permit.PROBE : null;
+    }
+    
+    public void onSuccess(Permit permit) {
+        if (permit == Permit.PROBE) {
+            failures.set(0);
+            open = false;
+            probing.set(false);
+        } else if (!open) {
+            failures.set(0);
+        }
+        // 打开前放行的请求迟到的结果不改变打开状态, 也不动探测权
+    }
+    
+    /**
+     * @Description 放行的请求最终没有发出(被限流、舱壁拒绝或被取消)时调用, 不改变状态;
+     * 交回的是探测权时让下一个请求继续探测, 否则熔断器会一直拒绝请求
+     */
+    public void release(Permit permit) {
+        if (permit == Permit.PROBE) {
+            probing.set(false);
+        }
+    }
+    
+    public void onFailure(Permit permit) {
+        if (permit == Permit.PROBE) {
+            // 半开状态的探测失败, 重新计时
+            openedAt = System.nanoTime();
+            probing.set(false);
+        } else if (!open && failures.incrementAndGet() >= failureThreshold) {
+            openedAt = System.nanoTime();
+            open = true;
+        }
+    }
+    
+    public boolean isOpen() {
+        return open;
+    }
+}
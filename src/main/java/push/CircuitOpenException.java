@@ -0,0 +1,13 @@
+package push;
+
+/**
+ * @author zzh
+ * @description 接口熔断中, 请求未发出
+ */
+public class CircuitOpenException extends Exception {
+    private static final long serialVersionUID = 1L;
+    
+    public CircuitOpenException(String endpoint) {
+        super("Circuit breaker is open for " + endpoint);
+    }
+}
@@ -0,0 +1,249 @@
+package push;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author zzh
+ * @description 合并发送: 将内容完全相同的单播(device_tokens)和自定义播(alias)请求合并为一次列播/alias列表请求,
+ * 达到单次请求的接收者上限或等待窗口结束时发送, 所有调用方拿到同一个消息id。
+ */
+public class CoalescingSender implements Closeable {
+    /**
+     * 友盟单次请求device_tokens/alias的最大个数
+     */
+    public static final int MAX_RECIPIENTS = 500;
+    /**
+     * 默认合并窗口, 单位毫秒
+     */
+    public static final long DEFAULT_WINDOW_MILLIS = 50;
+    
+    private final PushClient client;
+    private final int maxRecipients;
+    private final long windowMillis;
+    private final ScheduledExecutorService scheduler;
+    /**
+     * 以appkey和去掉接收者、timestamp后的消息体为key的待发送批次
+     */
+    private final ConcurrentHashMap<BatchKey, Batch> batches = new ConcurrentHashMap<>();
+    
+    public CoalescingSender(PushClient client) {
+        this(client, MAX_RECIPIENTS, DEFAULT_WINDOW_MILLIS);
+    }
+    
+    public CoalescingSender(PushClient client, int maxRecipients, long windowMillis) {
+        this.client = client;
+        this.maxRecipients = Math.min(maxRecipients, MAX_RECIPIENTS);
+        this.windowMillis = windowMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "push-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * @Description 提交消息, 单播和按alias的自定义播会被合并, 其它类型直接发送
+     */
+    public CompletableFuture<String> submit(UmengNotification msg) {
+        String field = recipientField(msg);
+        if (field == null) {
+            return client.sendAsync(msg);
+        }
+        try {
+            client.validate(msg);
+        } catch (NotificationValidationException e) {
+            CompletableFuture<String> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        String recipients = msg.getPredefinedKeyValue(field).toString();
+        int count = count(recipients);
+        if (count >= maxRecipients) {
+            return client.sendAsync(msg);
+        }
+        // 深拷贝, 提交后调用方继续修改消息不会影响已合并的批次
+        JsonCodec codec = client.getJsonCodec();
+        Map<String, Object> template = codec.parseObject(msg.getPostBody());
+        template.remove(field);
+        template.remove("timestamp");
+        BatchKey key = new BatchKey(msg.getAppkey(), codec.toJson(template));
+        CompletableFuture<String> future = new CompletableFuture<>();
+        List<Batch> ready = new ArrayList<>(2);
+        Batch[] created = new Batch[1];
+        // compute中只修改批次, 定时和发送都在锁外进行
+        batches.compute(key, (k, batch) -> {
+            if (batch != null && batch.count + count > maxRecipients) {
+                ready.add(batch);
+                batch = null;
+            }
+            if (batch == null) {
+                batch = new Batch(template, msg.getAppMasterSecret(), field, PushMetrics.platformOf(msg));
+                created[0] = batch;
+            }
+            batch.add(recipients, count, future);
+            if (batch.count >= maxRecipients) {
+                ready.add(batch);
+                return null;
+            }
+            return batch;
+        });
+        if (created[0] != null && !ready.contains(created[0])) {
+            schedule(key, created[0]);
+        }
+        for (Batch batch : ready) {
+            dispatch(batch);
+        }
+        return future;
+    }
+    
+    /**
+     * @Description 窗口结束时发送仍在等待的批次; 批次已因达到上限被发送时什么也不做。关闭后立即发送
+     */
+    private void schedule(BatchKey key, Batch batch) {
+        try {
+            scheduler.schedule(() -> {
+                if (batches.remove(key, batch)) {
+                    dispatch(batch);
+                }
+            }, windowMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            if (batches.remove(key, batch)) {
+                dispatch(batch);
+            }
+        }
+    }
+    
+    /**
+     * @Description 立即发送所有未满的批次
+     */
+    public void flush() {
+        for (BatchKey key : batches.keySet()) {
+            Batch batch = batches.remove(key);
+            if (batch != null) {
+                dispatch(batch);
+            }
+        }
+    }
+    
+    private void dispatch(Batch batch) {
+        Map<String, Object> root = batch.template;
+        root.put(batch.field, batch.recipients.toString());
+        if ("unicast".equals(root.get("type")) && batch.count > 1) {
+            root.put("type", "listcast");
+        }
+        root.put("timestamp", UmengNotification.currentTimestamp());
+        Object type = root.get("type");
+        PushMetrics.Series series = client.getMetrics().series(PushMetrics.Endpoint.SEND,
+                type == null ? PushMetrics.UNKNOWN : type.toString(), batch.platform);
+        client.sendAsync(String.valueOf(root.get("appkey")), client.getJsonCodec().toJson(root), batch.appMasterSecret, series).whenComplete((taskId, e) -> {
+            for (CompletableFuture<String> waiter : batch.waiters) {
+                if (e != null) {
+                    waiter.completeExceptionally(e);
+                } else {
+                    waiter.complete(taskId);
+                }
+            }
+        });
+    }
+    
+    /**
+     * @Description 可以合并的接收者字段, 不能合并时返回null
+     */
+    private static String recipientField(UmengNotification msg) {
+        String type = msg.getType();
+        if ("unicast".equals(type) || "listcast".equals(type)) {
+            return msg.getPredefinedKeyValue("device_tokens") != null ? "device_tokens" : null;
+        }
+        if ("customizedcast".equals(type) && msg.getPredefinedKeyValue("file_id") == null) {
+            return msg.getPredefinedKeyValue("alias") != null ? "alias" : null;
+        }
+        return null;
+    }
+    
+    private static int count(String recipients) {
+        int count = 1;
+        for (int i = 0; i < recipients.length(); i++) {
+            if (recipients.charAt(i) == ',') {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * @Description 发送剩余批次并停止定时器
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        flush();
+    }
+    
+    /**
+     * @Description 批次的key: 同一appkey下内容相同的消息合并; 哈希值预先算好, 比较时才逐字比较消息体
+     */
+    private static final class BatchKey {
+        private final String appkey;
+        private final String template;
+        private final int hash;
+        
+        private BatchKey(String appkey, String template) {
+            this.appkey = appkey;
+            this.template = template;
+            this.hash = 31 * String.valueOf(appkey).hashCode() + template.hashCode();
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BatchKey)) {
+                return false;
+            }
+            BatchKey other = (BatchKey) o;
+            return hash == other.hash && Objects.equals(appkey, other.appkey) && template.equals(other.template);
+        }
+    }
+    
+    private static final class Batch {
+        private final Map<String, Object> template;
+        private final String appMasterSecret;
+        private final String field;
+        private final String platform;
+        private final StringBuilder recipients = new StringBuilder();
+        private final List<CompletableFuture<String>> waiters = new ArrayList<>();
+        private int count;
+        
+        private Batch(Map<String, Object> template, String appMasterSecret, String field, String platform) {
+            this.template = template;
+            this.appMasterSecret = appMasterSecret;
+            this.field = field;
+            this.platform = platform;
+        }
+        
+        private void add(String recipient, int n, CompletableFuture<String> waiter) {
+            if (count > 0) {
+                recipients.append(',');
+            }
+            recipients.append(recipient);
+            count += n;
+            waiters.add(waiter);
+        }
+    }
+}
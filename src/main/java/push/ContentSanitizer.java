@@ -0,0 +1,350 @@
+package push;
+
+/**
+ * @author zzh
+ * @description 推送内容清理: 去掉任意HTML标签(含注释和script/style的内容), 解码实体(&amp;amp; &amp;#39; &amp;#x4e2d; 等),
+ * 连续空白合并为一个空格并去掉首尾空白。对输入只扫描一遍, 不用正则, 不生成中间字符串,
+ * 结果写入按线程复用的StringBuilder。不需要清理的内容原样返回。
+ * <p>
+ * 没有状态, 可以多线程共享。br、p、div、li等块级标签按空白处理, 避免前后两段文字连在一起。
+ */
+public class ContentSanitizer {
+    public static final ContentSanitizer DEFAULT = new ContentSanitizer();
+    /**
+     * 复用的builder超过这个长度时不再保留
+     */
+    private static final int MAX_RETAINED = 16 * 1024;
+    private static final ThreadLocal<StringBuilder> BUILDER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+    /**
+     * 按空白处理的标签
+     */
+    private static final String[] BLOCK_TAGS = {"br", "p", "div", "li", "ul", "ol", "tr", "td", "th", "h1", "h2", "h3",
+            "h4", "h5", "h6", "hr", "blockquote", "table", "section", "article"};
+    /**
+     * 内容也要去掉的标签
+     */
+    private static final String[] RAW_TEXT_TAGS = {"script", "style"};
+    private static final String[] ENTITY_NAMES = {"amp", "lt", "gt", "quot", "apos", "nbsp", "hellip", "mdash", "ndash",
+            "lsquo", "rsquo", "ldquo", "rdquo", "middot", "bull", "copy", "reg", "trade", "times", "yen", "emsp", "ensp"};
+    private static final char[] ENTITY_CHARS = {'&', '<', '>', '"', '\'', '\u00a0', '\u2026', '\u2014', '\u2013',
+            '\u2018', '\u2019', '\u201c', '\u201d', '\u00b7', '\u2022', '\u00a9', '\u00ae', '\u2122', '\u00d7',
+            '\u00a5', '\u2003', '\u2002'};
+    /**
+     * 实体最长的字符数, 不含&和;
+     */
+    private static final int MAX_ENTITY_LENGTH = 10;
+    
+    /**
+     * @Description 清理内容, null返回null
+     */
+    public String sanitize(CharSequence content) {
+        if (content == null) {
+            return null;
+        }
+        int clean = cleanPrefix(content);
+        if (clean == content.length()) {
+            return content.toString();
+        }
+        StringBuilder out = BUILDER.get();
+        out.setLength(0);
+        out.append(content, 0, clean);
+        sanitize(content, clean, out);
+        String result = out.toString();
+        if (out.capacity() > MAX_RETAINED) {
+            BUILDER.remove();
+        }
+        return result;
+    }
+    
+    /**
+     * @Description 清理内容并追加到out
+     */
+    public void sanitize(CharSequence content, StringBuilder out) {
+        int clean = cleanPrefix(content);
+        out.append(content, 0, clean);
+        if (clean < content.length()) {
+            sanitize(content, clean, out);
+        }
+    }
+    
+    /**
+     * @Description 不需要处理的前缀长度: 没有标签、实体、控制字符、首尾空白和连续空白。前缀不以空格结尾, 空格留给后面合并
+     */
+    private static int cleanPrefix(CharSequence s) {
+        int n = s.length();
+        boolean prevSpace = false;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c == '<' || c == '&' || Character.isISOControl(c)) {
+                return prevSpace ? i - 1 : i;
+            }
+            if (isSpace(c)) {
+                // 开头的空白、连续空白和非半角空格的空白都需要处理
+                if (i == 0 || prevSpace || c != ' ') {
+                    return prevSpace ? i - 1 : i;
+                }
+                prevSpace = true;
+            } else {
+                prevSpace = false;
+            }
+        }
+        return prevSpace ? n - 1 : n;
+    }
+    
+    /**
+     * @Description 从start开始处理, start之前的内容已经原样写入out
+     */
+    private static void sanitize(CharSequence s, int start, StringBuilder out) {
+        int n = s.length();
+        int base = out.length() - start;
+        // 之前是否有待写出的空白; 开头的空白直接丢弃
+        boolean pendingSpace = false;
+        int i = start;
+        while (i < n) {
+            char c = s.charAt(i);
+            if (isPlain(c)) {
+                // 普通文字整段拷贝
+                if (pendingSpace && out.length() > base) {
+                    out.append(' ');
+                }
+                pendingSpace = false;
+                int run = i;
+                do {
+                    i++;
+                } while (i < n && isPlain(s.charAt(i)));
+                out.append(s, run, i);
+                continue;
+            }
+            if (c == '<') {
+                int end = skipTag(s, i, n);
+                if (end > 0) {
+                    if (isBlockTag(s, i)) {
+                        pendingSpace = true;
+                    }
+                    i = end;
+                    continue;
+                }
+            } else if (c == '&') {
+                int semi = entityEnd(s, i, n);
+                int cp = semi < 0 ? -1 : entityValue(s, i + 1, semi);
+                if (cp >= 0) {
+                    // 解码结果作为普通文本, 不会再被当成标签或实体
+                    if (Character.isBmpCodePoint(cp)) {
+                        pendingSpace = emit(out, base, (char) cp, pendingSpace);
+                    } else {
+                        pendingSpace = emit(out, base, Character.highSurrogate(cp), pendingSpace);
+                        out.append(Character.lowSurrogate(cp));
+                    }
+                    i = semi + 1;
+                    continue;
+                }
+            }
+            pendingSpace = emit(out, base, c, pendingSpace);
+            i++;
+        }
+    }
+    
+    /**
+     * @Description 写出一个文本字符, 空白先记下, 在下一个非空白字符前写成一个空格
+     */
+    private static boolean emit(StringBuilder out, int base, char c, boolean pendingSpace) {
+        if (isSpace(c)) {
+            return true;
+        }
+        if (Character.isISOControl(c)) {
+            return pendingSpace;
+        }
+        if (pendingSpace && out.length() > base) {
+            out.append(' ');
+        }
+        out.append(c);
+        return false;
+    }
+    
+    private static boolean isPlain(char c) {
+        return c > ' ' ? c != '<' && c != '&' && (c < 0x7f || !isSpace(c) && !Character.isISOControl(c)) : false;
+    }
+    
+    /**
+     * @Description 与 Character.isWhitespace || Character.isSpaceChar 相同, 常见字符不查字符表
+     */
+    private static boolean isSpace(char c) {
+        if (c < 0x80) {
+            return c == ' ' || (c >= 0x09 && c <= 0x0d) || (c >= 0x1c && c <= 0x1f);
+        }
+        return c == 0xa0 || c == 0x1680 || (c >= 0x2000 && c <= 0x200a) || c == 0x2028 || c == 0x2029 || c == 0x202f
+                || c == 0x205f || c == 0x3000;
+    }
+    
+    /**
+     * @Description 跳过从 &lt; 开始的标签、注释或声明, 返回之后的位置; 不是标签时返回-1, &lt; 按普通字符处理
+     */
+    private static int skipTag(CharSequence s, int start, int n) {
+        if (start + 1 >= n) {
+            return -1;
+        }
+        char next = s.charAt(start + 1);
+        if (next == '!' && startsWith(s, start + 2, "--")) {
+            int end = indexOf(s, "-->", start + 4);
+            return end < 0 ? n : end + 3;
+        }
+        boolean closing = next == '/';
+        char first = closing && start + 2 < n ? s.charAt(start + 2) : next;
+        if (!isLetter(first) && next != '!' && next != '?') {
+            return -1;
+        }
+        int end = tagEnd(s, start + 1, n);
+        if (!closing) {
+            for (String tag : RAW_TEXT_TAGS) {
+                if (nameIs(s, start + 1, tag)) {
+                    // 跳到 </script 或 </style 的结束标签之后
+                    int close = end;
+                    while (close < n) {
+                        close = indexOf(s, "</", close);
+                        if (close < 0) {
+                            return n;
+                        }
+                        if (nameIs(s, close + 2, tag)) {
+                            return tagEnd(s, close + 2, n);
+                        }
+                        close += 2;
+                    }
+                    return n;
+                }
+            }
+        }
+        return end;
+    }
+    
+    /**
+     * @Description 标签结束 &gt; 之后的位置, 属性值中的 &gt; 不算; 没有结束时到末尾
+     */
+    private static int tagEnd(CharSequence s, int from, int n) {
+        char quote = 0;
+        for (int i = from; i < n; i++) {
+            char c = s.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+    
+    private static boolean isBlockTag(CharSequence s, int start) {
+        int name = start + 1;
+        if (name < s.length() && s.charAt(name) == '/') {
+            name++;
+        }
+        int length = 0;
+        while (name + length < s.length() && (isLetter(s.charAt(name + length)) || Character.isDigit(s.charAt(name + length)))) {
+            length++;
+        }
+        for (String tag : BLOCK_TAGS) {
+            if (tag.length() == length && nameIs(s, name, tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @Description s在from处的标签名是否为name(不区分大小写)
+     */
+    private static boolean nameIs(CharSequence s, int from, String name) {
+        int n = s.length();
+        if (from + name.length() > n) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.toLowerCase(s.charAt(from + i)) != name.charAt(i)) {
+                return false;
+            }
+        }
+        int end = from + name.length();
+        return end == n || !isLetter(s.charAt(end)) && !Character.isDigit(s.charAt(end));
+    }
+    
+    /**
+     * @Description 从 &amp; 开始的实体结尾 ; 的位置, 不像实体时返回-1
+     */
+    private static int entityEnd(CharSequence s, int start, int n) {
+        int limit = Math.min(n, start + MAX_ENTITY_LENGTH + 2);
+        for (int i = start + 1; i < limit; i++) {
+            char c = s.charAt(i);
+            if (c == ';') {
+                return i > start + 1 ? i : -1;
+            }
+            if (!isLetter(c) && !Character.isDigit(c) && c != '#') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * @Description 实体 [from, semi) 对应的码点, 不认识或不合法时返回-1
+     */
+    private static int entityValue(CharSequence s, int from, int semi) {
+        if (s.charAt(from) != '#') {
+            for (int i = 0; i < ENTITY_NAMES.length; i++) {
+                String name = ENTITY_NAMES[i];
+                if (name.length() == semi - from && startsWith(s, from, name)) {
+                    return ENTITY_CHARS[i];
+                }
+            }
+            return -1;
+        }
+        int i = from + 1;
+        int radix = 10;
+        if (i < semi && (s.charAt(i) == 'x' || s.charAt(i) == 'X')) {
+            radix = 16;
+            i++;
+        }
+        if (i == semi) {
+            return -1;
+        }
+        int cp = 0;
+        for (; i < semi; i++) {
+            int digit = Character.digit(s.charAt(i), radix);
+            if (digit < 0) {
+                return -1;
+            }
+            cp = cp * radix + digit;
+            if (cp > Character.MAX_CODE_POINT) {
+                return -1;
+            }
+        }
+        return cp == 0 || (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE) ? -1 : cp;
+    }
+    
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+    
+    private static boolean startsWith(CharSequence s, int from, String prefix) {
+        if (from + prefix.length() > s.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (s.charAt(from + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static int indexOf(CharSequence s, String target, int from) {
+        for (int i = from; i <= s.length() - target.length(); i++) {
+            if (startsWith(s, i, target)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,183 @@
+package push;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @author zzh
+ * @description {@link DeliveryPlanner} 制定的发送计划: 发送方式、分批、请求次数和选择的理由。
+ * 计划不可变, 可以先记录或检查再执行, 也可以对不同的消息内容多次执行。
+ */
+public final class DeliveryPlan {
+    
+    public enum Mode {
+        /**
+         * 没有推送对象, 不发送
+         */
+        NONE(null),
+        UNICAST("unicast"),
+        /**
+         * device_token列表, 每批最多500个
+         */
+        LISTCAST("listcast"),
+        /**
+         * 上传device_token文件后按file_id发送
+         */
+        FILECAST("filecast"),
+        /**
+         * alias列表, 每批最多500个
+         */
+        CUSTOMIZEDCAST("customizedcast"),
+        /**
+         * 上传alias文件后按file_id发送
+         */
+        CUSTOMIZEDCAST_FILE("customizedcast"),
+        GROUPCAST("groupcast"),
+        BROADCAST("broadcast");
+        
+        private final String type;
+        
+        Mode(String type) {
+            this.type = type;
+        }
+        
+        /**
+         * @Description 友盟的消息类型
+         */
+        public String getType() {
+            return type;
+        }
+        
+        boolean isFile() {
+            return this == FILECAST || this == CUSTOMIZEDCAST_FILE;
+        }
+    }
+    
+    private static final String[] RECIPIENT_KEYS = {"device_tokens", "alias", "alias_type", "file_id", "filter"};
+    
+    private final Mode mode;
+    private final Audience audience;
+    private final List<List<String>> batches;
+    private final int uploads;
+    private final String reason;
+    
+    DeliveryPlan(Mode mode, Audience audience, List<List<String>> batches, int uploads, String reason) {
+        this.mode = mode;
+        this.audience = audience;
+        this.batches = batches;
+        this.uploads = uploads;
+        this.reason = reason;
+    }
+    
+    public Mode getMode() {
+        return mode;
+    }
+    
+    public Audience getAudience() {
+        return audience;
+    }
+    
+    /**
+     * @Description 每次发送(或每个上传文件)的alias/device_token, broadcast和groupcast为空列表
+     */
+    public List<List<String>> getBatches() {
+        return batches;
+    }
+    
+    /**
+     * @Description 发送请求次数
+     */
+    public int getSends() {
+        switch (mode) {
+            case NONE:
+                return 0;
+            case BROADCAST:
+            case GROUPCAST:
+                return 1;
+            default:
+                return batches.size();
+        }
+    }
+    
+    /**
+     * @Description 上传请求次数
+     */
+    public int getUploads() {
+        return uploads;
+    }
+    
+    public String getReason() {
+        return reason;
+    }
+    
+    /**
+     * @Description 按计划发送。prototype提供appkey、appMasterSecret和消息内容, 其中的类型和推送对象字段会被计划替换,
+     * prototype本身不变。先按最终的消息类型校验, 不合法时不会上传文件。
+     * 返回各次发送的消息id, 有一次失败时以第一个异常结束, 已发出的不会撤回
+     */
+    public CompletableFuture<List<String>> execute(PushClient client, UmengNotification prototype) {
+        if (mode == Mode.NONE) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        NotificationSnapshot base = prototype.snapshot();
+        for (String key : RECIPIENT_KEYS) {
+            base = base.with(key, null);
+        }
+        base = base.with("type", mode.type);
+        if (audience.getAliasType() != null) {
+            base = base.with("alias_type", audience.getAliasType());
+        }
+        List<CompletableFuture<String>> results = new ArrayList<>(Math.max(1, batches.size()));
+        try {
+            if (mode == Mode.BROADCAST) {
+                base.validate();
+                results.add(client.sendAsync(base));
+            } else if (mode == Mode.GROUPCAST) {
+                NotificationSnapshot groupcast = base.with("filter", audience.getFilter().compile());
+                groupcast.validate();
+                results.add(client.sendAsync(groupcast));
+            } else if (mode.isFile()) {
+                NotificationSnapshot template = base;
+                // 用占位的file_id先校验, 避免内容不合法时白白上传
+                template.with("file_id", "-").validate();
+                for (List<String> batch : batches) {
+                    results.add(client.uploadContentsAsync(template.getAppkey(), template.getAppMasterSecret(), batch.iterator())
+                            .thenCompose(fileId -> client.sendAsync(template.with("file_id", fileId))));
+                }
+            } else {
+                String key = mode == Mode.CUSTOMIZEDCAST ? "alias" : "device_tokens";
+                List<NotificationSnapshot> snapshots = new ArrayList<>(batches.size());
+                for (List<String> batch : batches) {
+                    NotificationSnapshot snapshot = base.with(key, String.join(",", batch));
+                    snapshot.validate();
+                    snapshots.add(snapshot);
+                }
+                for (NotificationSnapshot snapshot : snapshots) {
+                    results.add(client.sendAsync(snapshot));
+                }
+            }
+        } catch (NotificationValidationException e) {
+            CompletableFuture<List<String>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            List<String> taskIds = new ArrayList<>(results.size());
+            for (CompletableFuture<String> result : results) {
+                taskIds.add(result.join());
+            }
+            return taskIds;
+        });
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder().append(mode).append(" to ").append(audience).append(": ");
+        if (uploads > 0) {
+            text.append(uploads).append(" upload(s) + ");
+        }
+        return text.append(getSends()).append(" send(s), ").append(reason).toString();
+    }
+}
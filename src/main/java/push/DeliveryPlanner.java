@@ -0,0 +1,91 @@
+package push;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author zzh
+ * @description 按推送对象选择代价最小的发送方式: 全部设备用broadcast, filter表达式用groupcast,
+ * 指定的alias/device_token在"每批最多500个逐批发送"和"上传文件后按file_id发送"之间按调用次数估算代价选择。
+ * 上传请求比发送请求重, 代价按 {@link #uploadCost} 个发送请求计。返回的 {@link DeliveryPlan} 可以先查看再执行。
+ * <pre>
+ * DeliveryPlan plan = planner.plan(Audience.aliases("user_id", userIds));
+ * logger.info("Delivering via {}", plan);
+ * plan.execute(client, prototype).get();
+ * </pre>
+ */
+@Data
+public class DeliveryPlanner {
+    /**
+     * 逐批发送时每批最多的alias/device_token数, 不能超过友盟的500
+     */
+    private int maxInlineRecipients = NotificationSchema.MAX_RECIPIENTS;
+    /**
+     * 每个上传文件最多的alias/device_token数, 超出时分成多个文件
+     */
+    private int maxFileRecipients = 100000;
+    /**
+     * 一次上传相当于多少次发送请求
+     */
+    private double uploadCost = 2;
+    
+    /**
+     * @Description 为推送对象制定发送计划, 不发出任何请求
+     */
+    public DeliveryPlan plan(Audience audience) {
+        switch (audience.getKind()) {
+            case EVERYONE:
+                return new DeliveryPlan(DeliveryPlan.Mode.BROADCAST, audience, Collections.emptyList(), 0,
+                        "broadcast to every device");
+            case FILTER:
+                return new DeliveryPlan(DeliveryPlan.Mode.GROUPCAST, audience, Collections.emptyList(), 0,
+                        "groupcast with filter " + audience.getFilter());
+            default:
+                return planRecipients(audience);
+        }
+    }
+    
+    private DeliveryPlan planRecipients(Audience audience) {
+        List<String> recipients = audience.getRecipients();
+        int count = recipients.size();
+        boolean aliases = audience.getKind() == Audience.Kind.ALIASES;
+        if (count == 0) {
+            return new DeliveryPlan(DeliveryPlan.Mode.NONE, audience, Collections.emptyList(), 0, "no recipients");
+        }
+        if (!aliases && count == 1) {
+            return new DeliveryPlan(DeliveryPlan.Mode.UNICAST, audience, Collections.singletonList(recipients), 0,
+                    "single device token");
+        }
+        int inline = Math.max(1, Math.min(maxInlineRecipients, NotificationSchema.MAX_RECIPIENTS));
+        int perFile = Math.max(1, maxFileRecipients);
+        int sends = batches(count, inline);
+        int files = batches(count, perFile);
+        double fileCost = files * (uploadCost + 1);
+        if (sends <= fileCost) {
+            return new DeliveryPlan(aliases ? DeliveryPlan.Mode.CUSTOMIZEDCAST : DeliveryPlan.Mode.LISTCAST, audience,
+                    split(recipients, inline), 0, String.format("%d inline sends cost less than %d upload(s) + sends (%.1f)",
+                    sends, files, fileCost));
+        }
+        return new DeliveryPlan(aliases ? DeliveryPlan.Mode.CUSTOMIZEDCAST_FILE : DeliveryPlan.Mode.FILECAST, audience,
+                split(recipients, perFile), files, String.format("%d upload(s) + sends (%.1f) cost less than %d inline sends",
+                files, fileCost, sends));
+    }
+    
+    private static int batches(int count, int size) {
+        return (count + size - 1) / size;
+    }
+    
+    /**
+     * @Description 按大小切分, 各批共享原列表
+     */
+    private static List<List<String>> split(List<String> recipients, int size) {
+        List<List<String>> batches = new ArrayList<>(batches(recipients.size(), size));
+        for (int from = 0; from < recipients.size(); from += size) {
+            batches.add(recipients.subList(from, Math.min(recipients.size(), from + size)));
+        }
+        return Collections.unmodifiableList(batches);
+    }
+}
@@ -0,0 +1,728 @@
+package push;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * @author zzh
+ * @description 持久化发送队列: 消息先追加写入内存映射的分段日志, 刷盘后再交给PushClient发送,
+ * 友盟返回task_id(或永久失败)后写入确认记录。启动时重放所有未确认的消息, 至少发送一次。
+ * 可重试的失败(包括熔断、舱壁和限流拒绝)在进程内按指数退避重新发送, 直到成功或永久失败, 返回的future在那时才结束。
+ * 刷盘、写确认记录和重新发送都由后台线程完成: 多个线程的写入共用一次force(group commit),
+ * HTTP回调线程只把确认交给后台线程, 不碰锁也不刷盘。
+ * <p>
+ * 记录格式: [int 长度][int crc32][byte 类型][long id][short appkey长度][appkey][消息体], 确认记录没有appkey和消息体。
+ * 只有最老的段可以删除: 全部确认的直接删除, 否则在已封存的段过多时把未确认的记录搬到当前段后删除;
+ * 未确认的记录较多时通常不搬迁, 但封存段超过 {@link #MAX_SEALED_SEGMENTS_HARD} 个且至少一半已确认时整体整理一遍,
+ * 磁盘占用不超过未确认消息的约两倍, 不会因为长期积压的少量消息无限增长。
+ */
+public class DurablePushQueue implements Closeable {
+    /**
+     * 默认段大小
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    /**
+     * 保留的已封存段数, 超过后搬迁最老段中剩余的少量未确认记录
+     */
+    private static final int MAX_SEALED_SEGMENTS = 4;
+    /**
+     * 未确认记录不超过段内记录的 1/RELOCATE_RATIO 时才搬迁, 积压时不做无用的拷贝
+     */
+    private static final int RELOCATE_RATIO = 8;
+    /**
+     * 封存段超过这个数时不再看单个段中未确认的比例
+     */
+    private static final int MAX_SEALED_SEGMENTS_HARD = 16;
+    /**
+     * 重新发送的退避: 第一次约1秒, 每次翻倍, 最长1分钟
+     */
+    private static final long REDELIVERY_BASE_MILLIS = 1000;
+    private static final long REDELIVERY_MAX_MILLIS = 60000;
+    /**
+     * HTTP回调线程不等锁, 后台线程最多隔这么久检查一次确认
+     */
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final byte TYPE_ENQUEUE = 1;
+    private static final byte TYPE_ACK = 2;
+    /**
+     * 长度和crc
+     */
+    private static final int HEADER = 8;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte[] TYPE_PREFIX = "\"type\":\"".getBytes(StandardCharsets.UTF_8);
+    
+    private static Logger logger = LoggerFactory.getLogger(DurablePushQueue.class);
+    
+    private final Path dir;
+    private final PushClient client;
+    private final Function<String, String> secretResolver;
+    private final int segmentSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hasWork = lock.newCondition();
+    private final CRC32 crc = new CRC32();
+    /**
+     * 段序号 -> 段, 受lock保护
+     */
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    /**
+     * 未确认记录的id -> 位置(段序号 << 32 | 段内偏移)
+     */
+    private final ConcurrentHashMap<Long, Long> pending = new ConcurrentHashMap<>();
+    /**
+     * 已写入还未刷盘的消息, 受lock保护
+     */
+    private List<Entry> unflushed = new ArrayList<>();
+    /**
+     * 已确认的id, 由HTTP回调线程放入, 后台线程写入确认记录
+     */
+    private final ConcurrentLinkedQueue<Long> acked = new ConcurrentLinkedQueue<>();
+    /**
+     * 发送失败待重新发送的消息, 由HTTP回调线程放入, 后台线程排入 {@link #redeliveries}
+     */
+    private final ConcurrentLinkedQueue<Entry> undelivered = new ConcurrentLinkedQueue<>();
+    /**
+     * 按重新发送时间排序, 只由后台线程访问
+     */
+    private final PriorityQueue<Entry> redeliveries = new PriorityQueue<>((a, b) -> Long.compare(a.retryAt - b.retryAt, 0));
+    private final Thread flusher;
+    private Segment active;
+    private long nextId;
+    private boolean compacting;
+    private volatile boolean closed;
+    
+    public DurablePushQueue(Path dir, PushClient client, Function<String, String> secretResolver) throws IOException {
+        this(dir, client, secretResolver, DEFAULT_SEGMENT_SIZE);
+    }
+    
+    /**
+     * @param secretResolver 重放时根据appkey取appMasterSecret, 日志中不保存secret; 返回null的消息不发送, 留到下次启动
+     */
+    public DurablePushQueue(Path dir, PushClient client, Function<String, String> secretResolver, int segmentSize) throws IOException {
+        this.dir = dir;
+        this.client = client;
+        this.secretResolver = secretResolver;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(dir);
+        List<Entry> recovered = recover();
+        flusher = new Thread(this::flushLoop, "push-queue-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        for (Entry entry : recovered) {
+            if (entry.secret == null) {
+                // 缺少secret是配置问题, 不是消息的问题: 不发送也不确认, 配置好后下次启动时重放
+                logger.error("push queue has no appMasterSecret for appkey {}, entry {} is kept for the next start",
+                        entry.appkey, entry.id);
+                entry.future.completeExceptionally(new IllegalStateException("No appMasterSecret for appkey " + entry.appkey));
+                continue;
+            }
+            dispatch(entry);
+        }
+        logger.info("push queue recovered {} pending notifications from {}", recovered.size(), dir);
+    }
+    
+    /**
+     * @Description 写入队列, 刷盘后发送, 返回消息id
+     */
+    public CompletableFuture<String> submit(UmengNotification msg) {
+        String appkey = msg.getAppkey();
+        byte[] body;
+        try {
+            // 不合法的消息不写入队列, 否则每次重启都会重放
+            client.validate(msg);
+            if (msg.getAppMasterSecret() == null) {
+                throw new IllegalArgumentException("appMasterSecret must not be null");
+            }
+            body = msg.getPostBodyBytes(UmengNotification.currentTimestamp());
+        } catch (Exception e) {
+            CompletableFuture<String> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        Entry entry = new Entry(appkey, body, msg.getAppMasterSecret(), client.getMetrics().series(PushMetrics.Endpoint.SEND,
+                msg.getType() == null ? PushMetrics.UNKNOWN : msg.getType(), PushMetrics.platformOf(msg)));
+        byte[] appkeyBytes = appkey.getBytes(StandardCharsets.UTF_8);
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("push queue is closed");
+            }
+            entry.id = nextId++;
+            long location = append(TYPE_ENQUEUE, entry.id, appkeyBytes, body);
+            pending.put(entry.id, location);
+            active.pending++;
+            active.records++;
+            unflushed.add(entry);
+            hasWork.signal();
+        } catch (IOException e) {
+            entry.future.completeExceptionally(e);
+        } finally {
+            lock.unlock();
+        }
+        return entry.future;
+    }
+    
+    /**
+     * @Description 未确认的消息数
+     */
+    public int pendingCount() {
+        return pending.size();
+    }
+    
+    /**
+     * @Description 后台线程: 写确认记录、刷盘并发送新消息、到时间后重新发送失败的消息。
+     * 一轮中的运行时异常只记录日志, 没能刷盘的消息以该异常结束(仍在日志中, 下次启动时重放), 后台线程继续运行
+     */
+    private void flushLoop() {
+        List<Entry> due = new ArrayList<>();
+        while (true) {
+            List<Entry> batch = null;
+            try {
+                MappedByteBuffer buffer;
+                lock.lock();
+                try {
+                    while (unflushed.isEmpty() && acked.isEmpty() && undelivered.isEmpty() && !closed) {
+                        Entry next = redeliveries.peek();
+                        long wait = next == null ? POLL_NANOS : Math.min(POLL_NANOS, next.retryAt - System.nanoTime());
+                        if (wait <= 0) {
+                            break;
+                        }
+                        hasWork.awaitNanos(wait);
+                    }
+                    writeAcks();
+                    scheduleRedeliveries();
+                    if (closed && unflushed.isEmpty()) {
+                        abandonRedeliveries();
+                        return;
+                    }
+                    batch = unflushed;
+                    unflushed = new ArrayList<>();
+                    long now = System.nanoTime();
+                    while (!redeliveries.isEmpty() && redeliveries.peek().retryAt - now <= 0) {
+                        due.add(redeliveries.poll());
+                    }
+                    buffer = active.buffer;
+                } finally {
+                    lock.unlock();
+                }
+                if (!batch.isEmpty()) {
+                    // 换段时旧段已经force过, 这里只需要force当前段
+                    buffer.force();
+                }
+            } catch (InterruptedException e) {
+                // 只有close会结束后台线程
+                continue;
+            } catch (RuntimeException e) {
+                logger.error("push queue flusher failed, {} notifications were not flushed", batch == null ? 0 : batch.size(), e);
+                if (batch != null) {
+                    for (Entry entry : batch) {
+                        entry.future.completeExceptionally(e);
+                    }
+                    batch = null;
+                }
+            }
+            if (batch != null) {
+                for (Entry entry : batch) {
+                    dispatch(entry);
+                }
+            }
+            for (Entry entry : due) {
+                // 重新发送时timestamp可能已经过期
+                if (entry.timestampOffset >= 0) {
+                    UmengNotification.restamp(entry.body, entry.timestampOffset);
+                }
+                dispatch(entry);
+            }
+            due.clear();
+        }
+    }
+    
+    /**
+     * @Description 结果在HTTP回调线程上处理, 只交给后台线程; 发送时同步抛出的异常按失败处理, 不会传到后台线程
+     */
+    private void dispatch(Entry entry) {
+        CompletableFuture<String> result;
+        try {
+            result = client.sendAsync(entry.appkey, entry.body, entry.secret, entry.series);
+        } catch (RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        result.whenComplete((taskId, e) -> {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause == null || isPermanent(cause)) {
+                // 成功或永久失败都不再重发
+                acked.add(entry.id);
+                wakeUp();
+                if (cause == null) {
+                    entry.future.complete(taskId);
+                } else {
+                    entry.future.completeExceptionally(cause);
+                }
+            } else if (closed) {
+                // 下次启动时重放
+                entry.future.completeExceptionally(cause);
+            } else {
+                entry.lastFailure = cause;
+                undelivered.add(entry);
+                wakeUp();
+            }
+        });
+    }
+    
+    /**
+     * @Description 重发也不会成功的失败: 友盟返回的永久错误, 以及消息不合法、参数错误(如secret为null)等本地的确定性错误。
+     * 网络错误、熔断、舱壁和限流拒绝, 以及客户端已关闭等其它失败按可重试处理, 保证至少发送一次
+     */
+    private static boolean isPermanent(Throwable cause) {
+        if (cause instanceof PushException) {
+            return !((PushException) cause).isRetryable();
+        }
+        return cause instanceof NotificationValidationException || cause instanceof IllegalArgumentException;
+    }
+    
+    /**
+     * @Description 锁被占用时不等待: 持有锁的线程释放前后台线程会重新检查, 最迟 {@link #POLL_NANOS} 后也会检查
+     */
+    private void wakeUp() {
+        if (lock.tryLock()) {
+            try {
+                hasWork.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * @Description 写入已确认的记录并整理段。调用时持有lock
+     */
+    private void writeAcks() {
+        if (acked.isEmpty()) {
+            return;
+        }
+        for (Long id = acked.poll(); id != null; id = acked.poll()) {
+            try {
+                append(TYPE_ACK, id, null, null);
+            } catch (IOException e) {
+                logger.error("push queue failed to write ack for {}", id, e);
+                continue;
+            }
+            Long location = pending.remove(id);
+            if (location != null) {
+                Segment segment = segments.get((int) (location >>> 32));
+                if (segment != null) {
+                    segment.pending--;
+                }
+            }
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            logger.error("push queue failed to compact segments in {}", dir, e);
+        }
+    }
+    
+    /**
+     * @Description 为发送失败的消息安排重新发送时间。调用时持有lock
+     */
+    private void scheduleRedeliveries() {
+        for (Entry entry = undelivered.poll(); entry != null; entry = undelivered.poll()) {
+            long delay = redeliveryDelayMillis(++entry.attempts);
+            logger.warn("push queue entry {} not delivered (attempt {}), redelivering in {} ms", entry.id, entry.attempts,
+                    delay, entry.lastFailure);
+            entry.retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            redeliveries.add(entry);
+        }
+    }
+    
+    /**
+     * @Description 指数退避, 在上限的一半到上限之间随机
+     */
+    private static long redeliveryDelayMillis(int attempt) {
+        long ceiling = Math.min(REDELIVERY_MAX_MILLIS, REDELIVERY_BASE_MILLIS << Math.min(attempt - 1, 16));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+    
+    /**
+     * @Description 关闭时还没有重新发送的消息以最后一次失败结束, 下次启动时重放
+     */
+    private void abandonRedeliveries() {
+        scheduleRedeliveries();
+        for (Entry entry = redeliveries.poll(); entry != null; entry = redeliveries.poll()) {
+            entry.future.completeExceptionally(entry.lastFailure);
+        }
+    }
+    
+    /**
+     * @Description 追加一条记录, 返回位置。调用时持有lock
+     */
+    private long append(byte type, long id, byte[] appkey, byte[] body) throws IOException {
+        int length = 1 + 8 + (type == TYPE_ENQUEUE ? 2 + appkey.length + body.length : 0);
+        if (HEADER + length > segmentSize) {
+            throw new IOException("Notification of " + length + " bytes does not fit into a segment");
+        }
+        // 换段时的整理可能向新段搬迁记录, 所以要循环检查
+        while (active.writePos + HEADER + length > segmentSize) {
+            roll();
+        }
+        int pos = active.writePos;
+        ByteBuffer buf = active.buffer.duplicate();
+        buf.position(pos + HEADER);
+        buf.put(type);
+        buf.putLong(id);
+        if (type == TYPE_ENQUEUE) {
+            buf.putShort((short) appkey.length);
+            buf.put(appkey);
+            buf.put(body);
+        }
+        commit(buf, pos, length);
+        active.writePos = pos + HEADER + length;
+        return ((long) active.index << 32) | pos;
+    }
+    
+    /**
+     * @Description 写crc, 最后写长度, 长度不为0即表示记录完整
+     */
+    private void commit(ByteBuffer buf, int pos, int length) {
+        ByteBuffer content = buf.duplicate();
+        content.limit(pos + HEADER + length);
+        content.position(pos + HEADER);
+        crc.reset();
+        crc.update(content);
+        buf.putInt(pos + 4, (int) crc.getValue());
+        buf.putInt(pos, length);
+    }
+    
+    private void roll() throws IOException {
+        active.buffer.force();
+        active.sealed = true;
+        active = openSegment(active.index + 1);
+        compact();
+    }
+    
+    /**
+     * @Description 从最老的段开始删除已全部确认的段; 封存段过多时把最老段未确认的记录搬到当前段。
+     * 封存段超过硬上限且其中至少一半的记录已确认时, 不看单个段的比例, 把现有的封存段全部整理一遍
+     */
+    private void compact() throws IOException {
+        if (compacting) {
+            return;
+        }
+        compacting = true;
+        // 本轮还要强制搬迁的段数, 不包括搬迁过程中新封存的段
+        int forced = 0;
+        try {
+            while (true) {
+                Map.Entry<Integer, Segment> oldest = segments.firstEntry();
+                Segment segment = oldest.getValue();
+                if (!segment.sealed) {
+                    return;
+                }
+                if (segment.pending > 0) {
+                    int sealed = segments.size() - 1;
+                    if (forced == 0) {
+                        if (sealed <= MAX_SEALED_SEGMENTS) {
+                            return;
+                        }
+                        if (segment.pending * RELOCATE_RATIO > segment.records) {
+                            if (sealed <= MAX_SEALED_SEGMENTS_HARD || !mostlyAcked()) {
+                                return;
+                            }
+                            forced = sealed;
+                        }
+                    }
+                    relocate(segment);
+                    active.buffer.force();
+                }
+                if (forced > 0) {
+                    forced--;
+                }
+                segments.remove(oldest.getKey());
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+            }
+        } finally {
+            compacting = false;
+        }
+    }
+    
+    /**
+     * @Description 封存段中已确认的记录不少于一半, 整理一遍至少腾出一半空间, 拷贝量与写入量同阶
+     */
+    private boolean mostlyAcked() {
+        long pendingRecords = 0;
+        long records = 0;
+        for (Segment segment : segments.values()) {
+            if (segment.sealed) {
+                pendingRecords += segment.pending;
+                records += segment.records;
+            }
+        }
+        return pendingRecords * 2 <= records;
+    }
+    
+    private void relocate(Segment segment) throws IOException {
+        ByteBuffer source = segment.buffer.duplicate();
+        int pos = 0;
+        while (pos + HEADER <= segment.writePos) {
+            int length = source.getInt(pos);
+            if (length <= 0) {
+                break;
+            }
+            long id = source.getLong(pos + HEADER + 1);
+            Long location = pending.get(id);
+            if (source.get(pos + HEADER) == TYPE_ENQUEUE && location != null && (int) (location >>> 32) == segment.index) {
+                if (active.writePos + HEADER + length > segmentSize) {
+                    roll();
+                }
+                ByteBuffer record = source.duplicate();
+                record.limit(pos + HEADER + length);
+                record.position(pos);
+                int target = active.writePos;
+                ByteBuffer dest = active.buffer.duplicate();
+                dest.position(target);
+                dest.put(record);
+                active.writePos = target + HEADER + length;
+                pending.put(id, ((long) active.index << 32) | target);
+                active.pending++;
+                active.records++;
+                segment.pending--;
+            }
+            pos += HEADER + length;
+        }
+    }
+    
+    /**
+     * @Description 扫描所有段, 重建未确认的记录, 遇到不完整或校验失败的记录即认为该段结束
+     */
+    private List<Entry> recover() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                int index = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(index, openSegment(index));
+            }
+        }
+        for (Segment segment : segments.values()) {
+            ByteBuffer buf = segment.buffer.duplicate();
+            int pos = 0;
+            while (pos + HEADER <= segmentSize) {
+                int length = buf.getInt(pos);
+                if (length <= 0 || pos + HEADER + length > segmentSize) {
+                    break;
+                }
+                ByteBuffer content = buf.duplicate();
+                content.limit(pos + HEADER + length);
+                content.position(pos + HEADER);
+                crc.reset();
+                crc.update(content);
+                if ((int) crc.getValue() != buf.getInt(pos + 4)) {
+                    break;
+                }
+                byte type = buf.get(pos + HEADER);
+                long id = buf.getLong(pos + HEADER + 1);
+                if (type == TYPE_ENQUEUE) {
+                    pending.put(id, ((long) segment.index << 32) | pos);
+                    segment.pending++;
+                    segment.records++;
+                } else {
+                    Long location = pending.remove(id);
+                    if (location != null) {
+                        Segment owner = segments.get((int) (location >>> 32));
+                        owner.pending--;
+                    }
+                }
+                nextId = Math.max(nextId, id + 1);
+                pos += HEADER + length;
+            }
+            segment.writePos = pos;
+            segment.sealed = true;
+        }
+        if (segments.isEmpty()) {
+            active = openSegment(0);
+        } else {
+            // 总是在新段中继续写, 避免接在可能损坏的尾部之后
+            active = openSegment(segments.lastKey() + 1);
+        }
+        List<Entry> recovered = new ArrayList<>(pending.size());
+        for (Map.Entry<Long, Long> e : pending.entrySet()) {
+            recovered.add(readEntry(e.getKey(), e.getValue()));
+        }
+        lock.lock();
+        try {
+            compact();
+        } finally {
+            lock.unlock();
+        }
+        return recovered;
+    }
+    
+    /**
+     * @Description 按日志中的字节重放, 只原地改写可能已经过期的timestamp; timestamp不是标准的10位数字时才重新编码
+     */
+    private Entry readEntry(long id, long location) {
+        Segment segment = segments.get((int) (location >>> 32));
+        ByteBuffer buf = segment.buffer.duplicate();
+        int pos = (int) location;
+        int length = buf.getInt(pos);
+        buf.position(pos + HEADER + 1 + 8);
+        byte[] appkey = new byte[buf.getShort()];
+        buf.get(appkey);
+        byte[] body = new byte[length - 1 - 8 - 2 - appkey.length];
+        buf.get(body);
+        String appkeyString = new String(appkey, StandardCharsets.UTF_8);
+        int timestampOffset = UmengNotification.timestampOffset(body);
+        if (timestampOffset >= 0) {
+            UmengNotification.restamp(body, timestampOffset);
+        } else {
+            JsonCodec codec = client.getJsonCodec();
+            Map<String, Object> json = codec.parseObject(new String(body, StandardCharsets.UTF_8));
+            json.put("timestamp", UmengNotification.currentTimestamp());
+            body = RequestSigner.encodeUtf8(codec.toJson(json));
+        }
+        String type = typeOf(body);
+        Entry entry = new Entry(appkeyString, body, secretResolver.apply(appkeyString),
+                client.getMetrics().series(PushMetrics.Endpoint.SEND, type == null ? PushMetrics.UNKNOWN : type, PushMetrics.UNKNOWN));
+        entry.id = id;
+        return entry;
+    }
+    
+    /**
+     * @Description 请求体中type的值, 只用于指标分组; 消息体的第一个 "type":"..." 就是顶层的type
+     */
+    private static String typeOf(byte[] body) {
+        outer:
+        for (int i = 0; i + TYPE_PREFIX.length < body.length; i++) {
+            for (int j = 0; j < TYPE_PREFIX.length; j++) {
+                if (body[i + j] != TYPE_PREFIX[j]) {
+                    continue outer;
+                }
+            }
+            int start = i + TYPE_PREFIX.length;
+            for (int end = start; end < body.length; end++) {
+                if (body[end] == '"') {
+                    return new String(body, start, end - start, StandardCharsets.UTF_8);
+                }
+            }
+            return null;
+        }
+        return null;
+    }
+    
+    private Segment openSegment(int index) throws IOException {
+        Path path = dir.resolve(SEGMENT_PREFIX + index + SEGMENT_SUFFIX);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(index, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        segments.put(index, segment);
+        return segment;
+    }
+    
+    /**
+     * @Description 停止后台线程并刷盘, 未发送完和等待重新发送的消息下次启动时重放
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            hasWork.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Entry entry = undelivered.poll(); entry != null; entry = undelivered.poll()) {
+            entry.future.completeExceptionally(entry.lastFailure);
+        }
+        lock.lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private static final class Segment {
+        private final int index;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int writePos;
+        /**
+         * 本段中未确认的记录数, 受lock保护
+         */
+        private int pending;
+        /**
+         * 本段中的消息记录数
+         */
+        private int records;
+        private boolean sealed;
+        
+        private Segment(int index, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.index = index;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+    
+    private static final class Entry {
+        private final String appkey;
+        private final byte[] body;
+        private final String secret;
+        private final PushMetrics.Series series;
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+        /**
+         * 重新发送时改写timestamp的位置, 没有时为-1
+         */
+        private final int timestampOffset;
+        private long id;
+        private int attempts;
+        /**
+         * 下次发送的时间(nanoTime)
+         */
+        private long retryAt;
+        private Throwable lastFailure;
+        
+        private Entry(String appkey, byte[] body, String secret, PushMetrics.Series series) {
+            this.appkey = appkey;
+            this.body = body;
+            this.secret = secret;
+            this.series = series;
+            this.timestampOffset = UmengNotification.timestampOffset(body);
+        }
+    }
+}
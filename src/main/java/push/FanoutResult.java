@@ -0,0 +1,125 @@
+package push;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author zzh
+ * @description 跨平台同时发送的结果: 每个平台的消息id、异常和耗时, 顺序与发送时的参数一致。
+ * 一个平台失败不影响其它平台, 总耗时是最慢的平台的耗时。
+ */
+public class FanoutResult {
+    private final List<PlatformResult> results;
+    
+    FanoutResult(List<PlatformResult> results) {
+        this.results = Collections.unmodifiableList(results);
+    }
+    
+    public List<PlatformResult> getResults() {
+        return results;
+    }
+    
+    /**
+     * @Description 指定平台({@link PushMetrics#ANDROID}/{@link PushMetrics#IOS})的第一个结果, 没有时返回null
+     */
+    public PlatformResult get(String platform) {
+        for (PlatformResult result : results) {
+            if (result.platform.equals(platform)) {
+                return result;
+            }
+        }
+        return null;
+    }
+    
+    public boolean isAllSuccess() {
+        for (PlatformResult result : results) {
+            if (!result.isSuccess()) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @Description 各平台的消息id, 失败的平台为null
+     */
+    public List<String> getTaskIds() {
+        List<String> taskIds = new ArrayList<>(results.size());
+        for (PlatformResult result : results) {
+            taskIds.add(result.taskId);
+        }
+        return taskIds;
+    }
+    
+    /**
+     * @Description 第一个失败平台的异常, 都成功时返回null
+     */
+    public Throwable getFirstError() {
+        for (PlatformResult result : results) {
+            if (result.error != null) {
+                return result.error;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * @Description 总耗时, 即最慢的平台的耗时, 单位毫秒
+     */
+    public long getLatencyMillis() {
+        long max = 0;
+        for (PlatformResult result : results) {
+            max = Math.max(max, result.latencyNanos);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(max);
+    }
+    
+    @Override
+    public String toString() {
+        return results.toString();
+    }
+    
+    /**
+     * 一个平台的发送结果
+     */
+    public static class PlatformResult {
+        private final String platform;
+        private final String taskId;
+        private final Throwable error;
+        private final long latencyNanos;
+        
+        PlatformResult(String platform, String taskId, Throwable error, long latencyNanos) {
+            this.platform = platform;
+            this.taskId = taskId;
+            this.error = error;
+            this.latencyNanos = latencyNanos;
+        }
+        
+        public String getPlatform() {
+            return platform;
+        }
+        
+        public String getTaskId() {
+            return taskId;
+        }
+        
+        public Throwable getError() {
+            return error;
+        }
+        
+        public boolean isSuccess() {
+            return error == null;
+        }
+        
+        public long getLatencyMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+        }
+        
+        @Override
+        public String toString() {
+            return platform + (error == null ? ": " + taskId : ": " + error) + " (" + getLatencyMillis() + " ms)";
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package push;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.parser.Feature;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * @author zzh
+ * @description 基于fastjson的编解码器
+ */
+public final class FastjsonCodec implements JsonCodec {
+    public static final FastjsonCodec INSTANCE = new FastjsonCodec();
+    
+    private FastjsonCodec() {
+    }
+    
+    @Override
+    public String toJson(Object value) {
+        return JSON.toJSONString(value);
+    }
+    
+    @Override
+    public Map<String, Object> parseObject(String json) {
+        return JSON.parseObject(json, Feature.OrderedField);
+    }
+    
+    /**
+     * @Description 与 {@link UmengResponseParser} 一致: data不是对象时忽略, 其它任何解析错误都以IOException抛出
+     */
+    @Override
+    public UmengResult parseResult(InputStream in, UmengResult result) throws IOException {
+        try {
+            JSONObject root = JSON.parseObject(in, StandardCharsets.UTF_8, JSONObject.class);
+            if (root == null) {
+                throw new IOException("Malformed umeng response");
+            }
+            result.setRet(root.getString("ret"));
+            Object data = root.get("data");
+            if (data instanceof JSONObject) {
+                JSONObject fields = (JSONObject) data;
+                result.setTaskId(fields.getString("task_id"));
+                result.setFileId(fields.getString("file_id"));
+                result.setErrorCode(fields.getString("error_code"));
+                result.setErrorMsg(fields.getString("error_msg"));
+            }
+            return result;
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed umeng response", e);
+        }
+    }
+}
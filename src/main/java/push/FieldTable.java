@@ -0,0 +1,105 @@
+package push;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * @author zzh
+ * @description 一层JSON对象的固定字段表: 字段按下标存放在Object[]中, 字段名的 "name": 前缀预先编码为UTF-8,
+ * 序列化时按声明顺序输出非null的字段。
+ */
+final class FieldTable {
+    private final String[] names;
+    private final byte[][] prefixes;
+    private final HashMap<String, Integer> index;
+    
+    FieldTable(String... names) {
+        this.names = names;
+        this.prefixes = new byte[names.length][];
+        this.index = new HashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            prefixes[i] = Utf8JsonWriter.namePrefix(names[i]);
+            index.put(names[i], i);
+        }
+    }
+    
+    /**
+     * @Description 字段下标, 不是本层的字段时返回-1
+     */
+    int indexOf(String key) {
+        Integer i = index.get(key);
+        return i == null ? -1 : i;
+    }
+    
+    int size() {
+        return names.length;
+    }
+    
+    HashSet<String> keys() {
+        return new HashSet<>(Arrays.asList(names));
+    }
+    
+    /**
+     * @Description 字段 "name":value 序列化后的字节数, value为null时为0
+     */
+    int memberLength(int i, Object value) {
+        return value == null ? 0 : prefixes[i].length + Utf8JsonWriter.valueLength(value);
+    }
+    
+    /**
+     * @Description 写入一个字段, first为false时先写逗号
+     */
+    void writeField(Utf8JsonWriter writer, int i, Object value, boolean first) {
+        if (!first) {
+            writer.writeByte(',');
+        }
+        writer.writeRaw(prefixes[i]);
+        writer.writeValue(value);
+    }
+    
+    /**
+     * @Description 按顺序写入 [from, to) 中非null的字段, 返回写完后是否仍没有写过任何字段
+     */
+    boolean writeFields(Utf8JsonWriter writer, Object[] values, int from, int to, boolean first) {
+        for (int i = from; i < to; i++) {
+            if (values[i] != null) {
+                writeField(writer, i, values[i], first);
+                first = false;
+            }
+        }
+        return first;
+    }
+    
+    /**
+     * @Description 写入整个对象 {...}
+     */
+    void writeObject(Utf8JsonWriter writer, Object[] values) {
+        writer.writeByte('{');
+        writeFields(writer, values, 0, names.length, true);
+        writer.writeByte('}');
+    }
+    
+    /**
+     * @Description 合并多层字段表为一个查找表: key -> (层次 << 16 | 下标), 层次为参数中的位置。
+     * 设置字段时只需一次查找
+     */
+    static HashMap<String, Integer> slots(FieldTable... levels) {
+        HashMap<String, Integer> slots = new HashMap<>();
+        for (int level = 0; level < levels.length; level++) {
+            for (int i = 0; i < levels[level].names.length; i++) {
+                slots.put(levels[level].names[i], level << 16 | i);
+            }
+        }
+        return slots;
+    }
+    
+    static boolean isEmpty(Object[] values) {
+        for (Object value : values) {
+            if (value != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
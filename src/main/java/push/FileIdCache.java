@@ -0,0 +1,347 @@
+package push;
+
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * @author zzh
+ * @description 上传内容的file_id缓存, 按 appkey + 内容的SHA-256 查找, 同样的alias/device_token列表再次上传时直接使用
+ * 之前的file_id。内容的摘要在写入临时文件或读取文件时流式计算, 不在内存中保留整个内容。
+ * <p>
+ * 条目在ttl后过期(应不长于友盟保留上传文件的时间), 超过maxEntries时淘汰最久未使用的条目。
+ * 同一内容的并发上传合并为一个请求。指定了文件时每个新的file_id追加写入文件, 删除条目时追加一行已过期的记录,
+ * 启动时按顺序加载, 后面的行覆盖前面的行; 追加的行数超过条目上限的两倍时重写文件。可以被多个PushClient共享。
+ */
+public class FileIdCache implements Closeable {
+    private static Logger logger = LoggerFactory.getLogger(FileIdCache.class);
+    /**
+     * 摘要读取文件的缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Path file;
+    /**
+     * appkey:摘要 -> 条目, 按访问顺序排列
+     */
+    private final LinkedHashMap<String, Entry> entries;
+    private final ConcurrentHashMap<String, CompletableFuture<String>> uploading = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private BufferedWriter writer;
+    private int appended;
+    
+    /**
+     * @Description 只在内存中缓存, 最多10000个条目, 保留1天
+     */
+    public FileIdCache() {
+        this(10000, 1, TimeUnit.DAYS);
+    }
+    
+    public FileIdCache(int maxEntries, long ttl, TimeUnit unit) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = unit.toMillis(ttl);
+        this.file = null;
+        this.entries = newEntries(maxEntries);
+    }
+    
+    /**
+     * @param file 持久化文件, 不存在时创建
+     */
+    public FileIdCache(int maxEntries, long ttl, TimeUnit unit, Path file) throws IOException {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = unit.toMillis(ttl);
+        this.file = file;
+        this.entries = newEntries(maxEntries);
+        if (Files.exists(file)) {
+            load();
+        }
+        rewrite();
+    }
+    
+    private static LinkedHashMap<String, Entry> newEntries(int maxEntries) {
+        return new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+    
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * @Description 文件内容的摘要
+     */
+    public static byte[] digest(Path contents) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(contents)) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return digest.digest();
+    }
+    
+    /**
+     * @Description 字符串按UTF-8编码后的摘要, 与内容相同的文件摘要一致
+     */
+    public static byte[] digest(String contents) {
+        return newDigest().digest(contents.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static String key(String appkey, byte[] digest) {
+        return appkey + ':' + Hex.encodeHexString(digest);
+    }
+    
+    /**
+     * @Description 缓存的file_id, 没有或已过期时返回null
+     */
+    public String get(String appkey, byte[] digest) {
+        return lookup(key(appkey, digest));
+    }
+    
+    /**
+     * @Description 缓存中有未过期的file_id时直接返回, 否则调用upload上传; 同一内容正在上传时等待同一个结果
+     */
+    public CompletableFuture<String> fileIdAsync(String appkey, byte[] digest, Supplier<CompletableFuture<String>> upload) {
+        String key = key(appkey, digest);
+        String fileId = lookup(key);
+        if (fileId != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture(fileId);
+        }
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture<String> existing = uploading.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.increment();
+            return existing;
+        }
+        // 查找和登记之间可能有上传刚刚完成
+        fileId = lookup(key);
+        if (fileId != null) {
+            uploading.remove(key, future);
+            hits.increment();
+            future.complete(fileId);
+            return future;
+        }
+        misses.increment();
+        CompletableFuture<String> result;
+        try {
+            result = upload.get();
+        } catch (RuntimeException e) {
+            uploading.remove(key, future);
+            future.completeExceptionally(e);
+            return future;
+        }
+        result.whenComplete((id, e) -> {
+            if (e == null) {
+                // 先写入缓存再移除登记, 之后的请求一定能查到
+                put(key, id);
+                uploading.remove(key, future);
+                future.complete(id);
+            } else {
+                uploading.remove(key, future);
+                future.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+        });
+        return future;
+    }
+    
+    /**
+     * @Description 删除条目, 如发送时友盟返回file_id已失效
+     */
+    public synchronized void invalidate(String appkey, byte[] digest) {
+        remove(key(appkey, digest));
+    }
+    
+    /**
+     * @Description 删除指向该file_id的条目, 用于发送时只知道file_id的情况
+     */
+    public synchronized void invalidateFileId(String appkey, String fileId) {
+        String prefix = appkey + ':';
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().fileId.equals(fileId) && entry.getKey().startsWith(prefix)) {
+                keys.add(entry.getKey());
+            }
+        }
+        for (String key : keys) {
+            remove(key);
+        }
+    }
+    
+    private void remove(String key) {
+        if (entries.remove(key) == null || file == null) {
+            return;
+        }
+        // 已过期的记录, 加载时覆盖之前写入的file_id
+        persist(key, new Entry("-", 0));
+    }
+    
+    private synchronized String lookup(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.fileId;
+    }
+    
+    private synchronized void put(String key, String fileId) {
+        Entry entry = new Entry(fileId, System.currentTimeMillis() + ttlMillis);
+        entries.put(key, entry);
+        if (file != null) {
+            persist(key, entry);
+        }
+    }
+    
+    private void persist(String key, Entry entry) {
+        try {
+            if (writer == null || appended >= 2 * maxEntries) {
+                rewrite();
+            } else {
+                write(writer, key, entry);
+                writer.flush();
+                appended++;
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to persist file id cache to {}", file, e);
+        }
+    }
+    
+    private void load() throws IOException {
+        long now = System.currentTimeMillis();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                // key \t fileId \t expiresAt, 写到一半的行直接跳过
+                String[] parts = line.split("\t");
+                if (parts.length != 3) {
+                    continue;
+                }
+                try {
+                    long expiresAt = Long.parseLong(parts[2]);
+                    if (expiresAt > now) {
+                        entries.put(parts[0], new Entry(parts[1], expiresAt));
+                    } else {
+                        entries.remove(parts[0]);
+                    }
+                } catch (NumberFormatException ignored) {
+                    // 损坏的行
+                }
+            }
+        }
+    }
+    
+    /**
+     * @Description 把当前未过期的条目写入临时文件后替换, 之后追加写入新文件
+     */
+    private void rewrite() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        long now = System.currentTimeMillis();
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if (entry.getValue().expiresAt > now) {
+                    write(out, entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        appended = 0;
+    }
+    
+    private static void write(BufferedWriter out, String key, Entry entry) throws IOException {
+        out.write(key);
+        out.write('\t');
+        out.write(entry.fileId);
+        out.write('\t');
+        out.write(Long.toString(entry.expiresAt));
+        out.write('\n');
+    }
+    
+    public synchronized int size() {
+        return entries.size();
+    }
+    
+    /**
+     * @Description 直接使用缓存的次数
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+    
+    /**
+     * @Description 实际上传的次数
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+    
+    /**
+     * @Description 等待同一内容正在进行的上传的次数
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+    
+    private static final class Entry {
+        final String fileId;
+        final long expiresAt;
+        
+        Entry(String fileId, long expiresAt) {
+            this.fileId = fileId;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package push;
+
+import lombok.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author zzh
+ * @description 大批量的文件播: 把alias/device_token源按固定大小切成多个文件, 最多同时处理 {@link #maxConcurrentChunks} 个,
+ * 每个文件上传完成拿到file_id后立即发送, 上传和发送互相重叠。读取源和写临时文件在executor中进行, 内存占用与总人数无关。
+ * <p>
+ * 指定检查点文件时记录每个文件的file_id和发送结果。失败后用同一个源和检查点重新执行, 已发送的文件直接跳过,
+ * 已上传未发送的文件直接用记录的file_id发送。源必须能按相同顺序重新读出; 发送成功但还没写入检查点时中断的文件会再发送一次。
+ * 默认先去掉源中重复的值, 重复的人不会收到两次通知, 也不占上传的字节。
+ * <pre>
+ * FilecastPipeline pipeline = new FilecastPipeline();
+ * pipeline.customizedcast(client, prototype, "user_id", aliases, Paths.get("campaign-42.ckpt"), executor).get();
+ * </pre>
+ */
+@Data
+public class FilecastPipeline {
+    private static Logger logger = LoggerFactory.getLogger(FilecastPipeline.class);
+    private static final String[] RECIPIENT_KEYS = {"device_tokens", "alias", "alias_type", "file_id", "filter"};
+    
+    /**
+     * 每个文件的alias/device_token数
+     */
+    private int chunkSize = 100000;
+    /**
+     * 同时上传或发送中的文件数
+     */
+    private int maxConcurrentChunks = 4;
+    /**
+     * 是否去掉源中重复的alias/device_token, 见 {@link RecipientDeduplicator}
+     */
+    private boolean deduplicate = true;
+    /**
+     * 预计的不重复人数, 用于分配去重哈希表
+     */
+    private long expectedRecipients = 1000000;
+    
+    /**
+     * @Description 按device_token文件播, 返回各文件的消息id
+     * @param checkpoint 检查点文件, 为null时不记录
+     */
+    public CompletableFuture<List<String>> filecast(PushClient client, UmengNotification prototype,
+                                                    Iterator<? extends CharSequence> deviceTokens, Path checkpoint,
+                                                    Executor executor) {
+        return execute(client, prototype, "filecast", null, deviceTokens, checkpoint, executor);
+    }
+    
+    /**
+     * @Description 按alias文件自定义播, 返回各文件的消息id
+     * @param checkpoint 检查点文件, 为null时不记录
+     */
+    public CompletableFuture<List<String>> customizedcast(PushClient client, UmengNotification prototype, String aliasType,
+                                                          Iterator<? extends CharSequence> aliases, Path checkpoint,
+                                                          Executor executor) {
+        if (aliasType == null || aliasType.isEmpty()) {
+            throw new IllegalArgumentException("Alias type must not be empty");
+        }
+        return execute(client, prototype, "customizedcast", aliasType, aliases, checkpoint, executor);
+    }
+    
+    private CompletableFuture<List<String>> execute(PushClient client, UmengNotification prototype, String type,
+                                                    String aliasType, Iterator<? extends CharSequence> recipients,
+                                                    Path checkpoint, Executor executor) {
+        NotificationSnapshot base = prototype.snapshot();
+        for (String key : RECIPIENT_KEYS) {
+            base = base.with(key, null);
+        }
+        base = base.with("type", type).with("alias_type", aliasType);
+        Checkpoint progress;
+        try {
+            // 用占位的file_id先校验, 避免内容不合法时白白上传
+            base.with("file_id", "-").validate();
+            progress = checkpoint == null ? new Checkpoint() : Checkpoint.open(checkpoint, chunkSize, deduplicate);
+        } catch (NotificationValidationException | IOException | RuntimeException e) {
+            CompletableFuture<List<String>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        CompletableFuture<List<String>> result = new CompletableFuture<>();
+        NotificationSnapshot template = base;
+        executor.execute(() -> run(client, template, recipients, progress, result));
+        return result;
+    }
+    
+    /**
+     * @Description 读取源并逐个提交文件, 窗口满时等待; 出现失败后不再提交新的文件, 等已提交的结束后以第一个异常结束
+     */
+    private void run(PushClient client, NotificationSnapshot template, Iterator<? extends CharSequence> recipients,
+                     Checkpoint progress, CompletableFuture<List<String>> result) {
+        Semaphore window = new Semaphore(maxConcurrentChunks);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<CompletableFuture<String>> chunks = new ArrayList<>();
+        // 去重后的顺序与源的顺序一致, 重新执行时各文件的内容不变
+        RecipientDeduplicator dedup = deduplicate ? new RecipientDeduplicator(expectedRecipients) : null;
+        if (dedup != null) {
+            recipients = dedup.filter(recipients);
+        }
+        try {
+            for (int index = 0; recipients.hasNext() && failure.get() == null; index++) {
+                String taskId = progress.taskId(index);
+                if (taskId != null) {
+                    skip(recipients);
+                    chunks.add(CompletableFuture.completedFuture(taskId));
+                    continue;
+                }
+                window.acquire();
+                if (failure.get() != null) {
+                    window.release();
+                    break;
+                }
+                CompletableFuture<String> chunk = submit(client, template, recipients, progress, index);
+                chunk.whenComplete((id, e) -> {
+                    window.release();
+                    if (e != null) {
+                        failure.compareAndSet(null, unwrap(e));
+                    }
+                });
+                chunks.add(chunk);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } catch (IOException | RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+        CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).whenComplete((v, e) -> {
+            progress.close();
+            if (dedup != null) {
+                logger.info("Filecast removed {} duplicate recipients of {}", dedup.getDuplicates(), dedup.size());
+                dedup.close();
+            }
+            // 各文件自己的回调可能还没有执行
+            Throwable cause = failure.get() != null ? failure.get() : e != null ? unwrap(e) : null;
+            if (cause != null) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            List<String> taskIds = new ArrayList<>(chunks.size());
+            for (CompletableFuture<String> chunk : chunks) {
+                taskIds.add(chunk.join());
+            }
+            result.complete(taskIds);
+        });
+    }
+    
+    private CompletableFuture<String> submit(PushClient client, NotificationSnapshot template,
+                                             Iterator<? extends CharSequence> recipients, Checkpoint progress, int index)
+            throws IOException {
+        String uploaded = progress.fileId(index);
+        CompletableFuture<String> fileId;
+        if (uploaded != null) {
+            skip(recipients);
+            fileId = CompletableFuture.completedFuture(uploaded);
+        } else {
+            Path spool = spool(recipients);
+            fileId = client.uploadContentsAsync(template.getAppkey(), template.getAppMasterSecret(), spool)
+                    .whenComplete((id, e) -> delete(spool))
+                    .thenApply(id -> {
+                        progress.uploaded(index, id);
+                        return id;
+                    });
+        }
+        return fileId.thenCompose(id -> client.sendAsync(template.with("file_id", id))).thenApply(taskId -> {
+            progress.sent(index, taskId);
+            logger.info("Filecast chunk {} sent, task id {}", index, taskId);
+            return taskId;
+        });
+    }
+    
+    /**
+     * @Description 把下一个文件的内容写入临时文件, 每行一个
+     */
+    private Path spool(Iterator<? extends CharSequence> recipients) throws IOException {
+        Path spool = Files.createTempFile("umeng-filecast", ".txt");
+        try (Writer writer = Files.newBufferedWriter(spool, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < chunkSize && recipients.hasNext(); i++) {
+                if (i > 0) {
+                    writer.write('\n');
+                }
+                writer.append(recipients.next());
+            }
+        } catch (IOException | RuntimeException e) {
+            delete(spool);
+            throw e;
+        }
+        return spool;
+    }
+    
+    private void skip(Iterator<? extends CharSequence> recipients) {
+        for (int i = 0; i < chunkSize && recipients.hasNext(); i++) {
+            recipients.next();
+        }
+    }
+    
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+    
+    private static void delete(Path spool) {
+        try {
+            Files.deleteIfExists(spool);
+        } catch (IOException ignored) {
+            spool.toFile().deleteOnExit();
+        }
+    }
+    
+    /**
+     * 每个文件的file_id和消息id, 指定了文件时每条记录追加写入: "U 下标 file_id" 或 "S 下标 消息id", 以tab分隔。
+     * 第一行记录切分方式 "chunkSize=N deduplicate=B"(tab分隔), 两者任一不同时各文件的内容都会变, 不能接着执行。
+     * 只有以换行结束的记录才算写完, 中断时写了一半的记录被丢弃。
+     */
+    private static final class Checkpoint implements Closeable {
+        private final Map<Integer, String> fileIds = new HashMap<>();
+        private final Map<Integer, String> taskIds = new HashMap<>();
+        private final Path file;
+        private BufferedWriter writer;
+        
+        Checkpoint() {
+            this.file = null;
+        }
+        
+        private Checkpoint(Path file, BufferedWriter writer) {
+            this.file = file;
+            this.writer = writer;
+        }
+        
+        static Checkpoint open(Path file, int chunkSize, boolean deduplicate) throws IOException {
+            String header = "chunkSize=" + chunkSize + "\tdeduplicate=" + deduplicate;
+            byte[] content = Files.exists(file) ? Files.readAllBytes(file) : new byte[0];
+            // 最后一个换行之后的内容是没写完的记录
+            int end = content.length - 1;
+            while (end >= 0 && content[end] != '\n') {
+                end--;
+            }
+            Checkpoint checkpoint;
+            if (end >= 0) {
+                checkpoint = new Checkpoint(file, null);
+                String[] lines = new String(content, 0, end, StandardCharsets.UTF_8).split("\n", -1);
+                if (!header.equals(lines[0])) {
+                    throw new IllegalStateException("Checkpoint " + file + " was written with " + lines[0]
+                            + ", not " + header);
+                }
+                for (int i = 1; i < lines.length; i++) {
+                    String[] parts = lines[i].split("\t");
+                    if (parts.length == 3 && !parts[2].isEmpty()) {
+                        (parts[0].equals("S") ? checkpoint.taskIds : checkpoint.fileIds).put(Integer.valueOf(parts[1]), parts[2]);
+                    }
+                }
+                if (end < content.length - 1) {
+                    // 去掉写了一半的记录, 否则补上换行后它会被当作完整的记录读出
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        channel.truncate(end + 1);
+                    }
+                }
+                checkpoint.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+            } else {
+                // 文件不存在, 或者连第一行都没写完, 还没有任何记录
+                checkpoint = new Checkpoint(file, Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+                checkpoint.writer.write(header);
+                checkpoint.writer.write('\n');
+            }
+            checkpoint.writer.flush();
+            return checkpoint;
+        }
+        
+        synchronized String fileId(int index) {
+            return fileIds.get(index);
+        }
+        
+        synchronized String taskId(int index) {
+            return taskIds.get(index);
+        }
+        
+        synchronized void uploaded(int index, String fileId) {
+            fileIds.put(index, fileId);
+            append("U", index, fileId);
+        }
+        
+        synchronized void sent(int index, String taskId) {
+            taskIds.put(index, taskId);
+            append("S", index, taskId);
+        }
+        
+        private void append(String kind, int index, String value) {
+            if (writer == null) {
+                return;
+            }
+            try {
+                writer.write(kind + '\t' + index + '\t' + value + '\n');
+                writer.flush();
+            } catch (IOException e) {
+                logger.warn("Failed to write filecast checkpoint {}", file, e);
+            }
+        }
+        
+        @Override
+        public synchronized void close() {
+            if (writer == null) {
+                return;
+            }
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close filecast checkpoint {}", file, e);
+            }
+            writer = null;
+        }
+    }
+}
@@ -2,83 +2,196 @@ package push;
 
 import org.json.JSONObject;
 
-import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 
 /**
  * 友盟IOS推送组装类
  */
 public abstract class IOSNotification extends UmengNotification {
+    /**
+     * Aps level fields, aps is under payload
+     */
+    static final FieldTable APS = new FieldTable("alert", "badge", "sound", "content-available");
+    private static final int APS_LEVEL = 2;
+    private static final byte[] APS_PREFIX = Utf8JsonWriter.namePrefix("aps");
+    static final NotificationLayout LAYOUT = new NotificationLayout(PushMetrics.IOS, ROOT, POLICY, APS) {
+        @Override
+        boolean writePayload(Utf8JsonWriter writer, boolean first, Object[][] levels, Map<String, String> customized) {
+            Object[] aps = levels[APS_LEVEL];
+            boolean hasAps = !FieldTable.isEmpty(aps);
+            boolean hasCustomized = customized != null && !customized.isEmpty();
+            if (!hasAps && !hasCustomized) {
+                return first;
+            }
+            beginPayload(writer, first);
+            boolean empty = true;
+            if (hasAps) {
+                writer.writeRaw(APS_PREFIX);
+                APS.writeObject(writer, aps);
+                empty = false;
+            }
+            if (hasCustomized) {
+                for (Map.Entry<String, String> entry : customized.entrySet()) {
+                    if (!empty) {
+                        writer.writeByte(',');
+                    }
+                    writer.writeString(entry.getKey());
+                    writer.writeByte(':');
+                    writer.writeValue(entry.getValue());
+                    empty = false;
+                }
+            }
+            writer.writeByte('}');
+            return false;
+        }
+    };
+    /**
+     * All predefined keys: key -> (level << 16 | index)
+     */
+    static final HashMap<String, Integer> SLOTS = LAYOUT.slots();
     /**
      * @Description Keys can be set in the aps level
      */
-    protected static final HashSet<String> APS_KEYS = new HashSet<>(Arrays.asList("alert", "badge", "sound", "content-available"));
+    protected static final HashSet<String> APS_KEYS = APS.keys();
+    
+    protected final Object[] aps = new Object[APS.size()];
+    /**
+     * Customized key/values in the payload level, created on first use
+     */
+    protected LinkedHashMap<String, String> customized;
+    /**
+     * Serialized sizes of aps and the customized fields, updated as fields are set
+     */
+    private final ObjectSize apsSize = new ObjectSize();
+    private final ObjectSize customizedSize = new ObjectSize();
     
     @Override
     public boolean setPredefinedKeyValue(String key, Object value) throws Exception {
-        if (ROOT_KEYS.contains(key)) {
-            // This key should be in the root level
-            rootJson.put(key, value);
-        } else if (APS_KEYS.contains(key)) {
-            // This key should be in the aps level
-            JSONObject apsJson;
-            JSONObject payloadJson;
-            if (rootJson.has("payload")) {
-                payloadJson = rootJson.getJSONObject("payload");
-            } else {
-                payloadJson = new JSONObject();
-                rootJson.put("payload", payloadJson);
-            }
-            if (payloadJson.has("aps")) {
-                apsJson = payloadJson.getJSONObject("aps");
-            } else {
-                apsJson = new JSONObject();
-                payloadJson.put("aps", apsJson);
-            }
-            apsJson.put(key, value);
-        } else if (POLICY_KEYS.contains(key)) {
-            // This key should be in the body level
-            JSONObject policyJson;
-            if (rootJson.has("policy")) {
-                policyJson = rootJson.getJSONObject("policy");
-            } else {
-                policyJson = new JSONObject();
-                rootJson.put("policy", policyJson);
-            }
-            policyJson.put(key, value);
-        } else {
+        Integer slot = SLOTS.get(key);
+        if (slot == null) {
             if (Objects.equals(key, "payload") || Objects.equals(key, "aps") || Objects.equals(key, "policy")) {
                 throw new Exception("You don't need to set value for " + key + " , just set values for the sub keys in it.");
             } else {
                 throw new Exception("Unknownd key: " + key);
             }
         }
+        int level = slot >>> 16;
+        int index = slot & 0xffff;
+        Object[] values = level(level);
+        if (level == APS_LEVEL) {
+            apsSize.update(APS.memberLength(index, values[index]), APS.memberLength(index, value));
+        }
+        values[index] = value;
         return true;
     }
     
+    @Override
+    public Object getPredefinedKeyValue(String key) {
+        Integer slot = SLOTS.get(key);
+        return slot == null ? null : value(slot);
+    }
+    
+    @Override
+    Object[] level(int level) {
+        switch (level) {
+            case ROOT_LEVEL:
+                return root;
+            case POLICY_LEVEL:
+                return policy;
+            case APS_LEVEL:
+                return aps;
+            default:
+                throw new IllegalArgumentException("Unknown level: " + level);
+        }
+    }
+    
     /**
      * @Description Set customized key/value for IOS notification
      */
     public boolean setCustomizedField(String key, String value) throws Exception {
-        //rootJson.put(key, value);
-        JSONObject payloadJson;
-        if (rootJson.has("payload")) {
-            payloadJson = rootJson.getJSONObject("payload");
-        } else {
-            payloadJson = new JSONObject();
-            rootJson.put("payload", payloadJson);
+        if (customized == null) {
+            customized = new LinkedHashMap<>();
         }
-        payloadJson.put(key, value);
+        boolean existed = customized.containsKey(key);
+        String old = customized.put(key, value);
+        customizedSize.update(existed ? ObjectSize.memberLength(key, old) : 0, ObjectSize.memberLength(key, value));
         return true;
     }
     
+    /**
+     * @Description Remove a customized key
+     */
+    public void removeCustomizedField(String key) {
+        if (customized != null && customized.containsKey(key)) {
+            customizedSize.update(ObjectSize.memberLength(key, customized.remove(key)), 0);
+        }
+    }
+    
+    /**
+     * @Description payload序列化后的字节数, 随字段设置增量维护, O(1)。alert为JSON对象时按设置时的内容计算
+     */
+    @Override
+    public int getPayloadSize() {
+        int members = customizedSize.members();
+        int bytes = customizedSize.contentLength();
+        if (!apsSize.isEmpty()) {
+            bytes += (members > 0 ? 1 : 0) + APS_PREFIX.length + apsSize.length();
+            members++;
+        }
+        return members == 0 ? 0 : bytes + 2;
+    }
+    
+    @Override
+    NotificationLayout layout() {
+        return LAYOUT;
+    }
+    
+    @Override
+    Object[][] levels() {
+        return new Object[][]{root, policy, aps};
+    }
+    
+    @Override
+    LinkedHashMap<String, String> fields() {
+        return customized;
+    }
+    
+    /**
+     * @Description alert对象, 设置了清理器时清理其中的字符串值, 传入的对象不变
+     */
     public void setAlert(JSONObject token) throws Exception {
+        if (contentSanitizer != null && token != null) {
+            JSONObject sanitized = new JSONObject();
+            for (String key : token.keySet()) {
+                Object value = token.get(key);
+                sanitized.put(key, value instanceof String ? sanitize((String) value) : value);
+            }
+            token = sanitized;
+        }
         setPredefinedKeyValue("alert", token);
     }
     
+    /**
+     * @Description alert对象(title/subtitle/body), 发送时直接写入请求体
+     */
+    public void setAlert(Map<String, ?> alert) throws Exception {
+        if (contentSanitizer != null && alert != null) {
+            LinkedHashMap<String, Object> sanitized = new LinkedHashMap<>(alert.size() * 2);
+            for (Map.Entry<String, ?> entry : alert.entrySet()) {
+                Object value = entry.getValue();
+                sanitized.put(entry.getKey(), value instanceof String ? sanitize((String) value) : value);
+            }
+            alert = sanitized;
+        }
+        setPredefinedKeyValue("alert", alert);
+    }
+    
     public void setAlert(String token) throws Exception {
-        setPredefinedKeyValue("alert", token);
+        setPredefinedKeyValue("alert", sanitize(token));
     }
     
     public void setBadge(Integer badge) throws Exception {
@@ -0,0 +1,30 @@
+package push;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * @author zzh
+ * @description 包内所有JSON编解码的统一接口: 取消/上传等请求体的序列化、消息体的重新解析和友盟返回结果的解析。
+ * 消息体本身由字段表直接写成UTF-8, 不经过编解码器。
+ * 内置 {@link SimpleJsonCodec}(无依赖, 默认) 和 {@link FastjsonCodec}, 其它实现(如Jackson)通过
+ * {@link PushClientConfig#setJsonCodec(JsonCodec)} 接入。实现必须线程安全。
+ */
+public interface JsonCodec {
+    
+    /**
+     * @Description 序列化为JSON文本, 支持Map、Collection、数组、字符串、数字、布尔值和null
+     */
+    String toJson(Object value);
+    
+    /**
+     * @Description 解析JSON对象, 保持字段顺序; 嵌套对象为Map, 数组为List, 整数为Integer/Long
+     */
+    Map<String, Object> parseObject(String json);
+    
+    /**
+     * @Description 从响应流中解析友盟返回结果到result中, 不关闭流
+     */
+    UmengResult parseResult(InputStream in, UmengResult result) throws IOException;
+}
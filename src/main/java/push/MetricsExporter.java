@@ -0,0 +1,11 @@
+package push;
+
+/**
+ * @author zzh
+ * @description 推送指标导出, 由PushClient按 {@link PushClientConfig#getMetricsExportInterval()} 定时调用,
+ * 关闭时再调用一次。在调度线程中执行, 实现不能长时间阻塞。
+ */
+public interface MetricsExporter {
+    
+    void export(PushMetrics metrics);
+}
@@ -0,0 +1,100 @@
+package push;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author zzh
+ * @description 一个平台的消息结构: 各层字段表、字段查找表和payload的写法。字段值按层次放在 Object[][] 中,
+ * 第0层是root, 第1层是policy, 之后是平台的payload各层; extra(Android)/自定义字段(iOS)单独放在Map中。
+ * 可变的 {@link UmengNotification} 和不可变的 {@link NotificationSnapshot} 共用同一套写法。
+ */
+abstract class NotificationLayout {
+    static final int TIMESTAMP = UmengNotification.ROOT.indexOf("timestamp");
+    private static final int PAYLOAD_POSITION = UmengNotification.ROOT.indexOf("production_mode");
+    static final byte[] PAYLOAD_PREFIX = Utf8JsonWriter.namePrefix("payload");
+    private static final byte[] POLICY_PREFIX = Utf8JsonWriter.namePrefix("policy");
+    
+    private final String platform;
+    private final FieldTable[] tables;
+    /**
+     * All predefined keys: key -> (level << 16 | index)
+     */
+    private final HashMap<String, Integer> slots;
+    
+    NotificationLayout(String platform, FieldTable... tables) {
+        this.platform = platform;
+        this.tables = tables;
+        this.slots = FieldTable.slots(tables);
+    }
+    
+    String platform() {
+        return platform;
+    }
+    
+    HashMap<String, Integer> slots() {
+        return slots;
+    }
+    
+    /**
+     * @Description 字段的 (层次 << 16 | 下标), 不是预定义字段时返回null
+     */
+    Integer slot(String key) {
+        return slots.get(key);
+    }
+    
+    /**
+     * @Description 各层的空字段数组
+     */
+    Object[][] newLevels() {
+        Object[][] levels = new Object[tables.length][];
+        for (int i = 0; i < tables.length; i++) {
+            levels[i] = new Object[tables[i].size()];
+        }
+        return levels;
+    }
+    
+    /**
+     * @Description 写入整个请求体, timestamp不为null时代替字段中的timestamp
+     */
+    void write(Utf8JsonWriter writer, Object[][] levels, Map<String, String> fields, String timestamp) {
+        FieldTable root = tables[UmengNotification.ROOT_LEVEL];
+        Object[] rootValues = levels[UmengNotification.ROOT_LEVEL];
+        writer.writeByte('{');
+        boolean first = true;
+        if (timestamp == null) {
+            first = root.writeFields(writer, rootValues, 0, PAYLOAD_POSITION, true);
+        } else {
+            first = root.writeFields(writer, rootValues, 0, TIMESTAMP, first);
+            root.writeField(writer, TIMESTAMP, timestamp, first);
+            first = root.writeFields(writer, rootValues, TIMESTAMP + 1, PAYLOAD_POSITION, false);
+        }
+        first = writePayload(writer, first, levels, fields);
+        if (!FieldTable.isEmpty(levels[UmengNotification.POLICY_LEVEL])) {
+            if (!first) {
+                writer.writeByte(',');
+            }
+            writer.writeRaw(POLICY_PREFIX);
+            tables[UmengNotification.POLICY_LEVEL].writeObject(writer, levels[UmengNotification.POLICY_LEVEL]);
+            first = false;
+        }
+        root.writeFields(writer, rootValues, PAYLOAD_POSITION, root.size(), first);
+        writer.writeByte('}');
+    }
+    
+    /**
+     * @Description 写入payload字段(含前面的逗号), 返回写完后是否仍没有写过任何字段
+     */
+    abstract boolean writePayload(Utf8JsonWriter writer, boolean first, Object[][] levels, Map<String, String> fields);
+    
+    /**
+     * @Description 写入 "payload":{ , first为false时先写逗号
+     */
+    static void beginPayload(Utf8JsonWriter writer, boolean first) {
+        if (!first) {
+            writer.writeByte(',');
+        }
+        writer.writeRaw(PAYLOAD_PREFIX);
+        writer.writeByte('{');
+    }
+}
@@ -0,0 +1,267 @@
+package push;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author zzh
+ * @description 按 平台 × 消息类型 预编译的校验规则。字段名在编译时解析为字段下标, 校验时按顺序执行一遍规则,
+ * 直接读取字段数组, 不做字段名查找, 也不序列化消息。
+ */
+final class NotificationSchema {
+    /**
+     * groupcast的filter最大字节数
+     */
+    static final int MAX_FILTER_BYTES = 3000;
+    /**
+     * listcast的device_tokens、customizedcast的alias最多个数
+     */
+    static final int MAX_RECIPIENTS = 500;
+    private static final String[] TYPES = {"unicast", "listcast", "broadcast", "groupcast", "customizedcast", "filecast"};
+    private static final int TYPE = UmengNotification.ROOT.indexOf("type");
+    private static final Map<String, NotificationSchema> ANDROID = compileAll(AndroidNotification.LAYOUT);
+    private static final Map<String, NotificationSchema> IOS = compileAll(IOSNotification.LAYOUT);
+    private static final NotificationSchema UNKNOWN_TYPE = new NotificationSchema(new Rule[]{new Rule() {
+        @Override
+        List<ValidationError> check(Object[][] levels, List<ValidationError> errors) {
+            return add(errors, new ValidationError("type", ValidationError.Code.INVALID_VALUE,
+                    "must be one of " + Arrays.toString(TYPES) + ", was " + levels[UmengNotification.ROOT_LEVEL][TYPE]));
+        }
+    }});
+    
+    private final Rule[] rules;
+    
+    private NotificationSchema(Rule[] rules) {
+        this.rules = rules;
+    }
+    
+    /**
+     * @Description 消息对应的规则
+     */
+    static NotificationSchema of(NotificationLayout layout, String type) {
+        Map<String, NotificationSchema> schemas;
+        if (layout == AndroidNotification.LAYOUT) {
+            schemas = ANDROID;
+        } else if (layout == IOSNotification.LAYOUT) {
+            schemas = IOS;
+        } else {
+            return new NotificationSchema(new Rule[0]);
+        }
+        NotificationSchema schema = type == null ? null : schemas.get(type);
+        return schema == null ? UNKNOWN_TYPE : schema;
+    }
+    
+    List<ValidationError> validate(Object[][] levels) {
+        List<ValidationError> errors = null;
+        for (Rule rule : rules) {
+            errors = rule.check(levels, errors);
+        }
+        return errors == null ? Collections.emptyList() : errors;
+    }
+    
+    /**
+     * @Description 添加一个错误, 没有错误时不分配列表
+     */
+    private static List<ValidationError> add(List<ValidationError> errors, ValidationError error) {
+        if (errors == null) {
+            errors = new ArrayList<>(2);
+        }
+        errors.add(error);
+        return errors;
+    }
+    
+    private static Map<String, NotificationSchema> compileAll(NotificationLayout layout) {
+        boolean android = layout == AndroidNotification.LAYOUT;
+        Map<String, NotificationSchema> schemas = new HashMap<>();
+        for (String type : TYPES) {
+            Builder b = new Builder(layout.slots());
+            // timestamp由PushClient在发送时写入, 不在这里检查
+            b.required("appkey").oneOf("production_mode", "true", "false");
+            switch (type) {
+                case "unicast":
+                    b.required("device_tokens").maxItems("device_tokens", 1);
+                    break;
+                case "listcast":
+                    b.required("device_tokens").maxItems("device_tokens", MAX_RECIPIENTS);
+                    break;
+                case "groupcast":
+                    b.required("filter").maxBytes("filter", MAX_FILTER_BYTES);
+                    break;
+                case "customizedcast":
+                    b.requiredAny("alias", "file_id").required("alias_type").maxItems("alias", MAX_RECIPIENTS);
+                    break;
+                case "filecast":
+                    b.required("file_id");
+                    break;
+                default:
+                    break;
+            }
+            if (android) {
+                b.required("display_type").oneOf("display_type", "notification", "message");
+                b.when("display_type", "notification").required("ticker").required("title").required("text");
+                b.oneOf("after_open", "go_app", "go_url", "go_activity", "go_custom");
+                b.when("after_open", "go_url").required("url");
+                b.when("after_open", "go_activity").required("activity");
+                b.when("after_open", "go_custom").required("custom");
+                b.oneOf("play_vibrate", "true", "false").oneOf("play_lights", "true", "false").oneOf("play_sound", "true", "false");
+            } else {
+                // 静默推送可以没有alert
+                b.requiredAny("alert", "content-available");
+            }
+            schemas.put(type, new NotificationSchema(b.rules.toArray(new Rule[0])));
+        }
+        return schemas;
+    }
+    
+    private abstract static class Rule {
+        /**
+         * @Description 检查一条规则, errors为null表示还没有错误, 返回添加后的错误列表
+         */
+        abstract List<ValidationError> check(Object[][] levels, List<ValidationError> errors);
+        
+        static Object value(Object[][] levels, int slot) {
+            return levels[slot >>> 16][slot & 0xffff];
+        }
+    }
+    
+    private static final class Builder {
+        private final Map<String, Integer> slots;
+        private final List<Rule> rules = new ArrayList<>();
+        
+        private Builder(Map<String, Integer> slots) {
+            this.slots = slots;
+        }
+        
+        private int slot(String field) {
+            Integer slot = slots.get(field);
+            if (slot == null) {
+                throw new IllegalArgumentException("Unknown field: " + field);
+            }
+            return slot;
+        }
+        
+        private Builder required(String field) {
+            int slot = slot(field);
+            rules.add(new Rule() {
+                @Override
+                List<ValidationError> check(Object[][] levels, List<ValidationError> errors) {
+                    if (isBlank(value(levels, slot))) {
+                        errors = add(errors, new ValidationError(field, ValidationError.Code.MISSING, "is required"));
+                    }
+                    return errors;
+                }
+            });
+            return this;
+        }
+        
+        private Builder requiredAny(String first, String second) {
+            int firstSlot = slot(first);
+            int secondSlot = slot(second);
+            rules.add(new Rule() {
+                @Override
+                List<ValidationError> check(Object[][] levels, List<ValidationError> errors) {
+                    if (isBlank(value(levels, firstSlot)) && isBlank(value(levels, secondSlot))) {
+                        errors = add(errors, new ValidationError(first, ValidationError.Code.MISSING, "either " + first + " or " + second + " is required"));
+                    }
+                    return errors;
+                }
+            });
+            return this;
+        }
+        
+        private Builder oneOf(String field, String... values) {
+            int slot = slot(field);
+            Set<String> allowed = new HashSet<>(Arrays.asList(values));
+            rules.add(new Rule() {
+                @Override
+                List<ValidationError> check(Object[][] levels, List<ValidationError> errors) {
+                    Object value = value(levels, slot);
+                    if (value != null && !allowed.contains(value.toString())) {
+                        errors = add(errors, new ValidationError(field, ValidationError.Code.INVALID_VALUE,
+                                "must be one of " + Arrays.toString(values) + ", was " + value));
+                    }
+                    return errors;
+                }
+            });
+            return this;
+        }
+        
+        private Builder maxBytes(String field, int limit) {
+            int slot = slot(field);
+            rules.add(new Rule() {
+                @Override
+                List<ValidationError> check(Object[][] levels, List<ValidationError> errors) {
+                    Object value = value(levels, slot);
+                    if (value != null) {
+                        // filter等对象字段按序列化后的长度计算
+                        int bytes = value instanceof PushFilter.CompiledFilter ? ((PushFilter.CompiledFilter) value).size()
+                                : Utf8JsonWriter.utf8Length(value instanceof CharSequence
+                                ? (CharSequence) value : SimpleJsonCodec.INSTANCE.toJson(value));
+                        if (bytes > limit) {
+                            errors = add(errors, new ValidationError(field, ValidationError.Code.TOO_LONG,
+                                    bytes + " bytes exceeds the limit of " + limit));
+                        }
+                    }
+                    return errors;
+                }
+            });
+            return this;
+        }
+        
+        private Builder maxItems(String field, int limit) {
+            int slot = slot(field);
+            rules.add(new Rule() {
+                @Override
+                List<ValidationError> check(Object[][] levels, List<ValidationError> errors) {
+                    Object value = value(levels, slot);
+                    if (value != null) {
+                        String s = value.toString();
+                        int items = 1;
+                        for (int i = 0; i < s.length(); i++) {
+                            if (s.charAt(i) == ',') {
+                                items++;
+                            }
+                        }
+                        if (items > limit) {
+                            errors = add(errors, new ValidationError(field, ValidationError.Code.TOO_MANY,
+                                    items + " items exceeds the limit of " + limit));
+                        }
+                    }
+                    return errors;
+                }
+            });
+            return this;
+        }
+        
+        /**
+         * @Description 只在field等于value时才执行的规则, 在返回的Builder上添加
+         */
+        private Builder when(String field, String value) {
+            int slot = slot(field);
+            Builder nested = new Builder(slots);
+            rules.add(new Rule() {
+                @Override
+                List<ValidationError> check(Object[][] levels, List<ValidationError> errors) {
+                    Object actual = value(levels, slot);
+                    if (actual != null && value.equals(actual.toString())) {
+                        for (Rule rule : nested.rules) {
+                            errors = rule.check(levels, errors);
+                        }
+                    }
+                    return errors;
+                }
+            });
+            return nested;
+        }
+        
+        private static boolean isBlank(Object value) {
+            return value == null || value instanceof CharSequence && ((CharSequence) value).length() == 0;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package push;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author zzh
+ * @description 不可变的消息快照, 由 {@link UmengNotification#snapshot()} 创建, 可以在多个线程中同时发送。
+ * timestamp在写出请求体时加入, 不保存在快照中。with方法返回新的快照, 只复制被修改的那一层, 其余各层与原快照共享。
+ * 嵌套的JSON对象(filter、custom、alert等)按引用共享, 创建快照后不要再修改它们。
+ */
+public final class NotificationSnapshot {
+    private static final ThreadLocal<Utf8JsonWriter> WRITER = ThreadLocal.withInitial(Utf8JsonWriter::new);
+    private static final int APPKEY = UmengNotification.ROOT.indexOf("appkey");
+    private static final int TYPE = UmengNotification.ROOT.indexOf("type");
+    
+    private final NotificationLayout layout;
+    private final Object[][] levels;
+    private final Map<String, String> fields;
+    private final String appMasterSecret;
+    /**
+     * 校验结果, 快照不可变, 只需校验一次
+     */
+    private volatile List<ValidationError> errors;
+    /**
+     * payload的字节数, 没有计算过时为-1
+     */
+    private volatile int payloadSize = -1;
+    
+    NotificationSnapshot(NotificationLayout layout, Object[][] levels, Map<String, String> fields, String appMasterSecret) {
+        this.layout = layout;
+        this.levels = levels;
+        this.fields = fields == null ? Collections.emptyMap() : Collections.unmodifiableMap(fields);
+        this.appMasterSecret = appMasterSecret;
+    }
+    
+    public String getAppkey() {
+        Object appkey = levels[UmengNotification.ROOT_LEVEL][APPKEY];
+        return appkey == null ? null : appkey.toString();
+    }
+    
+    public String getType() {
+        Object type = levels[UmengNotification.ROOT_LEVEL][TYPE];
+        return type == null ? null : type.toString();
+    }
+    
+    public String getAppMasterSecret() {
+        return appMasterSecret;
+    }
+    
+    /**
+     * @Description 平台, {@link PushMetrics#ANDROID} 或 {@link PushMetrics#IOS}
+     */
+    public String getPlatform() {
+        return layout.platform();
+    }
+    
+    /**
+     * @Description 预定义字段的值, 没有设置或不是预定义字段时返回null
+     */
+    public Object get(String key) {
+        Integer slot = layout.slot(key);
+        return slot == null ? null : levels[slot >>> 16][slot & 0xffff];
+    }
+    
+    /**
+     * @Description extra(Android)或自定义字段(iOS), 不可修改
+     */
+    public Map<String, String> getFields() {
+        return fields;
+    }
+    
+    /**
+     * @Description 修改一个预定义字段后的新快照, value为null表示删除
+     */
+    public NotificationSnapshot with(String key, Object value) {
+        Integer slot = layout.slot(key);
+        if (slot == null) {
+            throw new IllegalArgumentException("Unknown key: " + key);
+        }
+        Object[][] copy = levels.clone();
+        int level = slot >>> 16;
+        copy[level] = levels[level].clone();
+        copy[level][slot & 0xffff] = value;
+        return new NotificationSnapshot(layout, copy, fields, appMasterSecret);
+    }
+    
+    /**
+     * @Description 修改一个extra(Android)或自定义字段(iOS)后的新快照, value为null表示删除
+     */
+    public NotificationSnapshot withField(String key, String value) {
+        LinkedHashMap<String, String> copy = new LinkedHashMap<>(fields);
+        if (value == null) {
+            copy.remove(key);
+        } else {
+            copy.put(key, value);
+        }
+        return new NotificationSnapshot(layout, levels, copy, appMasterSecret);
+    }
+    
+    /**
+     * @Description 校验快照, 结果会被缓存
+     */
+    public void validate() throws NotificationValidationException {
+        List<ValidationError> result = errors;
+        if (result == null) {
+            result = NotificationSchema.of(layout, getType()).validate(levels);
+            errors = result;
+        }
+        if (!result.isEmpty()) {
+            throw new NotificationValidationException(result);
+        }
+    }
+    
+    /**
+     * @Description payload序列化后的字节数, 与 {@link UmengNotification#getPayloadSize()} 的口径相同, 结果会被缓存
+     */
+    public int getPayloadSize() {
+        int size = payloadSize;
+        if (size < 0) {
+            Utf8JsonWriter writer = WRITER.get();
+            writer.reset();
+            size = layout.writePayload(writer, true, levels, fields) ? 0 : writer.size() - NotificationLayout.PAYLOAD_PREFIX.length;
+            payloadSize = size;
+        }
+        return size;
+    }
+    
+    /**
+     * @Description 请求体, 使用当前时间作为timestamp
+     */
+    public String getPostBody() {
+        Utf8JsonWriter writer = WRITER.get();
+        writer.reset();
+        layout.write(writer, levels, fields, UmengNotification.currentTimestamp());
+        return writer.toString();
+    }
+    
+    /**
+     * @Description 请求体的UTF-8编码, timestamp在写出时加入
+     */
+    public byte[] getPostBodyBytes(String timestamp) {
+        Utf8JsonWriter writer = WRITER.get();
+        writer.reset();
+        layout.write(writer, levels, fields, timestamp);
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,351 @@
+package push;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @author zzh
+ * @description 消息模板: 把一个构建好的消息编译成字节片段, 只有标记的字段(槽位)在每次渲染时替换。
+ * 渲染只是把片段和转义后的槽位值依次拷贝到可复用的缓冲区, 不重建消息对象也不重新序列化。
+ * <p>
+ * 槽位名可以是字符串类型的预定义字段(alias、device_tokens、title、text、ticker、alert等),
+ * Android的extra字段写作 "extra.key", iOS的自定义字段写作 "customized.key"。timestamp总是一个槽位, 渲染时自动填写。
+ * 渲染前按消息类型的规则校验槽位值(必填字段不能为空等), 并按payload预算检查渲染结果, 不合法的消息不会被签名和发送;
+ * 渲染结果不截断, 超出预算时直接拒绝。
+ * 模板本身不可变, 可以多线程共享; {@link Renderer} 复用缓冲区, 每个线程使用自己的实例。
+ */
+public final class NotificationTemplate {
+    public static final String EXTRA_PREFIX = "extra.";
+    public static final String CUSTOMIZED_PREFIX = "customized.";
+    private static final String TIMESTAMP = "timestamp";
+    /**
+     * 编译时用私有区字符做占位, 正常内容中不会出现
+     */
+    private static final char MARK_BEGIN = '\uE000';
+    private static final char MARK_END = '\uE001';
+    
+    private final String appkey;
+    private final String appMasterSecret;
+    private final String type;
+    private final String platform;
+    private final String[] slotNames;
+    private final HashMap<String, Integer> slotIndex = new HashMap<>();
+    private final int timestampSlot;
+    /**
+     * 片段 i 之后紧接着槽位 order[i], 最后一个片段之后没有槽位
+     */
+    private final byte[][] segments;
+    private final int[] order;
+    private final int sizeHint;
+    private final NotificationSchema schema;
+    /**
+     * 原型各层的值, 渲染器复制一份, 校验时把预定义字段的槽位换成本次的值
+     */
+    private final Object[][] levels;
+    /**
+     * 槽位对应的预定义字段 (层次 << 16 | 下标), extra/自定义字段为-1
+     */
+    private final int[] fieldSlots;
+    /**
+     * 所有槽位值为空串时payload的字节数, 以及各槽位是否在payload中; 渲染时payload大小等于它加上payload中槽位值转义后的长度
+     */
+    private final int payloadBase;
+    private final boolean[] inPayload;
+    
+    private NotificationTemplate(UmengNotification prototype, String[] slotNames, byte[][] segments, int[] order,
+                                 int payloadBase, boolean[] inPayload) {
+        this.appkey = prototype.getAppkey();
+        this.appMasterSecret = prototype.getAppMasterSecret();
+        this.type = prototype.getType();
+        this.platform = PushMetrics.platformOf(prototype);
+        this.slotNames = slotNames;
+        for (int i = 0; i < slotNames.length; i++) {
+            slotIndex.put(slotNames[i], i);
+        }
+        this.timestampSlot = slotIndex.get(TIMESTAMP);
+        this.segments = segments;
+        this.order = order;
+        int size = 0;
+        for (byte[] segment : segments) {
+            size += segment.length;
+        }
+        this.sizeHint = size + 64 * slotNames.length;
+        NotificationLayout layout = prototype.layout();
+        this.schema = NotificationSchema.of(layout, type);
+        this.levels = prototype.levels();
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = levels[i].clone();
+        }
+        this.fieldSlots = new int[slotNames.length];
+        for (int i = 0; i < slotNames.length; i++) {
+            Integer slot = layout.slot(slotNames[i]);
+            fieldSlots[i] = slot == null ? -1 : slot;
+        }
+        this.payloadBase = payloadBase;
+        this.inPayload = inPayload;
+    }
+    
+    /**
+     * @Description 编译模板。编译期间会临时修改prototype并在结束后还原, 不能与对prototype的其它操作并发
+     */
+    public static NotificationTemplate compile(UmengNotification prototype, String... slots) throws Exception {
+        List<String> names = new ArrayList<>(Arrays.asList(slots));
+        if (!names.contains(TIMESTAMP)) {
+            names.add(TIMESTAMP);
+        }
+        Object[] saved = new Object[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            saved[i] = get(prototype, names.get(i));
+            if (saved[i] != null && !(saved[i] instanceof String)) {
+                throw new IllegalArgumentException("Slot " + names.get(i) + " must be a string field");
+            }
+        }
+        byte[] body;
+        int payloadBase;
+        boolean[] inPayload = new boolean[names.size()];
+        try {
+            for (int i = 0; i < names.size(); i++) {
+                set(prototype, names.get(i), String.valueOf(MARK_BEGIN) + i + MARK_END);
+            }
+            prototype.validate();
+            body = prototype.getPostBodyBytes();
+            // 逐个给槽位一个非空值, payload大小变化的槽位在payload中
+            for (String name : names) {
+                set(prototype, name, "");
+            }
+            payloadBase = prototype.getPayloadSize();
+            for (int i = 0; i < names.size(); i++) {
+                set(prototype, names.get(i), "x");
+                inPayload[i] = prototype.getPayloadSize() != payloadBase;
+                set(prototype, names.get(i), "");
+            }
+        } finally {
+            for (int i = 0; i < names.size(); i++) {
+                set(prototype, names.get(i), (String) saved[i]);
+            }
+        }
+        return split(prototype, names.toArray(new String[0]), body, payloadBase, inPayload);
+    }
+    
+    private static NotificationTemplate split(UmengNotification prototype, String[] names, byte[] body, int payloadBase,
+                                              boolean[] inPayload) {
+        byte[] begin = String.valueOf(MARK_BEGIN).getBytes(StandardCharsets.UTF_8);
+        byte[] end = String.valueOf(MARK_END).getBytes(StandardCharsets.UTF_8);
+        List<byte[]> segments = new ArrayList<>();
+        int[] order = new int[names.length];
+        int start = 0;
+        int found = 0;
+        for (int i = indexOf(body, begin, 0); i >= 0; i = indexOf(body, begin, start)) {
+            int close = indexOf(body, end, i + begin.length);
+            int slot = Integer.parseInt(new String(body, i + begin.length, close - i - begin.length, StandardCharsets.US_ASCII));
+            segments.add(Arrays.copyOfRange(body, start, i));
+            order[found++] = slot;
+            start = close + end.length;
+        }
+        segments.add(Arrays.copyOfRange(body, start, body.length));
+        if (found != names.length) {
+            throw new IllegalArgumentException("Every slot must appear exactly once in the body, found " + found
+                    + " of " + names.length);
+        }
+        return new NotificationTemplate(prototype, names, segments.toArray(new byte[0][]), order, payloadBase, inPayload);
+    }
+    
+    private static int indexOf(byte[] body, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= body.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (body[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+    
+    private static Object get(UmengNotification msg, String slot) {
+        if (slot.startsWith(EXTRA_PREFIX) && msg instanceof AndroidNotification) {
+            Map<String, String> extra = ((AndroidNotification) msg).extra;
+            return extra == null ? null : extra.get(slot.substring(EXTRA_PREFIX.length()));
+        }
+        if (slot.startsWith(CUSTOMIZED_PREFIX) && msg instanceof IOSNotification) {
+            Map<String, String> customized = ((IOSNotification) msg).customized;
+            return customized == null ? null : customized.get(slot.substring(CUSTOMIZED_PREFIX.length()));
+        }
+        return msg.getPredefinedKeyValue(slot);
+    }
+    
+    private static void set(UmengNotification msg, String slot, String value) throws Exception {
+        if (slot.startsWith(EXTRA_PREFIX) && msg instanceof AndroidNotification) {
+            AndroidNotification android = (AndroidNotification) msg;
+            if (value == null) {
+                android.removeExtraField(slot.substring(EXTRA_PREFIX.length()));
+            } else {
+                android.setExtraField(slot.substring(EXTRA_PREFIX.length()), value);
+            }
+        } else if (slot.startsWith(CUSTOMIZED_PREFIX) && msg instanceof IOSNotification) {
+            IOSNotification ios = (IOSNotification) msg;
+            if (value == null) {
+                ios.removeCustomizedField(slot.substring(CUSTOMIZED_PREFIX.length()));
+            } else {
+                ios.setCustomizedField(slot.substring(CUSTOMIZED_PREFIX.length()), value);
+            }
+        } else {
+            msg.setPredefinedKeyValue(slot, value);
+        }
+    }
+    
+    /**
+     * @Description 槽位下标, 用于 {@link Renderer#set(int, CharSequence)} 避免按名字查找
+     */
+    public int slot(String name) {
+        Integer index = slotIndex.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException("Unknown slot: " + name);
+        }
+        return index;
+    }
+    
+    public String getAppkey() {
+        return appkey;
+    }
+    
+    public String getType() {
+        return type;
+    }
+    
+    public Renderer newRenderer() {
+        return new Renderer();
+    }
+    
+    /**
+     * 按模板渲染消息体, 非线程安全。槽位值在多次渲染之间保留, 只需设置变化的槽位。
+     */
+    public final class Renderer {
+        private final CharSequence[] values = new CharSequence[slotNames.length];
+        private final Utf8JsonWriter writer = new Utf8JsonWriter(sizeHint);
+        private final char[] sign = new char[32];
+        private final Object[][] checked = new Object[levels.length][];
+        private PayloadBudget payloadBudget = new PayloadBudget();
+        private long timestampSecond = -1;
+        
+        private Renderer() {
+            for (int i = 0; i < levels.length; i++) {
+                checked[i] = levels[i].clone();
+            }
+        }
+        
+        /**
+         * @Description {@link #render()} 使用的payload预算, 默认为 {@link PayloadBudget} 的默认值, null表示不检查
+         */
+        public Renderer setPayloadBudget(PayloadBudget budget) {
+            this.payloadBudget = budget;
+            return this;
+        }
+        
+        public Renderer set(String slot, CharSequence value) {
+            return set(slot(slot), value);
+        }
+        
+        public Renderer set(int slot, CharSequence value) {
+            values[slot] = value;
+            return this;
+        }
+        
+        /**
+         * @Description 用当前时间和已设置的槽位值渲染消息体, 结果在 {@link #body()} 的 [0, length()) 中, 下次渲染前有效。
+         * 槽位值不符合消息类型的规则或payload超出预算时抛出异常, 不渲染
+         */
+        public Renderer render() throws NotificationValidationException {
+            return render(payloadBudget);
+        }
+        
+        private Renderer render(PayloadBudget budget) throws NotificationValidationException {
+            long second = System.currentTimeMillis() / 1000;
+            if (second != timestampSecond) {
+                values[timestampSlot] = Integer.toString((int) second);
+                timestampSecond = second;
+            }
+            check(budget);
+            writer.reset();
+            for (int i = 0; i < order.length; i++) {
+                writer.writeRaw(segments[i]);
+                writer.writeEscaped(values[order[i]]);
+            }
+            writer.writeRaw(segments[order.length]);
+            return this;
+        }
+        
+        /**
+         * @Description 把预定义字段的槽位值放进原型各层的副本, 按消息类型的规则校验; 同时累加payload的字节数检查预算
+         */
+        private void check(PayloadBudget budget) throws NotificationValidationException {
+            int payloadSize = payloadBase;
+            for (int i = 0; i < values.length; i++) {
+                CharSequence value = values[i];
+                if (value == null) {
+                    throw new IllegalStateException("Slot " + slotNames[i] + " is not set");
+                }
+                int slot = fieldSlots[i];
+                if (slot >= 0) {
+                    checked[slot >>> 16][slot & 0xffff] = value.toString();
+                }
+                if (inPayload[i]) {
+                    payloadSize += Utf8JsonWriter.escapedLength(value);
+                }
+            }
+            List<ValidationError> errors = schema.validate(checked);
+            if (!errors.isEmpty()) {
+                throw new NotificationValidationException(errors);
+            }
+            if (budget != null) {
+                budget.check(platform, payloadSize);
+            }
+        }
+        
+        public byte[] body() {
+            return writer.buffer();
+        }
+        
+        public int length() {
+            return writer.size();
+        }
+        
+        /**
+         * @Description 渲染结果的副本
+         */
+        public byte[] toByteArray() {
+            return writer.toByteArray();
+        }
+        
+        /**
+         * @Description 渲染结果发送到 /api/send 的签名, 返回的数组在下次调用前有效
+         */
+        public char[] sign() {
+            RequestSigner.sign(PushClient.HOST + PushClient.POST_PATH, writer.buffer(), 0, writer.size(), appMasterSecret, sign);
+            return sign;
+        }
+        
+        /**
+         * @Description 按客户端的payload预算渲染并异步发送, 返回消息id; 校验失败时返回的future以异常结束
+         */
+        public CompletableFuture<String> send(PushClient client) {
+            PushMetrics.Series series = client.getMetrics().series(PushMetrics.Endpoint.SEND,
+                    type == null ? PushMetrics.UNKNOWN : type, platform);
+            try {
+                render(client.getPayloadBudget());
+            } catch (NotificationValidationException e) {
+                series.recordFailure(0, e.getClass().getSimpleName());
+                CompletableFuture<String> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+            return client.sendAsync(appkey, toByteArray(), appMasterSecret, series);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package push;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author zzh
+ * @description 消息没有通过发送前的校验, 带有全部校验错误
+ */
+public class NotificationValidationException extends Exception {
+    private static final long serialVersionUID = 1L;
+    private final List<ValidationError> errors;
+    
+    public NotificationValidationException(List<ValidationError> errors) {
+        super("Invalid notification: " + errors);
+        this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+    }
+    
+    public List<ValidationError> getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,48 @@
+package push;
+
+/**
+ * @author zzh
+ * @description 一个JSON对象序列化后的字节数: 累加各成员("name":value)的字节数和成员个数, 成员变化时增量更新,
+ * 对象长度 O(1) 得出, 不需要序列化。
+ */
+final class ObjectSize {
+    private int bytes;
+    private int members;
+    
+    /**
+     * @Description 成员从oldLength字节变为newLength字节, 0表示成员不存在
+     */
+    void update(int oldLength, int newLength) {
+        bytes += newLength - oldLength;
+        members += (newLength > 0 ? 1 : 0) - (oldLength > 0 ? 1 : 0);
+    }
+    
+    boolean isEmpty() {
+        return members == 0;
+    }
+    
+    int members() {
+        return members;
+    }
+    
+    /**
+     * @Description 成员字节数之和加上成员之间的逗号, 不含外层的花括号
+     */
+    int contentLength() {
+        return members == 0 ? 0 : bytes + members - 1;
+    }
+    
+    /**
+     * @Description 整个对象 {...} 的字节数
+     */
+    int length() {
+        return contentLength() + 2;
+    }
+    
+    /**
+     * @Description 字符串键值对成员 "key":value 的字节数
+     */
+    static int memberLength(String key, Object value) {
+        return Utf8JsonWriter.escapedLength(key) + 3 + Utf8JsonWriter.valueLength(value);
+    }
+}
@@ -0,0 +1,185 @@
+package push;
+
+import lombok.Data;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author zzh
+ * @description payload字节数预算: APNs和各厂商通道都限制payload的字节数, 超出时友盟会在扣除调用次数后返回错误。
+ * 发送前用 {@link UmengNotification#getPayloadSize()} O(1) 检查, 默认超出时直接拒绝。开启 {@link #truncate} 后按字段顺序截断字符串,
+ * 截断位置在字符边界上(不拆开代理对, 结果仍是合法的UTF-8), 末尾加上省略号; 内容是JSON对象或数组的字符串
+ * (以 { 开头 } 结尾或以 [ 开头 ] 结尾)截断后无法解析, 不截断。
+ */
+@Data
+public class PayloadBudget {
+    /**
+     * Android payload最大字节数
+     */
+    private int androidLimit = 4096;
+    /**
+     * iOS payload最大字节数, APNs的限制为4096
+     */
+    private int iosLimit = 4096;
+    /**
+     * 超出时是否截断, false时直接拒绝。截断会改变用户看到的内容, 需要显式开启
+     */
+    private boolean truncate = false;
+    /**
+     * 截断后追加的省略号
+     */
+    private String ellipsis = "…";
+    /**
+     * 超出时依次截断的Android字段, extra字段写作 "extra.key"; 只截断字符串值, JSON对象不截断。
+     * custom通常由客户端解析, 默认不截断
+     */
+    private List<String> androidFields = Collections.singletonList("text");
+    /**
+     * 超出时依次截断的iOS字段, 自定义字段写作 "customized.key"; alert为对象时截断其中的body
+     */
+    private List<String> iosFields = Collections.singletonList("alert");
+    
+    public int limitOf(UmengNotification msg) {
+        return msg instanceof IOSNotification ? iosLimit : androidLimit;
+    }
+    
+    public int limitOf(NotificationSnapshot snapshot) {
+        return limitOf(snapshot.getPlatform());
+    }
+    
+    int limitOf(String platform) {
+        return PushMetrics.IOS.equals(platform) ? iosLimit : androidLimit;
+    }
+    
+    /**
+     * @Description 超出预算时抛出异常, 不截断
+     */
+    void check(UmengNotification msg) throws NotificationValidationException {
+        int size = msg.getPayloadSize();
+        int limit = limitOf(msg);
+        if (size > limit) {
+            throw tooLong(size, limit);
+        }
+    }
+    
+    /**
+     * @Description 已知payload字节数时检查, 超出预算时抛出异常, 不截断
+     */
+    void check(String platform, int payloadSize) throws NotificationValidationException {
+        int limit = limitOf(platform);
+        if (payloadSize > limit) {
+            throw tooLong(payloadSize, limit);
+        }
+    }
+    
+    /**
+     * @Description 返回不超出预算的快照, 需要时截断
+     */
+    NotificationSnapshot fit(UmengNotification msg) throws NotificationValidationException {
+        return fit(msg.snapshot(), msg.getPayloadSize(), limitOf(msg));
+    }
+    
+    /**
+     * @Description 快照超出预算时返回截断后的快照, 未超出时返回快照本身
+     */
+    NotificationSnapshot fit(NotificationSnapshot snapshot) throws NotificationValidationException {
+        return fit(snapshot, snapshot.getPayloadSize(), limitOf(snapshot));
+    }
+    
+    private NotificationSnapshot fit(NotificationSnapshot snapshot, int size, int limit) throws NotificationValidationException {
+        int excess = size - limit;
+        if (excess <= 0) {
+            return snapshot;
+        }
+        if (truncate) {
+            List<String> fields = PushMetrics.IOS.equals(snapshot.getPlatform()) ? iosFields : androidFields;
+            for (int i = 0; i < fields.size() && excess > 0; i++) {
+                String field = fields.get(i);
+                if (field.startsWith(NotificationTemplate.EXTRA_PREFIX) || field.startsWith(NotificationTemplate.CUSTOMIZED_PREFIX)) {
+                    String key = field.substring(field.indexOf('.') + 1);
+                    String value = snapshot.getFields().get(key);
+                    String cut = value == null ? null : truncate(value, excess);
+                    if (cut != null) {
+                        excess -= Utf8JsonWriter.escapedLength(value) - Utf8JsonWriter.escapedLength(cut);
+                        snapshot = snapshot.withField(key, cut);
+                    }
+                    continue;
+                }
+                Object value = snapshot.get(field);
+                if (value instanceof String) {
+                    String cut = truncate((String) value, excess);
+                    if (cut != null) {
+                        excess -= Utf8JsonWriter.escapedLength((String) value) - Utf8JsonWriter.escapedLength(cut);
+                        snapshot = snapshot.with(field, cut);
+                    }
+                } else if (value instanceof Map || value instanceof JSONObject) {
+                    // alert对象截断body
+                    Object body = value instanceof Map ? ((Map<?, ?>) value).get("body") : ((JSONObject) value).opt("body");
+                    String cut = body instanceof String ? truncate((String) body, excess) : null;
+                    if (cut != null) {
+                        excess -= Utf8JsonWriter.escapedLength((String) body) - Utf8JsonWriter.escapedLength(cut);
+                        snapshot = snapshot.with(field, withBody(value, cut));
+                    }
+                }
+            }
+        }
+        if (excess > 0) {
+            throw tooLong(limit + excess, limit);
+        }
+        return snapshot;
+    }
+    
+    /**
+     * @Description 截断字符串使转义后的字节数至少减少excess, 无法减少或内容是JSON时返回null
+     */
+    private String truncate(String value, int excess) {
+        if (isJson(value)) {
+            return null;
+        }
+        int length = Utf8JsonWriter.escapedLength(value);
+        int keep = Math.max(0, length - excess - Utf8JsonWriter.escapedLength(ellipsis));
+        String cut = value.substring(0, Utf8JsonWriter.escapedPrefix(value, keep)) + ellipsis;
+        return Utf8JsonWriter.escapedLength(cut) < length ? cut : null;
+    }
+    
+    /**
+     * @Description 去掉首尾空白后是否形如JSON对象或数组
+     */
+    private static boolean isJson(String value) {
+        int start = 0;
+        int end = value.length() - 1;
+        while (start < end && Character.isWhitespace(value.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(value.charAt(end))) {
+            end--;
+        }
+        if (start >= end) {
+            return false;
+        }
+        char first = value.charAt(start);
+        char last = value.charAt(end);
+        return first == '{' && last == '}' || first == '[' && last == ']';
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Object withBody(Object alert, String body) {
+        if (alert instanceof Map) {
+            LinkedHashMap<Object, Object> copy = new LinkedHashMap<>((Map<Object, Object>) alert);
+            copy.put("body", body);
+            return copy;
+        }
+        JSONObject copy = new JSONObject(alert.toString());
+        copy.put("body", body);
+        return copy;
+    }
+    
+    private static NotificationValidationException tooLong(int size, int limit) {
+        return new NotificationValidationException(Collections.singletonList(new ValidationError("payload",
+                ValidationError.Code.TOO_LONG, size + " bytes exceeds the limit of " + limit)));
+    }
+}
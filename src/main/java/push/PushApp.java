@@ -0,0 +1,58 @@
+package push;
+
+import lombok.Data;
+
+/**
+ * @author zzh
+ * @description 注册到 {@link PushAppRegistry} 的一个应用: 应用id和各平台的appkey/appMasterSecret,
+ * 只推送一个平台的应用另一个平台留空即可
+ */
+@Data
+public class PushApp {
+    /**
+     * 应用id, 发送时按它选择appkey和PushClient
+     */
+    private String appId;
+    /**
+     * android Appkey
+     */
+    private String androidAppkey;
+    /**
+     * android appMasterSecret
+     */
+    private String androidAppMasterSecret;
+    /**
+     * ios Appkey
+     */
+    private String iosAppkey;
+    /**
+     * ios appMasterSecret
+     */
+    private String iosAppMasterSecret;
+    /**
+     * 本应用PushClient的配置, 为null时使用注册表的默认配置
+     */
+    private PushClientConfig clientConfig;
+    
+    public PushApp() {
+    }
+    
+    public PushApp(String appId) {
+        this.appId = appId;
+    }
+    
+    /**
+     * @Description 平台({@link PushMetrics#ANDROID}/{@link PushMetrics#IOS})的appkey, 没有配置时返回null
+     */
+    public String appkeyOf(String platform) {
+        return PushMetrics.IOS.equals(platform) ? iosAppkey : PushMetrics.ANDROID.equals(platform) ? androidAppkey : null;
+    }
+    
+    /**
+     * @Description 平台({@link PushMetrics#ANDROID}/{@link PushMetrics#IOS})的appMasterSecret, 没有配置时返回null
+     */
+    public String secretOf(String platform) {
+        return PushMetrics.IOS.equals(platform) ? iosAppMasterSecret
+                : PushMetrics.ANDROID.equals(platform) ? androidAppMasterSecret : null;
+    }
+}
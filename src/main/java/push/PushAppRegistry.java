@@ -0,0 +1,437 @@
+package push;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * @author zzh
+ * @description 多应用注册表: 每个应用有自己的appkey/appMasterSecret和独立的 {@link PushClient},
+ * 连接池、NIO线程、在途请求数和限流都按应用隔离(舱壁), 一个应用变慢或被限流时只会占满它自己的配额,
+ * 不会拖住其它应用的发送。默认配置的在途名额等待超时后以 {@link BulkheadFullException} 失败, 排队的请求不会一直堆积。
+ * <p>
+ * 路由表不可变, 注册和移除时加锁整体替换; 发送时的查找只读一次volatile字段再查HashMap, 不加锁。
+ * <pre>
+ * umeng.push.apps.shop.android.appkey=...
+ * umeng.push.apps.shop.android.appMasterSecret=...
+ * umeng.push.apps.shop.ios.appkey=...
+ * umeng.push.apps.shop.ios.appMasterSecret=...
+ * umeng.push.apps.shop.maxInFlight=500
+ *
+ * PushAppRegistry registry = PushAppRegistry.fromProperties(properties);
+ * registry.sendAsync("shop", new AndroidBroadcast(null, null) ...);
+ * </pre>
+ */
+public class PushAppRegistry implements Closeable {
+    /**
+     * {@link #fromProperties(Properties)} 默认读取的属性前缀
+     */
+    public static final String DEFAULT_PREFIX = "umeng.push.apps.";
+    private static Logger logger = LoggerFactory.getLogger(PushAppRegistry.class);
+    
+    private final PushClientConfig defaultConfig;
+    /**
+     * 当前路由表, 只整体替换不修改
+     */
+    private volatile Routes routes = Routes.EMPTY;
+    private boolean closed;
+    
+    public PushAppRegistry() {
+        this(defaultAppConfig());
+    }
+    
+    /**
+     * @param defaultConfig 没有单独配置的应用使用的PushClient配置, 每个应用按这份配置各自创建连接池
+     */
+    public PushAppRegistry(PushClientConfig defaultConfig) {
+        this.defaultConfig = defaultConfig;
+    }
+    
+    /**
+     * @Description 每个应用默认的配置: 连接数、在途请求数和NIO线程都比单应用的 {@link PushClientConfig} 小,
+     * 在途名额最多等待1秒
+     */
+    public static PushClientConfig defaultAppConfig() {
+        PushClientConfig config = new PushClientConfig();
+        config.setMaxTotal(20);
+        config.setMaxPerRoute(10);
+        config.setMaxInFlight(200);
+        config.setIoThreads(1);
+        config.setInFlightTimeout(1000);
+        return config;
+    }
+    
+    public static PushAppRegistry fromProperties(Properties properties) {
+        return fromProperties(properties, DEFAULT_PREFIX, defaultAppConfig());
+    }
+    
+    /**
+     * @Description 从 prefix + 应用id + "." + 属性名 形式的配置加载应用。属性名为 android.appkey、android.appMasterSecret、
+     * ios.appkey、ios.appMasterSecret, 以及覆盖默认配置的 maxTotal、maxPerRoute、maxInFlight、inFlightTimeout、rateLimit
+     */
+    public static PushAppRegistry fromProperties(Properties properties, String prefix, PushClientConfig defaultConfig) {
+        Collection<PushApp> apps = parse(properties, prefix, defaultConfig);
+        PushAppRegistry registry = new PushAppRegistry(defaultConfig);
+        registry.registerAll(apps);
+        return registry;
+    }
+    
+    static Collection<PushApp> parse(Properties properties, String prefix, PushClientConfig defaultConfig) {
+        Map<String, PushApp> apps = new LinkedHashMap<>();
+        for (String name : new TreeSet<>(properties.stringPropertyNames())) {
+            if (!name.startsWith(prefix)) {
+                continue;
+            }
+            int dot = name.indexOf('.', prefix.length());
+            if (dot < 0) {
+                throw new IllegalArgumentException("Expected " + prefix + "<appId>.<property>, was " + name);
+            }
+            String appId = name.substring(prefix.length(), dot);
+            String property = name.substring(dot + 1);
+            String value = properties.getProperty(name).trim();
+            PushApp app = apps.computeIfAbsent(appId, PushApp::new);
+            switch (property) {
+                case "android.appkey":
+                    app.setAndroidAppkey(value);
+                    break;
+                case "android.appMasterSecret":
+                    app.setAndroidAppMasterSecret(value);
+                    break;
+                case "ios.appkey":
+                    app.setIosAppkey(value);
+                    break;
+                case "ios.appMasterSecret":
+                    app.setIosAppMasterSecret(value);
+                    break;
+                default:
+                    if (app.getClientConfig() == null) {
+                        app.setClientConfig(defaultConfig.copy());
+                    }
+                    override(app.getClientConfig(), name, property, value);
+            }
+        }
+        return apps.values();
+    }
+    
+    private static void override(PushClientConfig config, String name, String property, String value) {
+        try {
+            switch (property) {
+                case "maxTotal":
+                    config.setMaxTotal(Integer.parseInt(value));
+                    break;
+                case "maxPerRoute":
+                    config.setMaxPerRoute(Integer.parseInt(value));
+                    break;
+                case "maxInFlight":
+                    config.setMaxInFlight(Integer.parseInt(value));
+                    break;
+                case "inFlightTimeout":
+                    config.setInFlightTimeout(Long.parseLong(value));
+                    break;
+                case "rateLimit":
+                    config.setRateLimit(Double.parseDouble(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown push app property: " + name);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + name + ": " + value, e);
+        }
+    }
+    
+    public void register(PushApp app) {
+        registerAll(Collections.singletonList(app));
+    }
+    
+    /**
+     * @Description 注册或替换一批应用, 要么全部生效要么都不生效。被替换的应用的PushClient会被关闭, 其在途请求会失败
+     */
+    public synchronized void registerAll(Collection<PushApp> apps) {
+        if (closed) {
+            throw new IllegalStateException("Registry is closed");
+        }
+        Routes current = routes;
+        HashMap<String, Route> byId = new HashMap<>(current.byId);
+        List<Route> added = new ArrayList<>(apps.size());
+        List<Route> replaced = new ArrayList<>();
+        try {
+            for (PushApp app : apps) {
+                PushApp copy = check(app);
+                if (added.stream().anyMatch(route -> route.app.getAppId().equals(copy.getAppId()))) {
+                    throw new IllegalArgumentException("Duplicate app: " + copy.getAppId());
+                }
+                PushClientConfig config = copy.getClientConfig() == null ? defaultConfig : copy.getClientConfig();
+                Route route = new Route(copy, new PushClient(config));
+                added.add(route);
+                Route old = byId.put(copy.getAppId(), route);
+                if (old != null) {
+                    replaced.add(old);
+                }
+            }
+            routes = new Routes(byId);
+        } catch (RuntimeException e) {
+            for (Route route : added) {
+                closeQuietly(route);
+            }
+            throw e;
+        }
+        for (Route route : replaced) {
+            closeQuietly(route);
+        }
+    }
+    
+    /**
+     * @Description 移除应用并关闭它的PushClient, 应用不存在时返回false
+     */
+    public synchronized boolean unregister(String appId) {
+        Routes current = routes;
+        if (!current.byId.containsKey(appId)) {
+            return false;
+        }
+        HashMap<String, Route> byId = new HashMap<>(current.byId);
+        Route old = byId.remove(appId);
+        routes = new Routes(byId);
+        closeQuietly(old);
+        return true;
+    }
+    
+    /**
+     * @Description 校验并复制应用配置, 注册表不受调用方之后修改的影响
+     */
+    private static PushApp check(PushApp app) {
+        String appId = app.getAppId();
+        if (appId == null || appId.isEmpty()) {
+            throw new IllegalArgumentException("App id must not be empty");
+        }
+        boolean android = checkPair(appId, PushMetrics.ANDROID, app.getAndroidAppkey(), app.getAndroidAppMasterSecret());
+        boolean ios = checkPair(appId, PushMetrics.IOS, app.getIosAppkey(), app.getIosAppMasterSecret());
+        if (!android && !ios) {
+            throw new IllegalArgumentException("App " + appId + " has no appkey");
+        }
+        PushApp copy = new PushApp(appId);
+        copy.setAndroidAppkey(app.getAndroidAppkey());
+        copy.setAndroidAppMasterSecret(app.getAndroidAppMasterSecret());
+        copy.setIosAppkey(app.getIosAppkey());
+        copy.setIosAppMasterSecret(app.getIosAppMasterSecret());
+        copy.setClientConfig(app.getClientConfig());
+        return copy;
+    }
+    
+    private static boolean checkPair(String appId, String platform, String appkey, String secret) {
+        boolean hasAppkey = appkey != null && !appkey.isEmpty();
+        boolean hasSecret = secret != null && !secret.isEmpty();
+        if (hasAppkey != hasSecret) {
+            throw new IllegalArgumentException("App " + appId + " needs both " + platform + " appkey and appMasterSecret");
+        }
+        return hasAppkey;
+    }
+    
+    private static void closeQuietly(Route route) {
+        try {
+            route.client.close();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to close push client of app {}", route.app.getAppId(), e);
+        }
+    }
+    
+    public Set<String> getAppIds() {
+        return Collections.unmodifiableSet(routes.byId.keySet());
+    }
+    
+    /**
+     * @Description 应用配置的副本, 不存在时返回null
+     */
+    public PushApp getApp(String appId) {
+        Route route = routes.byId.get(appId);
+        if (route == null) {
+            return null;
+        }
+        return check(route.app);
+    }
+    
+    /**
+     * @Description 应用的PushClient, 不存在时抛出IllegalArgumentException
+     */
+    public PushClient client(String appId) {
+        return route(appId).client;
+    }
+    
+    /**
+     * @Description appkey对应的appMasterSecret, 未注册时返回null。可以作为 {@link DurablePushQueue} 的secretResolver
+     */
+    public String secretOf(String appkey) {
+        Route route = routes.byAppkey.get(appkey);
+        if (route == null) {
+            return null;
+        }
+        return appkey.equals(route.app.getAndroidAppkey()) ? route.app.getAndroidAppMasterSecret()
+                : route.app.getIosAppMasterSecret();
+    }
+    
+    private Route route(String appId) {
+        Route route = routes.byId.get(appId);
+        if (route == null) {
+            throw new IllegalArgumentException("Unknown app: " + appId);
+        }
+        return route;
+    }
+    
+    public String send(String appId, UmengNotification msg) throws Exception {
+        return await(sendAsync(appId, msg));
+    }
+    
+    /**
+     * @Description 用应用自己的PushClient异步发送。消息没有appkey/appMasterSecret时填入应用对应平台的值,
+     * 已有的appkey必须属于这个应用
+     */
+    public CompletableFuture<String> sendAsync(String appId, UmengNotification msg) {
+        Route route;
+        try {
+            route = route(appId);
+            bind(route.app, msg);
+        } catch (Exception e) {
+            return failed(e);
+        }
+        return route.client.sendAsync(msg);
+    }
+    
+    /**
+     * @Description 按消息的appkey找到应用并发送
+     */
+    public CompletableFuture<String> sendAsync(UmengNotification msg) {
+        Route route = routes.byAppkey.get(msg.getAppkey());
+        if (route == null) {
+            return failed(new IllegalArgumentException("Unknown appkey: " + msg.getAppkey()));
+        }
+        return route.client.sendAsync(msg);
+    }
+    
+    /**
+     * @Description 按快照的appkey找到应用并发送
+     */
+    public CompletableFuture<String> sendAsync(NotificationSnapshot snapshot) {
+        Route route = routes.byAppkey.get(snapshot.getAppkey());
+        if (route == null) {
+            return failed(new IllegalArgumentException("Unknown appkey: " + snapshot.getAppkey()));
+        }
+        return route.client.sendAsync(snapshot);
+    }
+    
+    /**
+     * @Description 用应用自己的PushClient同时发送各平台的通知, 见 {@link PushClient#fanOut(UmengNotification...)}
+     */
+    public CompletableFuture<FanoutResult> fanOut(String appId, UmengNotification... notifications) {
+        Route route;
+        try {
+            route = route(appId);
+            for (UmengNotification msg : notifications) {
+                bind(route.app, msg);
+            }
+        } catch (Exception e) {
+            return failed(e);
+        }
+        return route.client.fanOut(notifications);
+    }
+    
+    private static void bind(PushApp app, UmengNotification msg) throws Exception {
+        String platform = PushMetrics.platformOf(msg);
+        String appkey = app.appkeyOf(platform);
+        if (appkey == null) {
+            throw new IllegalArgumentException("App " + app.getAppId() + " has no " + platform + " appkey");
+        }
+        String current = msg.getAppkey();
+        if (current == null) {
+            msg.setPredefinedKeyValue("appkey", appkey);
+        } else if (!current.equals(appkey)) {
+            throw new IllegalArgumentException("Appkey " + current + " does not belong to app " + app.getAppId());
+        }
+        if (msg.getAppMasterSecret() == null) {
+            msg.setAppMasterSecret(app.secretOf(platform));
+        }
+    }
+    
+    private static <T> CompletableFuture<T> failed(Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+    
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * @Description 关闭所有应用的PushClient, 之后不能再注册
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        Routes current = routes;
+        routes = Routes.EMPTY;
+        for (Route route : current.byId.values()) {
+            closeQuietly(route);
+        }
+    }
+    
+    private static final class Route {
+        final PushApp app;
+        final PushClient client;
+        
+        Route(PushApp app, PushClient client) {
+            this.app = app;
+            this.client = client;
+        }
+    }
+    
+    /**
+     * 不可变的路由表, 按应用id和appkey查找
+     */
+    private static final class Routes {
+        static final Routes EMPTY = new Routes(new HashMap<>());
+        
+        final HashMap<String, Route> byId;
+        final HashMap<String, Route> byAppkey;
+        
+        Routes(HashMap<String, Route> byId) {
+            this.byId = byId;
+            this.byAppkey = new HashMap<>(byId.size() * 4);
+            for (Route route : byId.values()) {
+                index(route, route.app.getAndroidAppkey());
+                index(route, route.app.getIosAppkey());
+            }
+        }
+        
+        private void index(Route route, String appkey) {
+            if (appkey == null || appkey.isEmpty()) {
+                return;
+            }
+            Route other = byAppkey.put(appkey, route);
+            if (other != null) {
+                throw new IllegalArgumentException("Appkey " + appkey + " is registered by both " + other.app.getAppId()
+                        + " and " + route.app.getAppId());
+            }
+        }
+    }
+}
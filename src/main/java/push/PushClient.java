@@ -1,32 +1,114 @@
 package push;
 
-import com.alibaba.fastjson.JSON;
-import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.json.JSONObject;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
  * @author zzh
  */
-public class PushClient {
+public class PushClient implements Closeable {
+    private static Logger logger = LoggerFactory.getLogger(PushClient.class);
     /**
      * The user agent
      */
     protected final String USER_AGENT = "Mozilla/5.0";
+    /**
+     * The pooled connection manager shared by all requests of this client
+     */
+    protected final PoolingNHttpClientConnectionManager connectionManager;
     /**
      * This object is used for sending the post request to Umeng
      */
-    protected HttpClient client = HttpClientBuilder.create().build();
+    protected final CloseableHttpAsyncClient client;
+    /**
+     * Bounds the number of requests which are dispatched but not yet completed
+     */
+    protected final Semaphore inFlight;
+    private final int maxInFlight;
+    private final long inFlightTimeout;
+    /**
+     * Requests waiting for an in-flight permit, granted in arrival order
+     */
+    private final ConcurrentLinkedQueue<InFlightWaiter> waiters = new ConcurrentLinkedQueue<>();
+    /**
+     * Per appkey rate limiter, null when rate limiting is disabled
+     */
+    protected final AppkeyRateLimiter rateLimiter;
+    /**
+     * Classifies failures and computes retry delays
+     */
+    protected final RetryPolicy retryPolicy;
+    /**
+     * One circuit breaker per endpoint url
+     */
+    private final ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final int circuitFailureThreshold;
+    private final long circuitOpenTime;
+    /**
+     * Closes expired and idle connections of the pool, and schedules retries
+     */
+    private final ScheduledExecutorService evictor;
+    /**
+     * Call counters and latency histograms, recorded once per call including retries
+     */
+    private final PushMetrics metrics;
+    private final MetricsExporter metricsExporter;
+    private final boolean validateBeforeSend;
+    private final PayloadBudget payloadBudget;
+    /**
+     * Encodes cancel/upload bodies and decodes responses
+     */
+    private final JsonCodec codec;
+    /**
+     * Remembers the file_id of uploaded contents, null when disabled
+     */
+    private final FileIdCache fileIdCache;
     /**
      * The HOST
      */
@@ -39,108 +121,749 @@ public class PushClient {
      * The post path
      */
     protected static final String POST_PATH = "/api/send";
+    /**
+     * 友盟错误码: 与此file_id对应的文件不存在
+     */
+    private static final String FILE_NOT_FOUND = "2019";
+    
+    public PushClient() {
+        this(new PushClientConfig());
+    }
+    
+    public PushClient(PushClientConfig config) {
+        IOReactorConfig reactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(config.getIoThreads())
+                .setConnectTimeout(config.getConnectTimeout())
+                .setSoTimeout(config.getSocketTimeout())
+                .build();
+        try {
+            connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(reactorConfig));
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("Failed to create the push io reactor", e);
+        }
+        connectionManager.setMaxTotal(config.getMaxTotal());
+        connectionManager.setDefaultMaxPerRoute(config.getMaxPerRoute());
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(config.getConnectionRequestTimeout())
+                .setConnectTimeout(config.getConnectTimeout())
+                .setSocketTimeout(config.getSocketTimeout())
+                .build();
+        client = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .build();
+        maxInFlight = config.getMaxInFlight();
+        inFlightTimeout = config.getInFlightTimeout();
+        inFlight = new Semaphore(maxInFlight);
+        metrics = new PushMetrics(() -> maxInFlight - inFlight.availablePermits());
+        rateLimiter = config.getRateLimit() > 0
+                ? new AppkeyRateLimiter(config.getRateLimit(), config.getRateLimitBurst(), config.getRateLimitMode(),
+                config.getRateLimitTimeout(), TimeUnit.MILLISECONDS)
+                : null;
+        retryPolicy = new RetryPolicy(config.getMaxAttempts(), config.getRetryBaseDelay(), config.getRetryMaxDelay(),
+                config.getRetryableErrorCodes());
+        circuitFailureThreshold = config.getCircuitFailureThreshold();
+        circuitOpenTime = config.getCircuitOpenTime();
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "push-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long maxIdleTime = config.getMaxIdleTime();
+        evictor.scheduleWithFixedDelay(() -> {
+            connectionManager.closeExpiredConnections();
+            connectionManager.closeIdleConnections(maxIdleTime, TimeUnit.MILLISECONDS);
+        }, maxIdleTime, maxIdleTime, TimeUnit.MILLISECONDS);
+        validateBeforeSend = config.isValidateBeforeSend();
+        payloadBudget = config.getPayloadBudget();
+        codec = config.getJsonCodec();
+        fileIdCache = config.getFileIdCache();
+        metricsExporter = config.getMetricsExporter();
+        if (metricsExporter != null) {
+            long interval = config.getMetricsExportInterval();
+            evictor.scheduleWithFixedDelay(this::exportMetrics, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        client.start();
+    }
     
     public String send(UmengNotification msg) throws Exception {
+        return await(sendAsync(msg));
+    }
+    
+    /**
+     * @Description 异步发送, 返回消息id
+     */
+    public CompletableFuture<String> sendAsync(UmengNotification msg) {
+        if (payloadBudget != null && msg.getPayloadSize() > payloadBudget.limitOf(msg)) {
+            // 超出预算时发送截断后的快照, 消息本身不变; 未开启截断时以校验异常失败
+            try {
+                return sendAsync(payloadBudget.fit(msg));
+            } catch (NotificationValidationException e) {
+                metrics.series(PushMetrics.Endpoint.SEND, msg.getType() == null ? PushMetrics.UNKNOWN : msg.getType(),
+                        PushMetrics.platformOf(msg)).recordFailure(0, e.getClass().getSimpleName());
+                return failed(e);
+            }
+        }
+        String type = msg.getType();
+        PushMetrics.Series series = metrics.series(PushMetrics.Endpoint.SEND, type == null ? PushMetrics.UNKNOWN : type,
+                PushMetrics.platformOf(msg));
+        byte[] postBody;
+        try {
+            validate(msg);
+            // timestamp只写入请求体, 不修改消息
+            postBody = msg.getPostBodyBytes(UmengNotification.currentTimestamp());
+        } catch (Exception e) {
+            series.recordFailure(0, e.getClass().getSimpleName());
+            return failed(e);
+        }
+        return forgetInvalidFileId(msg.getAppkey(), msg.getPredefinedKeyValue("file_id"),
+                sendAsync(msg.getAppkey(), postBody, msg.getAppMasterSecret(), series));
+    }
+    
+    /**
+     * @Description 同时发送同一条逻辑消息的各平台通知, 一个平台失败不影响其它平台, 结果中带有各平台的消息id、异常和耗时。
+     * 返回的future总是正常完成
+     */
+    public CompletableFuture<FanoutResult> fanOut(UmengNotification... notifications) {
+        List<CompletableFuture<FanoutResult.PlatformResult>> results = new ArrayList<>(notifications.length);
+        for (UmengNotification msg : notifications) {
+            long start = System.nanoTime();
+            results.add(sendAsync(msg).handle((taskId, e) ->
+                    new FanoutResult.PlatformResult(PushMetrics.platformOf(msg), taskId, unwrap(e), System.nanoTime() - start)));
+        }
+        return collect(results);
+    }
+    
+    /**
+     * @Description 在executor中并行组装各平台的通知, 每个组装完成后立即发送。组装失败的平台记为 {@link PushMetrics#UNKNOWN}
+     */
+    public CompletableFuture<FanoutResult> fanOut(Executor executor, List<? extends Callable<? extends UmengNotification>> builders) {
+        List<CompletableFuture<FanoutResult.PlatformResult>> results = new ArrayList<>(builders.size());
+        for (Callable<? extends UmengNotification> builder : builders) {
+            long start = System.nanoTime();
+            results.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return builder.call();
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, executor).thenCompose(msg -> sendAsync(msg).handle((taskId, e) ->
+                    new FanoutResult.PlatformResult(PushMetrics.platformOf(msg), taskId, unwrap(e), System.nanoTime() - start))
+            ).exceptionally(e -> new FanoutResult.PlatformResult(PushMetrics.UNKNOWN, null, unwrap(e), System.nanoTime() - start)));
+        }
+        return collect(results);
+    }
+    
+    private static CompletableFuture<FanoutResult> collect(List<CompletableFuture<FanoutResult.PlatformResult>> results) {
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            List<FanoutResult.PlatformResult> list = new ArrayList<>(results.size());
+            for (CompletableFuture<FanoutResult.PlatformResult> result : results) {
+                list.add(result.join());
+            }
+            return new FanoutResult(list);
+        });
+    }
+    
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+    
+    public String send(NotificationSnapshot snapshot) throws Exception {
+        return await(sendAsync(snapshot));
+    }
+    
+    /**
+     * @Description 异步发送不可变的消息快照, 同一个快照可以在多个线程中同时发送。
+     * 与发送消息一样按payload预算截断或拒绝, 截断时发送的是新的快照, 原快照不变
+     */
+    public CompletableFuture<String> sendAsync(NotificationSnapshot snapshot) {
+        String type = snapshot.getType();
+        PushMetrics.Series series = metrics.series(PushMetrics.Endpoint.SEND, type == null ? PushMetrics.UNKNOWN : type,
+                snapshot.getPlatform());
+        NotificationSnapshot fitted;
+        try {
+            fitted = payloadBudget == null ? snapshot : payloadBudget.fit(snapshot);
+            if (validateBeforeSend) {
+                fitted.validate();
+            }
+        } catch (NotificationValidationException e) {
+            series.recordFailure(0, e.getClass().getSimpleName());
+            return failed(e);
+        }
+        byte[] postBody = fitted.getPostBodyBytes(UmengNotification.currentTimestamp());
+        return forgetInvalidFileId(fitted.getAppkey(), fitted.get("file_id"),
+                sendAsync(fitted.getAppkey(), postBody, fitted.getAppMasterSecret(), series));
+    }
+    
+    /**
+     * @Description 按file_id发送时友盟返回文件不存在, 说明缓存的file_id已失效, 从缓存中删除, 下次重新上传
+     */
+    private CompletableFuture<String> forgetInvalidFileId(String appkey, Object fileId, CompletableFuture<String> result) {
+        if (fileIdCache == null || fileId == null) {
+            return result;
+        }
+        return propagateCancel(result, result.whenComplete((taskId, e) -> {
+            Throwable cause = unwrap(e);
+            if (cause instanceof PushException && FILE_NOT_FOUND.equals(((PushException) cause).getErrorCode())) {
+                logger.info("Umeng no longer has file {}, removing it from the file id cache", fileId);
+                fileIdCache.invalidateFileId(appkey, fileId.toString());
+            }
+        }));
+    }
+    
+    /**
+     * @Description 配置了发送前校验时校验消息, 配置了payload预算时检查payload大小(不截断)
+     */
+    void validate(UmengNotification msg) throws NotificationValidationException {
+        if (validateBeforeSend) {
+            msg.validate();
+        }
+        if (payloadBudget != null) {
+            payloadBudget.check(msg);
+        }
+    }
+    
+    /**
+     * @Description 异步发送已组装好(包含timestamp)的消息体, 返回消息id
+     */
+    public CompletableFuture<String> sendAsync(String appkey, String postBody, String appMasterSecret) {
+        return sendAsync(appkey, postBody, appMasterSecret,
+                metrics.series(PushMetrics.Endpoint.SEND, PushMetrics.UNKNOWN, PushMetrics.UNKNOWN));
+    }
+    
+    /**
+     * @Description 异步发送已组装好的消息体, 指标记录到指定的分组
+     */
+    CompletableFuture<String> sendAsync(String appkey, String postBody, String appMasterSecret, PushMetrics.Series series) {
         //消息id
-        String taskId = "";
-        String timestamp = Integer.toString((int) (System.currentTimeMillis() / 1000));
-        msg.setPredefinedKeyValue("timestamp", timestamp);
-        String url = HOST + POST_PATH;
-        String postBody = msg.getPostBody();
-        String sign = DigestUtils.md5Hex(("POST" + url + postBody + msg.getAppMasterSecret()).getBytes(StandardCharsets.UTF_8));
-        url = url + "?sign=" + sign;
-        HttpPost post = new HttpPost(url);
-        post.setHeader("User-Agent", USER_AGENT);
-        StringEntity se = new StringEntity(postBody, "UTF-8");
-        post.setEntity(se);
-        // Send the post request and get the response
-        HttpResponse response = client.execute(post);
-        int status = response.getStatusLine().getStatusCode();
-        System.out.println("Response Code : " + status);
-        BufferedReader rd = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
-        StringBuilder result = new StringBuilder();
-        String line;
-        while ((line = rd.readLine()) != null) {
-            result.append(line);
-        }
-        System.out.println(result.toString());
-        if (status == 200) {
-            Map map = (Map) JSON.parse(result.toString());
-            Map data = (Map) JSON.parse(map.get("data").toString());
-            taskId = data.get("task_id").toString();
-            System.out.println("Notification sent successfully.");
-        } else {
-            System.out.println("Failed to send the notification!");
-        }
-        return taskId;
+        CompletableFuture<UmengResult> response = postAsync(appkey, HOST + POST_PATH, postBody, appMasterSecret, series);
+        return propagateCancel(response, response.thenApply(UmengResult::getTaskId));
+    }
+    
+    /**
+     * @Description 异步发送已编码为UTF-8的消息体
+     */
+    CompletableFuture<String> sendAsync(String appkey, byte[] postBody, String appMasterSecret, PushMetrics.Series series) {
+        RequestSigner.SignedBody signed = RequestSigner.sign(HOST + POST_PATH, postBody, appMasterSecret);
+        CompletableFuture<UmengResult> response = executeWithRetry(appkey, HOST + POST_PATH, signed.sign, signed.entity, series);
+        return propagateCancel(response, response.thenApply(UmengResult::getTaskId));
     }
     
     /**
      * @Description Upload file with device_tokens to Umeng
      */
     public String uploadContents(String appkey, String appMasterSecret, String contents) throws Exception {
+        return await(uploadContentsAsync(appkey, appMasterSecret, contents));
+    }
+    
+    /**
+     * @Description 异步上传文件, 返回file_id
+     */
+    public CompletableFuture<String> uploadContentsAsync(String appkey, String appMasterSecret, String contents) {
+        if (fileIdCache != null) {
+            return fileIdCache.fileIdAsync(appkey, FileIdCache.digest(contents),
+                    () -> uploadString(appkey, appMasterSecret, contents));
+        }
+        return uploadString(appkey, appMasterSecret, contents);
+    }
+    
+    private CompletableFuture<String> uploadString(String appkey, String appMasterSecret, String contents) {
         // Construct the json string
-        JSONObject uploadJson = new JSONObject();
+        LinkedHashMap<String, String> uploadJson = new LinkedHashMap<>(4);
         uploadJson.put("appkey", appkey);
-        String timestamp = Integer.toString((int) (System.currentTimeMillis() / 1000));
-        uploadJson.put("timestamp", timestamp);
+        uploadJson.put("timestamp", UmengNotification.currentTimestamp());
         uploadJson.put("content", contents);
         // Construct the request
         String url = HOST + UPLOAD_PATH;
-        String postBody = uploadJson.toString();
-        String sign = DigestUtils.md5Hex(("POST" + url + postBody + appMasterSecret).getBytes(StandardCharsets.UTF_8));
-        url = url + "?sign=" + sign;
-        HttpPost post = new HttpPost(url);
-        post.setHeader("User-Agent", USER_AGENT);
-        StringEntity se = new StringEntity(postBody, "UTF-8");
-        post.setEntity(se);
-        // Send the post request and get the response
-        HttpResponse response = client.execute(post);
-        System.out.println("Response Code : " + response.getStatusLine().getStatusCode());
-        BufferedReader rd = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
-        StringBuilder result = new StringBuilder();
-        String line;
-        while ((line = rd.readLine()) != null) {
-            result.append(line);
-        }
-        System.out.println(result.toString());
-        // Decode response string and get file_id from it
-        JSONObject respJson = new JSONObject(result.toString());
-        String ret = respJson.getString("ret");
-        if (!"SUCCESS".equals(ret)) {
-            throw new Exception("Failed to upload file");
-        }
-        JSONObject data = respJson.getJSONObject("data");
-        // Set file_id into rootJson using setPredefinedKeyValue
-        return data.getString("file_id");
+        String postBody = codec.toJson(uploadJson);
+        return postAsync(appkey, url, postBody, appMasterSecret, uploadSeries()).thenApply(UmengResult::getFileId);
+    }
+    
+    /**
+     * @Description 上传文件内容, 文件以流的方式读取, 内存占用与文件大小无关
+     */
+    public String uploadContents(String appkey, String appMasterSecret, Path contents) throws Exception {
+        return await(uploadContentsAsync(appkey, appMasterSecret, contents));
+    }
+    
+    public CompletableFuture<String> uploadContentsAsync(String appkey, String appMasterSecret, Path contents) {
+        if (fileIdCache != null) {
+            byte[] digest;
+            try {
+                digest = FileIdCache.digest(contents);
+            } catch (IOException e) {
+                return failed(e);
+            }
+            return fileIdCache.fileIdAsync(appkey, digest, () -> uploadFile(appkey, appMasterSecret, contents));
+        }
+        return uploadFile(appkey, appMasterSecret, contents);
+    }
+    
+    private CompletableFuture<String> uploadFile(String appkey, String appMasterSecret, Path contents) {
+        String timestamp = UmengNotification.currentTimestamp();
+        String url = HOST + UPLOAD_PATH;
+        UploadContentEntity entity = new UploadContentEntity(appkey, timestamp, contents);
+        String sign;
+        try {
+            sign = entity.sign(url, appMasterSecret);
+        } catch (IOException | RuntimeException e) {
+            return failed(e);
+        }
+        return executeWithRetry(appkey, url, sign, entity, uploadSeries()).thenApply(UmengResult::getFileId);
+    }
+    
+    /**
+     * @Description 上传流中的内容, 先落到临时文件再流式上传, 上传完成后删除临时文件
+     */
+    public String uploadContents(String appkey, String appMasterSecret, InputStream contents) throws Exception {
+        return await(uploadContentsAsync(appkey, appMasterSecret, contents));
+    }
+    
+    public CompletableFuture<String> uploadContentsAsync(String appkey, String appMasterSecret, InputStream contents) {
+        Path spool = null;
+        MessageDigest digest = fileIdCache == null ? null : FileIdCache.newDigest();
+        try {
+            spool = Files.createTempFile("umeng-upload", ".txt");
+            // 配置了file_id缓存时在落盘的同时计算摘要
+            Files.copy(digest == null ? contents : new DigestInputStream(contents, digest), spool,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            deleteSpool(spool);
+            return failed(e);
+        }
+        return uploadSpooled(appkey, appMasterSecret, spool, digest);
+    }
+    
+    /**
+     * @Description 上传device_token/alias序列, 每个一行
+     */
+    public String uploadContents(String appkey, String appMasterSecret, Iterator<? extends CharSequence> contents) throws Exception {
+        return await(uploadContentsAsync(appkey, appMasterSecret, contents));
+    }
+    
+    public CompletableFuture<String> uploadContentsAsync(String appkey, String appMasterSecret, Iterator<? extends CharSequence> contents) {
+        Path spool = null;
+        MessageDigest digest = fileIdCache == null ? null : FileIdCache.newDigest();
+        try {
+            spool = Files.createTempFile("umeng-upload", ".txt");
+            OutputStream out = Files.newOutputStream(spool);
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    digest == null ? out : new DigestOutputStream(out, digest), StandardCharsets.UTF_8))) {
+                boolean first = true;
+                while (contents.hasNext()) {
+                    if (!first) {
+                        writer.write('\n');
+                    }
+                    writer.append(contents.next());
+                    first = false;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // 迭代器抛出的异常也通过future返回
+            deleteSpool(spool);
+            return failed(e);
+        }
+        return uploadSpooled(appkey, appMasterSecret, spool, digest);
+    }
+    
+    /**
+     * @Description 上传临时文件, 完成后删除; digest是落盘时计算的摘要, 不使用缓存时为null
+     */
+    private CompletableFuture<String> uploadSpooled(String appkey, String appMasterSecret, Path spool, MessageDigest digest) {
+        CompletableFuture<String> upload;
+        try {
+            upload = digest == null ? uploadFile(appkey, appMasterSecret, spool)
+                    : fileIdCache.fileIdAsync(appkey, digest.digest(), () -> uploadFile(appkey, appMasterSecret, spool));
+        } catch (RuntimeException e) {
+            upload = failed(e);
+        }
+        return upload.whenComplete((fileId, e) -> deleteSpool(spool));
+    }
+    
+    private static void deleteSpool(Path spool) {
+        if (spool == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(spool);
+        } catch (IOException ignored) {
+            spool.toFile().deleteOnExit();
+        }
     }
     
     
     public boolean cancelNotice(String url, HashMap<String, String> hashMap, String secret, String timestamp) throws Exception {
-        String sign = DigestUtils.md5Hex(("POST" + url + JSON.toJSONString(hashMap) + secret).getBytes(StandardCharsets.UTF_8));
-        url = url + "?sign=" + sign;
-        HttpPost post = new HttpPost(url);
-        post.setHeader("User-Agent", USER_AGENT);
-        StringEntity se = new StringEntity(JSON.toJSONString(hashMap), "UTF-8");
-        post.setEntity(se);
+        return await(cancelNoticeAsync(url, hashMap, secret, timestamp));
+    }
+    
+    /**
+     * @Description 异步取消消息
+     */
+    public CompletableFuture<Boolean> cancelNoticeAsync(String url, HashMap<String, String> hashMap, String secret, String timestamp) {
+        PushMetrics.Series series = metrics.series(PushMetrics.Endpoint.CANCEL, PushMetrics.UNKNOWN, PushMetrics.UNKNOWN);
+        CompletableFuture<UmengResult> request = postAsync(hashMap.get("appkey"), url, codec.toJson(hashMap), secret, series);
+        return propagateCancel(request, request.handle((response, e) -> {
+            if (e == null) {
+                return true;
+            }
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof PushException) {
+                logger.warn("Failed to cancel the notification: {}", cause.getMessage());
+                return false;
+            }
+            throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+        }));
+    }
+    
+    /**
+     * @Description 签名并异步发送请求, Sign=MD5($http_method$url$post-body$app_master_secret)。
+     * 先按appkey限流, 在途请求数达到上限时排队等待, 不阻塞调用线程。
+     */
+    private CompletableFuture<UmengResult> postAsync(String appkey, String url, String postBody, String secret,
+                                                     PushMetrics.Series series) {
+        RequestSigner.SignedBody signed = RequestSigner.sign(url, postBody, secret);
+        return executeWithRetry(appkey, url, signed.sign, signed.entity, series);
+    }
+    
+    private PushMetrics.Series uploadSeries() {
+        return metrics.series(PushMetrics.Endpoint.UPLOAD, PushMetrics.UNKNOWN, PushMetrics.UNKNOWN);
+    }
+    
+    /**
+     * @Description 发送请求, 可重试的失败按指数退避重试; 返回的结果一定是成功的, 失败时以PushException等异常结束。
+     * 请求实体必须可重复读取。
+     */
+    private CompletableFuture<UmengResult> executeWithRetry(String appkey, String url, String sign, HttpEntity requestEntity,
+                                                            PushMetrics.Series series) {
+        CompletableFuture<UmengResult> future = new CompletableFuture<>();
+        CircuitBreaker breaker = breakers.computeIfAbsent(url,
+                k -> new CircuitBreaker(circuitFailureThreshold, circuitOpenTime, TimeUnit.MILLISECONDS));
+        long start = System.nanoTime();
+        future.whenComplete((response, e) -> {
+            long elapsed = System.nanoTime() - start;
+            if (e == null) {
+                series.recordSuccess(elapsed);
+            } else if (e instanceof PushException) {
+                series.recordFailure(elapsed, ((PushException) e).getErrorCode());
+            } else {
+                series.recordFailure(elapsed, e.getClass().getSimpleName());
+            }
+        });
+        if (appkey == null) {
+            // 限流按appkey分桶, 没有appkey的请求友盟也不会接受
+            future.completeExceptionally(new IllegalArgumentException("appkey must not be null"));
+            return future;
+        }
+        attempt(appkey, url, url + "?sign=" + sign, requestEntity, breaker, 1, future);
+        return future;
+    }
+    
+    /**
+     * @Description 发起一次尝试, 不阻塞调用线程: 先向熔断器申请放行, 再预占appkey的令牌,
+     * 需要等待时在调度线程上继续; 最后申请在途许可, 见 {@link #acquireInFlight}
+     */
+    private void attempt(String appkey, String url, String signedUrl, HttpEntity requestEntity, CircuitBreaker breaker,
+                         int attempt, CompletableFuture<UmengResult> future) {
+        CircuitBreaker.Permit permit = breaker.allowRequest();
+        if (permit == null) {
+            future.completeExceptionally(new CircuitOpenException(url));
+            return;
+        }
+        throttle(appkey, url, signedUrl, requestEntity, breaker, permit, attempt, future, false);
+    }
+    
+    /**
+     * @param reserved 已经预占了令牌
+     */
+    private void throttle(String appkey, String url, String signedUrl, HttpEntity requestEntity, CircuitBreaker breaker,
+                          CircuitBreaker.Permit permit, int attempt, CompletableFuture<UmengResult> future, boolean reserved) {
+        // 请求没有发出时都要交回放行凭证, 否则半开状态下的探测机会就丢了
+        Consumer<Throwable> reject = e -> {
+            breaker.release(permit);
+            future.completeExceptionally(e);
+        };
+        if (future.isDone()) {
+            // 调用方已取消
+            breaker.release(permit);
+            return;
+        }
+        if (!reserved && rateLimiter != null) {
+            long wait;
+            try {
+                wait = rateLimiter.reserve(appkey);
+            } catch (RateLimitedException e) {
+                reject.accept(e);
+                return;
+            }
+            if (wait > 0) {
+                reschedule(() -> throttle(appkey, url, signedUrl, requestEntity, breaker, permit, attempt, future, true),
+                        wait, TimeUnit.NANOSECONDS, reject);
+                return;
+            }
+        }
+        acquireInFlight(future, () -> {
+            if (future.isDone()) {
+                releaseInFlight();
+                breaker.release(permit);
+                return;
+            }
+            dispatch(appkey, url, signedUrl, requestEntity, breaker, permit, attempt, future);
+        }, reject);
+    }
+    
+    /**
+     * @Description 申请一个在途许可, 不阻塞: 有空闲许可且没有排队的请求时直接执行granted;
+     * 否则排队, 有请求结束时按先后在调度线程上放行。等待超过inFlightTimeout(小于0时不限)
+     * 以 {@link BulkheadFullException} 调用rejected; future在等待期间结束(如被调用方取消)时放弃排队
+     */
+    private void acquireInFlight(CompletableFuture<?> future, Runnable granted, Consumer<Throwable> rejected) {
+        if (waiters.isEmpty() && inFlight.tryAcquire()) {
+            granted.run();
+            return;
+        }
+        InFlightWaiter waiter = new InFlightWaiter(granted, rejected);
+        waiters.add(waiter);
+        future.whenComplete((response, e) -> abandon(waiter, e != null ? e : new CancellationException()));
+        if (inFlightTimeout >= 0) {
+            try {
+                evictor.schedule(() -> abandon(waiter, new BulkheadFullException(maxInFlight)),
+                        inFlightTimeout, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                abandon(waiter, e);
+            }
+        }
+        // 入队前许可可能刚好被释放, 入队后再检查一次
+        grantWaiters();
+    }
+    
+    private void abandon(InFlightWaiter waiter, Throwable cause) {
+        if (waiter.claimed.compareAndSet(false, true)) {
+            waiters.remove(waiter);
+            waiter.rejected.accept(cause);
+        }
+    }
+    
+    private void releaseInFlight() {
+        inFlight.release();
+        grantWaiters();
+    }
+    
+    /**
+     * @Description 把空闲的在途许可交给排队的请求, 在调度线程上发出, 不占用释放许可的IO线程
+     */
+    private void grantWaiters() {
+        while (!waiters.isEmpty() && inFlight.tryAcquire()) {
+            InFlightWaiter waiter = waiters.poll();
+            if (waiter == null || !waiter.claimed.compareAndSet(false, true)) {
+                // 已超时或已取消
+                inFlight.release();
+                continue;
+            }
+            try {
+                evictor.execute(waiter.granted);
+            } catch (RejectedExecutionException e) {
+                inFlight.release();
+                waiter.rejected.accept(e);
+            }
+        }
+    }
+    
+    private void reschedule(Runnable task, long delay, TimeUnit unit, Consumer<Throwable> rejected) {
+        try {
+            evictor.schedule(task, delay, unit);
+        } catch (RejectedExecutionException e) {
+            // 已关闭
+            rejected.accept(e);
+        }
+    }
+    
+    /**
+     * @Description 已经拿到在途许可, 发出请求并处理结果, 可重试的失败在退避后重新 {@link #attempt}
+     */
+    private void dispatch(String appkey, String url, String signedUrl, HttpEntity requestEntity, CircuitBreaker breaker,
+                          CircuitBreaker.Permit permit, int attempt, CompletableFuture<UmengResult> future) {
+        execute(signedUrl, requestEntity).whenComplete((response, e) -> {
+            Throwable failure;
+            if (e != null) {
+                failure = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            } else if (response.isSuccess()) {
+                breaker.onSuccess(permit);
+                future.complete(response);
+                return;
+            } else {
+                failure = new PushException(response, retryPolicy.isRetryable(response));
+            }
+            boolean retryable = retryPolicy.isRetryable(failure);
+            if (retryable) {
+                breaker.onFailure(permit);
+            } else {
+                // 永久错误说明接口本身是通的
+                breaker.onSuccess(permit);
+            }
+            if (retryable && attempt < retryPolicy.getMaxAttempts()) {
+                reschedule(() -> attempt(appkey, url, signedUrl, requestEntity, breaker, attempt + 1, future),
+                        retryPolicy.backoffMillis(attempt), TimeUnit.MILLISECONDS, future::completeExceptionally);
+            } else {
+                future.completeExceptionally(failure);
+            }
+        });
+    }
+    
+    /**
+     * @Description 发出请求, 调用前必须已经拿到一个在途许可, 请求结束时释放; 不会同步抛出异常,
+     * 任何失败(包括解析返回体时的运行时异常)都通过返回的future结束, 在途许可只释放一次
+     */
+    private CompletableFuture<UmengResult> execute(String signedUrl, HttpEntity requestEntity) {
+        CompletableFuture<UmengResult> future = new CompletableFuture<>();
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable releasePermit = () -> {
+            if (released.compareAndSet(false, true)) {
+                releaseInFlight();
+            }
+        };
+        try {
+            HttpPost post = new HttpPost(signedUrl);
+            post.setHeader("User-Agent", USER_AGENT);
+            post.setEntity(requestEntity);
+            client.execute(post, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse result) {
+                    releasePermit.run();
+                    try {
+                        future.complete(toResult(result));
+                    } catch (IOException | RuntimeException e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+                
+                @Override
+                public void failed(Exception ex) {
+                    releasePermit.run();
+                    future.completeExceptionally(ex);
+                }
+                
+                @Override
+                public void cancelled() {
+                    releasePermit.run();
+                    future.cancel(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            // 客户端已关闭等情况下请求没有发出, 回调不会被调用
+            releasePermit.run();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+    
+    /**
+     * @Description 解析返回体; 非200时返回体可能不是JSON(如网关错误页), 解析失败只保留状态码
+     */
+    private UmengResult toResult(HttpResponse result) throws IOException {
+        // The async consumer has buffered the whole entity and released the connection already
+        UmengResult response = new UmengResult();
+        response.setStatus(result.getStatusLine().getStatusCode());
+        HttpEntity entity = result.getEntity();
+        if (entity != null) {
+            try (InputStream in = entity.getContent()) {
+                codec.parseResult(in, response);
+            } catch (IOException | RuntimeException e) {
+                if (response.getStatus() == 200) {
+                    throw e;
+                }
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Response: {}", response);
+        }
+        return response;
+    }
+    
+    /**
+     * 排队等待在途许可的请求, 放行、超时和取消之间只有先认领的一方生效
+     */
+    private static final class InFlightWaiter {
+        final Runnable granted;
+        final Consumer<Throwable> rejected;
+        final AtomicBoolean claimed = new AtomicBoolean();
         
-        // Send the post request and get the response
-        HttpResponse response = client.execute(post);
-        int status = response.getStatusLine().getStatusCode();
-        System.out.println("Response Code : " + status);
-        BufferedReader rd = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
-        StringBuilder result = new StringBuilder();
-        String line;
-        while ((line = rd.readLine()) != null) {
-            result.append(line);
-        }
-        System.out.println(result.toString());
-        if (status == 200) {
-            System.out.println("Notification sent successfully.");
-            return true;
-        } else {
-            System.out.println("Failed to send the notification!");
-            return false;
+        InFlightWaiter(Runnable granted, Consumer<Throwable> rejected) {
+            this.granted = granted;
+            this.rejected = rejected;
+        }
+    }
+    
+    /**
+     * @Description 调用方取消派生的future时一并取消源请求, 还在排队的请求不再发出
+     */
+    private static <T> CompletableFuture<T> propagateCancel(CompletableFuture<?> source, CompletableFuture<T> derived) {
+        derived.whenComplete((result, e) -> {
+            if (derived.isCancelled()) {
+                source.cancel(false);
+            }
+        });
+        return derived;
+    }
+    
+    private static <T> CompletableFuture<T> failed(Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+    
+    /**
+     * @Description 阻塞等待异步结果, 抛出原始异常
+     */
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * @Description 调用指标
+     */
+    public PushMetrics getMetrics() {
+        return metrics;
+    }
+    
+    JsonCodec getJsonCodec() {
+        return codec;
+    }
+    
+    /**
+     * @Description payload预算, 没有配置时为null
+     */
+    PayloadBudget getPayloadBudget() {
+        return payloadBudget;
+    }
+    
+    private void exportMetrics() {
+        try {
+            metricsExporter.export(metrics);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to export push metrics", e);
+        }
+    }
+    
+    /**
+     * @Description 关闭连接池及空闲连接回收线程, 配置了指标导出时最后导出一次
+     */
+    @Override
+    public void close() throws IOException {
+        evictor.shutdownNow();
+        client.close();
+        if (metricsExporter != null) {
+            exportMetrics();
         }
     }
 }
@@ -0,0 +1,129 @@
+package push;
+
+import lombok.Data;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * @author zzh
+ * @description PushClient连接池配置
+ */
+@Data
+public class PushClientConfig implements Cloneable {
+    /**
+     * 连接池最大连接数
+     */
+    private int maxTotal = 200;
+    /**
+     * 每个路由(msg.umeng.com / msgapi.umeng.com)的最大连接数
+     */
+    private int maxPerRoute = 100;
+    /**
+     * 同时在途(已发出未返回)的最大请求数, 超出时请求排队等待, 调用线程不阻塞
+     */
+    private int maxInFlight = 2000;
+    /**
+     * 在途请求已满时最长等待时间, 单位毫秒, 超时后以 BulkheadFullException 失败; 小于0时一直等待
+     */
+    private long inFlightTimeout = -1;
+    /**
+     * NIO线程数
+     */
+    private int ioThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * 空闲连接回收时间, 单位毫秒
+     */
+    private long maxIdleTime = 30000;
+    /**
+     * 从连接池获取连接的超时时间, 单位毫秒
+     */
+    private int connectionRequestTimeout = 5000;
+    /**
+     * 建立连接超时时间, 单位毫秒
+     */
+    private int connectTimeout = 5000;
+    /**
+     * 读取响应超时时间, 单位毫秒
+     */
+    private int socketTimeout = 15000;
+    /**
+     * 每个appkey每秒允许的请求数, 不大于0表示不限流
+     */
+    private double rateLimit = 0;
+    /**
+     * 每个appkey允许的突发请求数
+     */
+    private int rateLimitBurst = 10;
+    /**
+     * 令牌不足时的处理方式
+     */
+    private AppkeyRateLimiter.Mode rateLimitMode = AppkeyRateLimiter.Mode.BLOCK;
+    /**
+     * TIMEOUT模式下最长等待时间, 单位毫秒
+     */
+    private long rateLimitTimeout = 1000;
+    /**
+     * 最多尝试次数(包括第一次), 1表示不重试
+     */
+    private int maxAttempts = 3;
+    /**
+     * 重试退避的基础时间, 单位毫秒
+     */
+    private long retryBaseDelay = 200;
+    /**
+     * 重试退避的最长时间, 单位毫秒
+     */
+    private long retryMaxDelay = 5000;
+    /**
+     * 可以重试的友盟错误码: 消息取消失败请稍候再试、服务升级中、文件上传失败、数据库错误、系统错误/系统忙、队列已满、异步发送失败
+     */
+    private Set<String> retryableErrorCodes = new HashSet<>(Arrays.asList("2014", "2020", "2023", "3000", "3001", "3002",
+            "3003", "3004", "4000", "4001", "4009", "4013"));
+    /**
+     * 连续失败多少次后熔断
+     */
+    private int circuitFailureThreshold = 20;
+    /**
+     * 熔断持续时间, 单位毫秒
+     */
+    private long circuitOpenTime = 30000;
+    /**
+     * 发送前按消息类型校验必填字段、取值和长度, 不合法的消息不会占用请求配额
+     */
+    private boolean validateBeforeSend = true;
+    /**
+     * payload字节数预算, 超出时拒绝(开启 {@link PayloadBudget#setTruncate} 后截断), 为null时不检查
+     */
+    private PayloadBudget payloadBudget = new PayloadBudget();
+    /**
+     * 指标导出, 为null时不导出, 指标仍可以通过 PushClient.getMetrics() 读取
+     */
+    private MetricsExporter metricsExporter;
+    /**
+     * 指标导出间隔, 单位毫秒
+     */
+    private long metricsExportInterval = 60000;
+    /**
+     * JSON编解码器, 用于取消/上传请求体和返回结果的解析
+     */
+    private JsonCodec jsonCodec = SimpleJsonCodec.INSTANCE;
+    /**
+     * 上传内容的file_id缓存, 相同内容再次上传时直接使用之前的file_id; 为null时不缓存
+     */
+    private FileIdCache fileIdCache;
+    
+    /**
+     * @Description 复制一份配置, 用于在公共配置的基础上修改个别参数
+     */
+    public PushClientConfig copy() {
+        try {
+            PushClientConfig copy = (PushClientConfig) super.clone();
+            copy.retryableErrorCodes = new HashSet<>(retryableErrorCodes);
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
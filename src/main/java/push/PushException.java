@@ -0,0 +1,38 @@
+package push;
+
+/**
+ * @author zzh
+ * @description 友盟返回失败(非200或ret=FAIL), 带有状态码和错误码, 以及是否可以重试
+ */
+public class PushException extends Exception {
+    private static final long serialVersionUID = 1L;
+    private final int status;
+    private final String errorCode;
+    private final String errorMsg;
+    private final boolean retryable;
+    
+    public PushException(UmengResult result, boolean retryable) {
+        super("Umeng request failed, status: " + result.getStatus() + ", error_code: " + result.getErrorCode()
+                + ", error_msg: " + result.getErrorMsg());
+        this.status = result.getStatus();
+        this.errorCode = result.getErrorCode();
+        this.errorMsg = result.getErrorMsg();
+        this.retryable = retryable;
+    }
+    
+    public int getStatus() {
+        return status;
+    }
+    
+    public String getErrorCode() {
+        return errorCode;
+    }
+    
+    public String getErrorMsg() {
+        return errorMsg;
+    }
+    
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
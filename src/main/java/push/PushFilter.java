@@ -0,0 +1,345 @@
+package push;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * @author zzh
+ * @description groupcast的filter表达式: tag、app_version、channel、device_model、launch_from、not_launch_from条件
+ * 和 and/or/not 组合。表达式不可变, 构建时逐层累加序列化后的字节数, 超过 {@link NotificationSchema#MAX_FILTER_BYTES}
+ * 时立即抛出异常, 不会等到发送时才被友盟拒绝。
+ * <p>
+ * and/or 会展开同类嵌套、去掉重复项并按规范形式排序, 所以 "vip AND android" 和 "android AND vip" 是同一个表达式。
+ * {@link #compile()} 的结果按规范形式缓存在有界的LRU缓存中, 常用的人群不会重复序列化。
+ * <pre>
+ * PushFilter filter = PushFilter.tag("vip").and(PushFilter.or(PushFilter.channel("huawei"), PushFilter.channel("xiaomi")))
+ *         .and(PushFilter.not(PushFilter.appVersion("&lt;2.0")));
+ * groupcast.setFilter(filter);
+ * </pre>
+ */
+public final class PushFilter {
+    /**
+     * 缓存的已编译filter个数
+     */
+    public static final int CACHE_SIZE = 1024;
+    private static final Pattern DATE = Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
+    /**
+     * {"where":{"and":[ 和 ]}} 的字节数
+     */
+    private static final int ROOT_OVERHEAD = 20;
+    private static final byte[] ROOT_PREFIX = "{\"where\":{\"and\":[".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ROOT_SUFFIX = "]}}".getBytes(StandardCharsets.US_ASCII);
+    private static final Map<String, CompiledFilter> CACHE = new LinkedHashMap<String, CompiledFilter>(64, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompiledFilter> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    
+    private enum Op {
+        CONDITION, AND, OR, NOT
+    }
+    
+    private final Op op;
+    private final String key;
+    private final String value;
+    private final PushFilter[] operands;
+    /**
+     * 本节点序列化后的字节数
+     */
+    private final int bytes;
+    private final String canonical;
+    private volatile CompiledFilter compiled;
+    
+    private PushFilter(String key, String value) {
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Filter " + key + " must not be empty");
+        }
+        this.op = Op.CONDITION;
+        this.key = key;
+        this.value = value;
+        this.operands = null;
+        // {"key":"value"}
+        this.bytes = key.length() + Utf8JsonWriter.escapedLength(value) + 7;
+        this.canonical = key + ':' + quote(value);
+        checkSize();
+    }
+    
+    private PushFilter(Op op, PushFilter[] operands) {
+        this.op = op;
+        this.key = null;
+        this.value = null;
+        this.operands = operands;
+        int size;
+        StringBuilder text = new StringBuilder();
+        if (op == Op.NOT) {
+            // {"not":child}
+            size = operands[0].bytes + 8;
+            text.append('!').append(operands[0].canonical);
+        } else {
+            // {"and":[a,b]} / {"or":[a,b]}
+            size = (op == Op.AND ? 10 : 9) + operands.length - 1;
+            String separator = op == Op.AND ? " & " : " | ";
+            text.append('(');
+            for (int i = 0; i < operands.length; i++) {
+                size += operands[i].bytes;
+                if (i > 0) {
+                    text.append(separator);
+                }
+                text.append(operands[i].canonical);
+            }
+            text.append(')');
+        }
+        this.bytes = size;
+        this.canonical = text.toString();
+        checkSize();
+    }
+    
+    public static PushFilter tag(String tag) {
+        return new PushFilter("tag", tag);
+    }
+    
+    /**
+     * @Description 应用版本, 可以带比较符, 如 "1.0"、"&gt;=1.0"、"&lt;2.0"
+     */
+    public static PushFilter appVersion(String version) {
+        return new PushFilter("app_version", version);
+    }
+    
+    public static PushFilter channel(String channel) {
+        return new PushFilter("channel", channel);
+    }
+    
+    public static PushFilter deviceModel(String model) {
+        return new PushFilter("device_model", model);
+    }
+    
+    /**
+     * @Description 从某天(yyyy-MM-dd)起活跃过的设备
+     */
+    public static PushFilter launchFrom(String date) {
+        return new PushFilter("launch_from", checkDate(date));
+    }
+    
+    /**
+     * @Description 从某天(yyyy-MM-dd)起没有活跃过的设备
+     */
+    public static PushFilter notLaunchFrom(String date) {
+        return new PushFilter("not_launch_from", checkDate(date));
+    }
+    
+    public static PushFilter and(PushFilter... filters) {
+        return combine(Op.AND, filters);
+    }
+    
+    public static PushFilter or(PushFilter... filters) {
+        return combine(Op.OR, filters);
+    }
+    
+    public static PushFilter not(PushFilter filter) {
+        if (filter.op == Op.NOT) {
+            return filter.operands[0];
+        }
+        return new PushFilter(Op.NOT, new PushFilter[]{filter});
+    }
+    
+    public PushFilter and(PushFilter other) {
+        return combine(Op.AND, this, other);
+    }
+    
+    public PushFilter or(PushFilter other) {
+        return combine(Op.OR, this, other);
+    }
+    
+    public PushFilter negate() {
+        return not(this);
+    }
+    
+    /**
+     * @Description 展开同类嵌套、去重并按规范形式排序
+     */
+    private static PushFilter combine(Op op, PushFilter... filters) {
+        if (filters.length == 0) {
+            throw new IllegalArgumentException(op + " requires at least one filter");
+        }
+        List<PushFilter> flat = new ArrayList<>(filters.length + 4);
+        for (PushFilter filter : filters) {
+            if (filter.op == op) {
+                flat.addAll(Arrays.asList(filter.operands));
+            } else {
+                flat.add(filter);
+            }
+        }
+        flat.sort((a, b) -> a.canonical.compareTo(b.canonical));
+        int distinct = 0;
+        for (PushFilter filter : flat) {
+            if (distinct == 0 || !flat.get(distinct - 1).canonical.equals(filter.canonical)) {
+                flat.set(distinct++, filter);
+            }
+        }
+        if (distinct == 1) {
+            return flat.get(0);
+        }
+        return new PushFilter(op, flat.subList(0, distinct).toArray(new PushFilter[0]));
+    }
+    
+    private static String checkDate(String date) {
+        if (date == null || !DATE.matcher(date).matches()) {
+            throw new IllegalArgumentException("Date must be yyyy-MM-dd, was " + date);
+        }
+        return date;
+    }
+    
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\');
+            }
+            quoted.append(c);
+        }
+        return quoted.append('"').toString();
+    }
+    
+    private void checkSize() {
+        int size = size();
+        if (size > NotificationSchema.MAX_FILTER_BYTES) {
+            throw new IllegalArgumentException("Filter is " + size + " bytes, exceeds the limit of "
+                    + NotificationSchema.MAX_FILTER_BYTES);
+        }
+    }
+    
+    /**
+     * @Description 完整filter(含外层where)序列化后的字节数
+     */
+    public int size() {
+        if (op == Op.AND) {
+            return ROOT_OVERHEAD + bytes - 10;
+        }
+        return ROOT_OVERHEAD + bytes;
+    }
+    
+    /**
+     * @Description 规范形式, 语义相同的表达式规范形式相同
+     */
+    public String canonical() {
+        return canonical;
+    }
+    
+    /**
+     * @Description 序列化为友盟的filter格式, 结果按规范形式缓存
+     */
+    public CompiledFilter compile() {
+        CompiledFilter result = compiled;
+        if (result != null) {
+            return result;
+        }
+        synchronized (CACHE) {
+            result = CACHE.get(canonical);
+        }
+        if (result == null) {
+            Utf8JsonWriter writer = new Utf8JsonWriter(size());
+            writer.writeRaw(ROOT_PREFIX);
+            if (op == Op.AND) {
+                writeOperands(writer);
+            } else {
+                write(writer);
+            }
+            writer.writeRaw(ROOT_SUFFIX);
+            result = new CompiledFilter(canonical, writer.toByteArray());
+            synchronized (CACHE) {
+                CACHE.put(canonical, result);
+            }
+        }
+        compiled = result;
+        return result;
+    }
+    
+    private void write(Utf8JsonWriter writer) {
+        writer.writeByte('{');
+        switch (op) {
+            case CONDITION:
+                writer.writeString(key);
+                writer.writeByte(':');
+                writer.writeString(value);
+                break;
+            case NOT:
+                writer.writeString("not");
+                writer.writeByte(':');
+                operands[0].write(writer);
+                break;
+            default:
+                writer.writeString(op == Op.AND ? "and" : "or");
+                writer.writeByte(':');
+                writer.writeByte('[');
+                writeOperands(writer);
+                writer.writeByte(']');
+        }
+        writer.writeByte('}');
+    }
+    
+    private void writeOperands(Utf8JsonWriter writer) {
+        for (int i = 0; i < operands.length; i++) {
+            if (i > 0) {
+                writer.writeByte(',');
+            }
+            operands[i].write(writer);
+        }
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof PushFilter && canonical.equals(((PushFilter) o).canonical);
+    }
+    
+    @Override
+    public int hashCode() {
+        return canonical.hashCode();
+    }
+    
+    @Override
+    public String toString() {
+        return canonical;
+    }
+    
+    /**
+     * 编译好的filter, 作为filter字段的值时直接拷贝字节写入请求体
+     */
+    public static final class CompiledFilter {
+        private final String canonical;
+        private final byte[] json;
+        
+        private CompiledFilter(String canonical, byte[] json) {
+            this.canonical = canonical;
+            this.json = json;
+        }
+        
+        public String canonical() {
+            return canonical;
+        }
+        
+        /**
+         * @Description 序列化后的字节数
+         */
+        public int size() {
+            return json.length;
+        }
+        
+        byte[] bytes() {
+            return json;
+        }
+        
+        @Override
+        public String toString() {
+            return new String(json, StandardCharsets.UTF_8);
+        }
+    }
+}
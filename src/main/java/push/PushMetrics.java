@@ -0,0 +1,245 @@
+package push;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * @author zzh
+ * @description 推送调用指标: 按接口(send/upload/cancel)、消息类型和平台分组的成功/失败次数、错误码次数和耗时分布,
+ * 以及在途请求数。计数全部使用LongAdder(分段计数), 记录时没有锁也没有CAS竞争; 计数是累计值, 导出方自行计算增量。
+ */
+public class PushMetrics {
+    
+    public enum Endpoint {
+        SEND("send"),
+        UPLOAD("upload"),
+        CANCEL("cancel");
+        
+        private final String label;
+        
+        Endpoint(String label) {
+            this.label = label;
+        }
+        
+        public String getLabel() {
+            return label;
+        }
+    }
+    
+    public static final String ANDROID = "android";
+    public static final String IOS = "ios";
+    /**
+     * 无法确定消息类型或平台时使用, 如直接发送已组装好的消息体、重放的消息、上传和取消
+     */
+    public static final String UNKNOWN = "unknown";
+    /**
+     * 耗时分布的桶上界, 单位毫秒, 最后还有一个无上界的桶
+     */
+    private static final long[] BUCKET_BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000};
+    
+    /**
+     * 按接口分组, 再以 平台 -> 类型 查找, 热路径上只有两次ConcurrentHashMap.get, 不拼接字符串
+     */
+    private final List<ConcurrentHashMap<String, ConcurrentHashMap<String, Series>>> series =
+            new ArrayList<>(Endpoint.values().length);
+    private final IntSupplier inFlight;
+    
+    public PushMetrics(IntSupplier inFlight) {
+        for (int i = 0; i < Endpoint.values().length; i++) {
+            series.add(new ConcurrentHashMap<>());
+        }
+        this.inFlight = inFlight;
+    }
+    
+    /**
+     * @Description 获取一组指标, 不存在时创建
+     */
+    public Series series(Endpoint endpoint, String type, String platform) {
+        ConcurrentHashMap<String, ConcurrentHashMap<String, Series>> byPlatform = series.get(endpoint.ordinal());
+        ConcurrentHashMap<String, Series> byType = byPlatform.get(platform);
+        if (byType == null) {
+            byType = byPlatform.computeIfAbsent(platform, k -> new ConcurrentHashMap<>());
+        }
+        Series found = byType.get(type);
+        if (found == null) {
+            found = byType.computeIfAbsent(type, k -> new Series(endpoint, type, platform));
+        }
+        return found;
+    }
+    
+    /**
+     * @Description 消息所属平台
+     */
+    public static String platformOf(UmengNotification msg) {
+        if (msg instanceof AndroidNotification) {
+            return ANDROID;
+        }
+        if (msg instanceof IOSNotification) {
+            return IOS;
+        }
+        return UNKNOWN;
+    }
+    
+    /**
+     * @Description 当前在途(已发出未返回)的请求数
+     */
+    public int getInFlight() {
+        return inFlight.getAsInt();
+    }
+    
+    /**
+     * @Description 已有的所有指标组
+     */
+    public List<Series> getSeries() {
+        List<Series> all = new ArrayList<>();
+        for (ConcurrentHashMap<String, ConcurrentHashMap<String, Series>> byPlatform : series) {
+            for (ConcurrentHashMap<String, Series> byType : byPlatform.values()) {
+                all.addAll(byType.values());
+            }
+        }
+        return all;
+    }
+    
+    /**
+     * @Description 耗时分布的桶上界, 单位毫秒
+     */
+    public static long[] getBucketBounds() {
+        return BUCKET_BOUNDS.clone();
+    }
+    
+    /**
+     * 一个 接口 × 类型 × 平台 组合的指标
+     */
+    public static final class Series {
+        private final Endpoint endpoint;
+        private final String type;
+        private final String platform;
+        private final LongAdder success = new LongAdder();
+        private final LongAdder failure = new LongAdder();
+        private final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+        private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS.length + 1];
+        private final LongAdder latencyNanos = new LongAdder();
+        
+        private Series(Endpoint endpoint, String type, String platform) {
+            this.endpoint = endpoint;
+            this.type = type;
+            this.platform = platform;
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+        
+        /**
+         * @Description 记录一次成功调用, 耗时包括重试
+         */
+        public void recordSuccess(long nanos) {
+            success.increment();
+            recordLatency(nanos);
+        }
+        
+        /**
+         * @Description 记录一次失败调用, errorCode为友盟错误码, 非友盟返回的失败用异常类名
+         */
+        public void recordFailure(long nanos, String errorCode) {
+            failure.increment();
+            recordLatency(nanos);
+            if (errorCode != null) {
+                LongAdder counter = errors.get(errorCode);
+                if (counter == null) {
+                    counter = errors.computeIfAbsent(errorCode, k -> new LongAdder());
+                }
+                counter.increment();
+            }
+        }
+        
+        private void recordLatency(long nanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int i = 0;
+            while (i < BUCKET_BOUNDS.length && millis >= BUCKET_BOUNDS[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            latencyNanos.add(nanos);
+        }
+        
+        public Endpoint getEndpoint() {
+            return endpoint;
+        }
+        
+        public String getType() {
+            return type;
+        }
+        
+        public String getPlatform() {
+            return platform;
+        }
+        
+        public long getSuccessCount() {
+            return success.sum();
+        }
+        
+        public long getFailureCount() {
+            return failure.sum();
+        }
+        
+        /**
+         * @Description 各错误码的次数, 按错误码排序
+         */
+        public Map<String, Long> getErrorCounts() {
+            if (errors.isEmpty()) {
+                return Collections.emptyMap();
+            }
+            Map<String, Long> counts = new TreeMap<>();
+            errors.forEach((code, counter) -> counts.put(code, counter.sum()));
+            return counts;
+        }
+        
+        /**
+         * @Description 各耗时桶的次数, 与 {@link #getBucketBounds()} 对应, 最后一个是超过最大上界的次数
+         */
+        public long[] getLatencyBuckets() {
+            long[] counts = new long[buckets.length];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets[i].sum();
+            }
+            return counts;
+        }
+        
+        /**
+         * @Description 总耗时, 单位纳秒
+         */
+        public long getLatencySumNanos() {
+            return latencyNanos.sum();
+        }
+        
+        /**
+         * @Description 耗时分位数的估计值(所在桶的上界), 单位毫秒; 落在最后一个桶时返回-1
+         */
+        public long getLatencyPercentile(double quantile) {
+            long[] counts = getLatencyBuckets();
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return BUCKET_BOUNDS[i];
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,520 @@
+package push;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author zzh
+ * @description 本地的延迟推送: 消息在到期时才交给 {@link PushClient} 发送, 到期前可以取消。
+ * 与 setStartTime 不同, 消息在到期前不会发到友盟, 适合依赖本地状态或可能取消的推送。
+ * <p>
+ * 使用分层时间轮: 4层, 每层512格, 第0层每格一个tick(默认10毫秒), 最长延迟 2^31 个tick(默认约248天)。
+ * 加入和取消都是O(1), 每个tick只处理到期的格, 高层的格在轮转到时下放到低层。
+ * 由一个专用线程按tick推进, 到期的消息交给有界的发送线程池, 推进线程本身从不等待限流或在途许可。
+ * 每个tick最多取出 maxReleasePerTick 条, 线程池队列满时也不再取; 没有取出的消息留在到期队列中(仍可取消),
+ * 在之后的tick里按到期顺序继续取出(同一个tick到期的消息之间不保证顺序)。
+ * 发送跟得上时误差约为一个tick, 跟不上时只有积压的消息延后, 时间轮不受影响。
+ * <p>
+ * 消息体在加入时序列化(timestamp留出占位, 发送时填入当前时间), 存放在4MB的堆外slab中,
+ * slab里的消息都发出或取消后整块复用。每条消息在堆内只占5个int(到期tick、位置、前后链接、版本),
+ * 一千万条约200MB堆内存加上消息体的堆外内存。未到期的消息只在内存中, 关闭或进程退出时丢弃。
+ */
+public class PushScheduler implements Closeable {
+    private static Logger logger = LoggerFactory.getLogger(PushScheduler.class);
+    private static final int WHEEL_BITS = 9;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final int SLAB_BITS = 22;
+    private static final int SLAB_SIZE = 1 << SLAB_BITS;
+    /**
+     * 位置 = slab下标 << 19 | (slab内偏移 / 8), 最多8192个slab
+     */
+    private static final int OFFSET_BITS = SLAB_BITS - 3;
+    private static final int MAX_SLABS = 1 << (32 - OFFSET_BITS);
+    /**
+     * 每条消息在slab中的头: 发送参数下标、消息体长度、timestamp在消息体中的位置
+     */
+    private static final int HEADER_SIZE = 12;
+    private static final String PLACEHOLDER = "0000000000";
+    private static final int NONE = -1;
+    /**
+     * 已到期还没有交给发送线程的消息, 放在heads的最后一格
+     */
+    private static final int OVERDUE = LEVELS * WHEEL_SIZE;
+    
+    private final PushClient client;
+    private final long tickNanos;
+    private final long startNanos;
+    private final Thread ticker;
+    private final ThreadPoolExecutor dispatcher;
+    private final int maxReleasePerTick;
+    private volatile boolean running = true;
+    
+    /**
+     * 已处理到的tick
+     */
+    private long currentTick;
+    /**
+     * 各层各格的第一条消息, 下标为 层 * 512 + 格; 最后一格是到期队列
+     */
+    private final int[] heads = new int[LEVELS * WHEEL_SIZE + 1];
+    /**
+     * 到期队列的最后一条, 新到期的接在后面
+     */
+    private int overdueTail = NONE;
+    /**
+     * 到期tick的低32位
+     */
+    private int[] deadlines;
+    private int[] locations;
+    private int[] next;
+    /**
+     * 前一条消息; 是格的第一条时为 -2 - 格的下标, 不在格中时为 -1
+     */
+    private int[] prev;
+    /**
+     * 每次释放加1, 使旧的句柄失效
+     */
+    private int[] versions;
+    private int freeEntry = NONE;
+    private int entryCount;
+    private int size;
+    
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private final List<Integer> freeSlabs = new ArrayList<>();
+    private int[] slabLive = new int[16];
+    private int currentSlab = NONE;
+    
+    /**
+     * 发送参数(appkey、secret、指标分组)去重后保存, 每条消息只记下标
+     */
+    private final HashMap<String, Integer> targetIndex = new HashMap<>();
+    private final List<Target> targets = new ArrayList<>();
+    
+    private long released;
+    private long cancelled;
+    
+    public PushScheduler(PushClient client) {
+        this(client, 10, TimeUnit.MILLISECONDS, 1024);
+    }
+    
+    /**
+     * @Description 一个发送线程, 每个tick最多发出1000条
+     */
+    public PushScheduler(PushClient client, long tick, TimeUnit unit, int initialCapacity) {
+        this(client, tick, unit, initialCapacity, 1, 1000);
+    }
+    
+    /**
+     * @param tick              时间轮的精度
+     * @param initialCapacity   预计同时等待的消息数
+     * @param dispatchThreads   发送线程数, 发送线程只做填入timestamp和提交, 限流和在途请求已满时不阻塞
+     * @param maxReleasePerTick 每个tick最多交给发送线程的消息数, 发送线程池的队列是它的两倍
+     */
+    public PushScheduler(PushClient client, long tick, TimeUnit unit, int initialCapacity, int dispatchThreads,
+                         int maxReleasePerTick) {
+        this.client = client;
+        this.tickNanos = unit.toNanos(tick);
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("Tick must be positive");
+        }
+        if (dispatchThreads < 1 || maxReleasePerTick < 1) {
+            throw new IllegalArgumentException("dispatchThreads and maxReleasePerTick must be positive");
+        }
+        this.maxReleasePerTick = maxReleasePerTick;
+        AtomicInteger threads = new AtomicInteger();
+        dispatcher = new ThreadPoolExecutor(dispatchThreads, dispatchThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxReleasePerTick * 2), r -> {
+            Thread thread = new Thread(r, "push-scheduler-dispatch-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Arrays.fill(heads, NONE);
+        int capacity = Math.max(16, initialCapacity);
+        deadlines = new int[capacity];
+        locations = new int[capacity];
+        next = new int[capacity];
+        prev = new int[capacity];
+        versions = new int[capacity];
+        startNanos = System.nanoTime();
+        ticker = new Thread(this::run, "push-scheduler-wheel");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+    
+    /**
+     * @Description 延迟发送, 返回用于取消的句柄。加入时按发送前的规则校验, 消息之后的修改不影响已加入的消息
+     */
+    public long schedule(UmengNotification msg, long delay, TimeUnit unit) throws NotificationValidationException {
+        client.validate(msg);
+        String type = msg.getType();
+        return add(msg.getAppkey(), msg.getAppMasterSecret(), type == null ? PushMetrics.UNKNOWN : type,
+                PushMetrics.platformOf(msg), msg.getPostBodyBytes(PLACEHOLDER), unit.toNanos(delay));
+    }
+    
+    /**
+     * @Description 在指定时间(毫秒时间戳)发送
+     */
+    public long scheduleAt(UmengNotification msg, long epochMillis) throws NotificationValidationException {
+        return schedule(msg, epochMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+    
+    public long schedule(NotificationSnapshot snapshot, long delay, TimeUnit unit) throws NotificationValidationException {
+        snapshot.validate();
+        String type = snapshot.getType();
+        return add(snapshot.getAppkey(), snapshot.getAppMasterSecret(), type == null ? PushMetrics.UNKNOWN : type,
+                snapshot.getPlatform(), snapshot.getPostBodyBytes(PLACEHOLDER), unit.toNanos(delay));
+    }
+    
+    private long add(String appkey, String secret, String type, String platform, byte[] body, long delayNanos) {
+        int timestamp = UmengNotification.timestampOffset(body);
+        if (timestamp < 0) {
+            throw new IllegalStateException("No timestamp in the body");
+        }
+        if (HEADER_SIZE + body.length > SLAB_SIZE) {
+            throw new IllegalArgumentException("Notification is too large: " + body.length + " bytes");
+        }
+        if (delayNanos / tickNanos >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Delay exceeds " + Integer.MAX_VALUE + " ticks");
+        }
+        long dueTick = (System.nanoTime() - startNanos + Math.max(0, delayNanos) + tickNanos - 1) / tickNanos;
+        synchronized (this) {
+            if (!running) {
+                throw new IllegalStateException("Scheduler is closed");
+            }
+            // 已经到期的在下一个tick发出
+            long deadline = Math.max(dueTick, currentTick + 1);
+            int entry = allocateEntry();
+            deadlines[entry] = (int) deadline;
+            locations[entry] = store(target(appkey, secret, type, platform), body, timestamp);
+            insert(entry, deadline);
+            size++;
+            return (long) versions[entry] << 32 | entry;
+        }
+    }
+    
+    /**
+     * @Description 取消未发出的消息, 已到期但还在到期队列中的也可以取消; 已交给发送线程、已取消或句柄无效时返回false
+     */
+    public synchronized boolean cancel(long handle) {
+        int entry = (int) handle;
+        if (!running || entry < 0 || entry >= entryCount || versions[entry] != (int) (handle >>> 32)
+                || prev[entry] == NONE) {
+            return false;
+        }
+        unlink(entry);
+        release(entry);
+        cancelled++;
+        return true;
+    }
+    
+    /**
+     * @Description 等待中的消息数
+     */
+    public synchronized int size() {
+        return size;
+    }
+    
+    public synchronized long getReleased() {
+        return released;
+    }
+    
+    public synchronized long getCancelled() {
+        return cancelled;
+    }
+    
+    /**
+     * @Description 堆外slab占用的字节数
+     */
+    public synchronized long getSlabBytes() {
+        return (long) slabs.size() * SLAB_SIZE;
+    }
+    
+    private int allocateEntry() {
+        int entry = freeEntry;
+        if (entry != NONE) {
+            freeEntry = next[entry];
+            return entry;
+        }
+        if (entryCount == deadlines.length) {
+            int capacity = entryCount + (entryCount >> 1);
+            deadlines = Arrays.copyOf(deadlines, capacity);
+            locations = Arrays.copyOf(locations, capacity);
+            next = Arrays.copyOf(next, capacity);
+            prev = Arrays.copyOf(prev, capacity);
+            versions = Arrays.copyOf(versions, capacity);
+        }
+        return entryCount++;
+    }
+    
+    /**
+     * @Description 释放消息的slab空间和下标, 句柄随之失效
+     */
+    private void release(int entry) {
+        int slab = locations[entry] >>> OFFSET_BITS;
+        if (--slabLive[slab] == 0 && slab != currentSlab) {
+            freeSlabs.add(slab);
+        }
+        versions[entry]++;
+        prev[entry] = NONE;
+        next[entry] = freeEntry;
+        freeEntry = entry;
+        size--;
+    }
+    
+    /**
+     * @Description 按到期tick与当前tick最高的不同位选层, 保证在到期前被逐层下放到第0层。
+     * 延迟不超过2^31个tick, 超出最高层的位最多在到期前轮转一次, 放在最高层即可
+     */
+    private void insert(int entry, long deadline) {
+        long diff = deadline ^ currentTick;
+        int level = diff == 0 ? 0 : Math.min(LEVELS - 1, (63 - Long.numberOfLeadingZeros(diff)) / WHEEL_BITS);
+        int bucket = level * WHEEL_SIZE + ((int) (deadline >>> (level * WHEEL_BITS)) & WHEEL_MASK);
+        int head = heads[bucket];
+        next[entry] = head;
+        prev[entry] = -2 - bucket;
+        if (head != NONE) {
+            prev[head] = entry;
+        }
+        heads[bucket] = entry;
+    }
+    
+    private void unlink(int entry) {
+        int before = prev[entry];
+        int after = next[entry];
+        if (entry == overdueTail) {
+            overdueTail = before >= 0 ? before : NONE;
+        }
+        if (before >= 0) {
+            next[before] = after;
+        } else {
+            heads[-2 - before] = after;
+        }
+        if (after != NONE) {
+            prev[after] = before;
+        }
+    }
+    
+    private int target(String appkey, String secret, String type, String platform) {
+        String key = appkey + '\n' + secret + '\n' + type + '\n' + platform;
+        Integer index = targetIndex.get(key);
+        if (index == null) {
+            index = targets.size();
+            targets.add(new Target(appkey, secret,
+                    client.getMetrics().series(PushMetrics.Endpoint.SEND, type, platform)));
+            targetIndex.put(key, index);
+        }
+        return index;
+    }
+    
+    /**
+     * @Description 把消息写入当前slab, 放不下时换一个空闲的或新的slab, 返回位置
+     */
+    private int store(int target, byte[] body, int timestamp) {
+        int length = (HEADER_SIZE + body.length + 7) & ~7;
+        ByteBuffer slab = currentSlab == NONE ? null : slabs.get(currentSlab);
+        if (slab == null || slab.remaining() < length) {
+            if (currentSlab != NONE && slabLive[currentSlab] == 0) {
+                freeSlabs.add(currentSlab);
+            }
+            currentSlab = nextSlab();
+            slab = slabs.get(currentSlab);
+        }
+        int offset = slab.position();
+        slab.putInt(target).putInt(body.length).putInt(timestamp).put(body);
+        slab.position(offset + length);
+        slabLive[currentSlab]++;
+        return currentSlab << OFFSET_BITS | offset >>> 3;
+    }
+    
+    private int nextSlab() {
+        if (!freeSlabs.isEmpty()) {
+            int slab = freeSlabs.remove(freeSlabs.size() - 1);
+            slabs.get(slab).clear();
+            return slab;
+        }
+        if (slabs.size() == MAX_SLABS) {
+            throw new IllegalStateException("Too many scheduled notifications");
+        }
+        slabs.add(ByteBuffer.allocateDirect(SLAB_SIZE).order(ByteOrder.nativeOrder()));
+        if (slabs.size() > slabLive.length) {
+            slabLive = Arrays.copyOf(slabLive, slabLive.length * 2);
+        }
+        return slabs.size() - 1;
+    }
+    
+    /**
+     * @Description 推进线程: 等到下一个tick边界推进时间轮, 把到期的消息交给发送线程; 落后时连续处理不等待。
+     * 只做内存操作和不阻塞的入队, 不会被发送拖慢
+     */
+    private void run() {
+        List<Due> due = new ArrayList<>();
+        long tick = 0;
+        while (running) {
+            long wait = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            tick++;
+            // 只有推进线程向线程池提交, 剩余容量只会变大, 取出的消息都能入队
+            int capacity = Math.min(maxReleasePerTick, dispatcher.getQueue().remainingCapacity());
+            synchronized (this) {
+                advance(tick);
+                drain(capacity, due);
+            }
+            for (Due item : due) {
+                dispatcher.execute(() -> send(item));
+            }
+            due.clear();
+        }
+    }
+    
+    /**
+     * @Description 在发送线程中执行: 填入当前的timestamp后提交发送, 限流和在途请求已满时在客户端内排队
+     */
+    private void send(Due item) {
+        UmengNotification.restamp(item.body, item.timestamp);
+        try {
+            client.sendAsync(item.target.appkey, item.body, item.target.secret, item.target.series)
+                    .whenComplete((taskId, e) -> {
+                        if (e != null) {
+                            logger.warn("Scheduled push failed", e);
+                        }
+                    });
+        } catch (RuntimeException e) {
+            logger.warn("Failed to release scheduled push", e);
+        }
+    }
+    
+    /**
+     * @Description 推进到tick: 先从高到低把轮转到的格下放, 再把第0层当前格的消息接到到期队列的末尾
+     */
+    private void advance(long tick) {
+        currentTick = tick;
+        int top = 0;
+        while (top + 1 < LEVELS && (tick & ((1L << ((top + 1) * WHEEL_BITS)) - 1)) == 0) {
+            top++;
+        }
+        for (int level = top; level >= 1; level--) {
+            int bucket = level * WHEEL_SIZE + ((int) (tick >>> (level * WHEEL_BITS)) & WHEEL_MASK);
+            int entry = heads[bucket];
+            heads[bucket] = NONE;
+            while (entry != NONE) {
+                int following = next[entry];
+                insert(entry, tick + (deadlines[entry] - (int) tick));
+                entry = following;
+            }
+        }
+        int bucket = (int) tick & WHEEL_MASK;
+        int first = heads[bucket];
+        if (first == NONE) {
+            return;
+        }
+        heads[bucket] = NONE;
+        int last = first;
+        while (next[last] != NONE) {
+            last = next[last];
+        }
+        if (overdueTail == NONE) {
+            heads[OVERDUE] = first;
+            prev[first] = -2 - OVERDUE;
+        } else {
+            next[overdueTail] = first;
+            prev[first] = overdueTail;
+        }
+        overdueTail = last;
+    }
+    
+    /**
+     * @Description 从到期队列头部取出最多limit条, 拷贝消息体后释放
+     */
+    private void drain(int limit, List<Due> due) {
+        for (int i = 0; i < limit; i++) {
+            int entry = heads[OVERDUE];
+            if (entry == NONE) {
+                return;
+            }
+            unlink(entry);
+            due.add(load(entry));
+            release(entry);
+            released++;
+        }
+    }
+    
+    private Due load(int entry) {
+        int location = locations[entry];
+        ByteBuffer slab = slabs.get(location >>> OFFSET_BITS);
+        int offset = (location & ((1 << OFFSET_BITS) - 1)) << 3;
+        byte[] body = new byte[slab.getInt(offset + 4)];
+        int position = slab.position();
+        slab.position(offset + HEADER_SIZE);
+        slab.get(body);
+        slab.position(position);
+        return new Due(targets.get(slab.getInt(offset)), body, slab.getInt(offset + 8));
+    }
+    
+    /**
+     * @Description 停止推进线程并丢弃未发出的消息, 已交给发送线程的消息继续发送
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(ticker);
+        try {
+            ticker.join(TimeUnit.NANOSECONDS.toMillis(tickNanos) + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dispatcher.shutdown();
+        synchronized (this) {
+            if (size > 0) {
+                logger.warn("Discarding {} scheduled pushes", size);
+            }
+            Arrays.fill(heads, NONE);
+            overdueTail = NONE;
+            slabs.clear();
+            freeSlabs.clear();
+            currentSlab = NONE;
+            size = 0;
+        }
+    }
+    
+    private static final class Target {
+        final String appkey;
+        final String secret;
+        final PushMetrics.Series series;
+        
+        Target(String appkey, String secret, PushMetrics.Series series) {
+            this.appkey = appkey;
+            this.secret = secret;
+            this.series = series;
+        }
+    }
+    
+    private static final class Due {
+        final Target target;
+        final byte[] body;
+        final int timestamp;
+        
+        Due(Target target, byte[] body, int timestamp) {
+            this.target = target;
+            this.body = body;
+            this.timestamp = timestamp;
+        }
+    }
+}
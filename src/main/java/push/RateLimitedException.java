@@ -0,0 +1,19 @@
+package push;
+
+/**
+ * @author zzh
+ * @description 超出appkey的发送频率限制, 请求未发出
+ */
+public class RateLimitedException extends Exception {
+    private static final long serialVersionUID = 1L;
+    private final String appkey;
+    
+    public RateLimitedException(String appkey) {
+        super("Rate limit exceeded for appkey: " + appkey);
+        this.appkey = appkey;
+    }
+    
+    public String getAppkey() {
+        return appkey;
+    }
+}
@@ -0,0 +1,320 @@
+package push;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * @author zzh
+ * @description 大批量alias/device_token的流式去重。每个值只保存一个64位指纹, 放在堆外的开放寻址(线性探测)哈希表中,
+ * 每个值占8字节, 负载不超过0.75时一千万个值约128MB, 不占用Java堆。
+ * <p>
+ * 指纹模式下两个不同的值指纹相同的概率约为 n²/2^65, 一千万个值时约百万分之三, 相撞的值会被当作重复去掉。
+ * 精确模式把值的UTF-8编码另外保存在堆外, 指纹相同时再比较原值, 不会误删, 但内存要加上所有值的长度。
+ * 非线程安全。用完后调用 {@link #close()} 释放引用, 堆外内存在下次GC时回收。
+ * <pre>
+ * try (RecipientDeduplicator dedup = new RecipientDeduplicator(10_000_000)) {
+ *     client.uploadContents(appkey, secret, dedup.filter(tokens));
+ * }
+ * </pre>
+ */
+public class RecipientDeduplicator implements Closeable {
+    private static final double MAX_LOAD = 0.75;
+    /**
+     * 哈希表放在一个ByteBuffer中, 最多 2^27 个8字节的槽位(1GB), 约一亿个值
+     */
+    private static final int MAX_CAPACITY = 1 << 27;
+    /**
+     * 精确模式下保存原值的堆外块大小
+     */
+    private static final int BLOCK_SIZE = 16 * 1024 * 1024;
+    private static final int BLOCK_BITS = 24;
+    private static final long OFFSET_MASK = (1L << 40) - 1;
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    
+    private final boolean exact;
+    /**
+     * 指纹模式: 指纹; 精确模式: 指纹高24位 << 40 | 原值在块中的位置。0表示空槽位
+     */
+    private ByteBuffer table;
+    private int mask;
+    private int threshold;
+    private long size;
+    private long duplicates;
+    private List<ByteBuffer> blocks;
+    private ByteBuffer block;
+    private byte[] scratch;
+    
+    /**
+     * @param expectedSize 预计的不重复值个数, 按它分配哈希表以避免扩容
+     */
+    public RecipientDeduplicator(long expectedSize) {
+        this(expectedSize, false);
+    }
+    
+    /**
+     * @param exact 是否保存原值, 指纹相同时比较原值
+     */
+    public RecipientDeduplicator(long expectedSize, boolean exact) {
+        this.exact = exact;
+        long capacity = Long.highestOneBit(Math.max(16, (long) (expectedSize / MAX_LOAD) + 1) - 1) << 1;
+        allocate((int) Math.min(MAX_CAPACITY, capacity));
+        if (exact) {
+            blocks = new ArrayList<>();
+            scratch = new byte[64];
+            newBlock();
+            // 位置0保留, 保证槽位不为0
+            block.position(8);
+        }
+    }
+    
+    private void allocate(int capacity) {
+        table = ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder());
+        mask = capacity - 1;
+        threshold = (int) (capacity * MAX_LOAD);
+    }
+    
+    private void newBlock() {
+        block = ByteBuffer.allocateDirect(BLOCK_SIZE).order(ByteOrder.nativeOrder());
+        blocks.add(block);
+    }
+    
+    /**
+     * @Description 加入一个值, 之前没有出现过时返回true
+     */
+    public boolean add(CharSequence value) {
+        long fingerprint = fingerprint(value);
+        boolean added = exact ? addExact(value, fingerprint) : addFingerprint(fingerprint);
+        if (added) {
+            if (++size > threshold) {
+                grow();
+            }
+        } else {
+            duplicates++;
+        }
+        return added;
+    }
+    
+    private boolean addFingerprint(long fingerprint) {
+        for (int i = (int) fingerprint & mask; ; i = (i + 1) & mask) {
+            long slot = table.getLong(i << 3);
+            if (slot == 0) {
+                table.putLong(i << 3, fingerprint);
+                return true;
+            }
+            if (slot == fingerprint) {
+                return false;
+            }
+        }
+    }
+    
+    private boolean addExact(CharSequence value, long fingerprint) {
+        int length = encode(value);
+        long tag = fingerprint & ~OFFSET_MASK;
+        for (int i = (int) fingerprint & mask; ; i = (i + 1) & mask) {
+            long slot = table.getLong(i << 3);
+            if (slot == 0) {
+                table.putLong(i << 3, tag | store(fingerprint, length));
+                return true;
+            }
+            if ((slot & ~OFFSET_MASK) == tag && matches(slot & OFFSET_MASK, fingerprint, length)) {
+                return false;
+            }
+        }
+    }
+    
+    /**
+     * @Description 原值保存为 指纹(8字节) 长度(4字节) UTF-8字节, 返回位置
+     */
+    private long store(long fingerprint, int length) {
+        if (12 + length > BLOCK_SIZE) {
+            throw new IllegalArgumentException("Recipient is too long: " + length + " bytes");
+        }
+        if (block.remaining() < 12 + length) {
+            newBlock();
+        }
+        long offset = (long) (blocks.size() - 1) << BLOCK_BITS | block.position();
+        block.putLong(fingerprint).putInt(length).put(scratch, 0, length);
+        return offset;
+    }
+    
+    private boolean matches(long offset, long fingerprint, int length) {
+        ByteBuffer stored = blocks.get((int) (offset >>> BLOCK_BITS));
+        int position = (int) (offset & (BLOCK_SIZE - 1));
+        if (stored.getLong(position) != fingerprint || stored.getInt(position + 8) != length) {
+            return false;
+        }
+        position += 12;
+        for (int i = 0; i < length; i++) {
+            if (stored.get(position + i) != scratch[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @Description 容量翻倍后重新放入所有槽位, 精确模式的指纹从保存的原值中读取
+     */
+    private void grow() {
+        if (mask + 1 >= MAX_CAPACITY) {
+            throw new IllegalStateException("Too many recipients: " + size);
+        }
+        ByteBuffer old = table;
+        int oldCapacity = mask + 1;
+        allocate(oldCapacity << 1);
+        for (int j = 0; j < oldCapacity; j++) {
+            long slot = old.getLong(j << 3);
+            if (slot == 0) {
+                continue;
+            }
+            long fingerprint = slot;
+            if (exact) {
+                long offset = slot & OFFSET_MASK;
+                fingerprint = blocks.get((int) (offset >>> BLOCK_BITS)).getLong((int) (offset & (BLOCK_SIZE - 1)));
+            }
+            int i = (int) fingerprint & mask;
+            while (table.getLong(i << 3) != 0) {
+                i = (i + 1) & mask;
+            }
+            table.putLong(i << 3, slot);
+        }
+    }
+    
+    /**
+     * @Description 把value的UTF-8编码写入scratch, 返回字节数; 不成对的代理字符写作 '?'
+     */
+    private int encode(CharSequence value) {
+        int n = value.length();
+        if (scratch.length < n * 3) {
+            scratch = new byte[Math.max(n * 3, scratch.length * 2)];
+        }
+        byte[] out = scratch;
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out[length++] = (byte) c;
+            } else if (c < 0x800) {
+                out[length++] = (byte) (0xc0 | c >> 6);
+                out[length++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                out[length++] = (byte) (0xf0 | cp >> 18);
+                out[length++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                out[length++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                out[length++] = (byte) (0x80 | cp & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                out[length++] = '?';
+            } else {
+                out[length++] = (byte) (0xe0 | c >> 12);
+                out[length++] = (byte) (0x80 | c >> 6 & 0x3f);
+                out[length++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        return length;
+    }
+    
+    /**
+     * @Description 64位指纹, 每次混入4个字符(MurmurHash3的混合函数), 不为0
+     */
+    static long fingerprint(CharSequence value) {
+        int n = value.length();
+        long h = 0x9e3779b97f4a7c15L ^ n;
+        int i = 0;
+        for (; i + 4 <= n; i += 4) {
+            long k = value.charAt(i) | (long) value.charAt(i + 1) << 16 | (long) value.charAt(i + 2) << 32
+                    | (long) value.charAt(i + 3) << 48;
+            h ^= mix(k);
+            h = Long.rotateLeft(h, 27) * 5 + 0x52dce729;
+        }
+        long k = 0;
+        for (int shift = 0; i < n; i++, shift += 16) {
+            k |= (long) value.charAt(i) << shift;
+        }
+        h ^= mix(k);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+    
+    private static long mix(long k) {
+        k *= C1;
+        k = Long.rotateLeft(k, 31);
+        return k * C2;
+    }
+    
+    /**
+     * @Description 去掉source中重复的值, 按第一次出现的顺序逐个返回, 不保存整个列表
+     */
+    public <T extends CharSequence> Iterator<T> filter(Iterator<T> source) {
+        return new Iterator<T>() {
+            private T next;
+            
+            @Override
+            public boolean hasNext() {
+                while (next == null && source.hasNext()) {
+                    T candidate = source.next();
+                    if (add(candidate)) {
+                        next = candidate;
+                    }
+                }
+                return next != null;
+            }
+            
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                T result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+    
+    /**
+     * @Description 不重复的值的个数
+     */
+    public long size() {
+        return size;
+    }
+    
+    /**
+     * @Description 被去掉的重复值的个数
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+    
+    /**
+     * @Description 占用的堆外内存字节数
+     */
+    public long getMemoryBytes() {
+        long bytes = table == null ? 0 : table.capacity();
+        if (blocks != null) {
+            bytes += (long) blocks.size() * BLOCK_SIZE;
+        }
+        return bytes;
+    }
+    
+    public boolean isExact() {
+        return exact;
+    }
+    
+    @Override
+    public void close() {
+        table = null;
+        blocks = null;
+        block = null;
+    }
+}
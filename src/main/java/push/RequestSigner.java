@@ -0,0 +1,154 @@
+package push;
+
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author zzh
+ * @description 请求签名 Sign=MD5($http_method$url$post-body$app_master_secret)。
+ * 请求体只编码一次, 同一份字节既参与签名又作为请求实体; MD5和十六进制缓冲区按线程复用,
+ * "POST"+url 和 secret 的字节按值缓存。
+ */
+final class RequestSigner {
+    private static final ContentType TEXT_PLAIN_UTF8 = ContentType.create("text/plain", StandardCharsets.UTF_8);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<RequestSigner> LOCAL = ThreadLocal.withInitial(RequestSigner::new);
+    /**
+     * "POST"+url 的字节, 接口地址只有几个
+     */
+    private static final ConcurrentHashMap<String, byte[]> PREFIXES = new ConcurrentHashMap<>();
+    
+    private final MessageDigest md5;
+    private final byte[] digest = new byte[16];
+    private final char[] hex = new char[32];
+    private String lastSecret;
+    private byte[] lastSecretBytes;
+    
+    private RequestSigner() {
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * @Description 编码请求体并计算签名
+     */
+    static SignedBody sign(String url, String postBody, String secret) {
+        return LOCAL.get().signBody(url, postBody, secret);
+    }
+    
+    /**
+     * @Description 对已编码好的请求体计算签名, body直接作为请求实体, 调用方之后不能再修改
+     */
+    static SignedBody sign(String url, byte[] body, String secret) {
+        return LOCAL.get().signBody(url, body, secret);
+    }
+    
+    private SignedBody signBody(String url, String postBody, String secret) {
+        return signBody(url, encodeUtf8(postBody), secret);
+    }
+    
+    private SignedBody signBody(String url, byte[] body, String secret) {
+        digestHex(url, body, 0, body.length, secret, hex);
+        return new SignedBody(new String(hex), new ByteArrayEntity(body, TEXT_PLAIN_UTF8));
+    }
+    
+    /**
+     * @Description 对body的 [off, off+len) 计算签名, 32个十六进制字符写入out, 不分配内存
+     */
+    static void sign(String url, byte[] body, int off, int len, String secret, char[] out) {
+        LOCAL.get().digestHex(url, body, off, len, secret, out);
+    }
+    
+    private void digestHex(String url, byte[] body, int off, int len, String secret, char[] out) {
+        byte[] prefix = PREFIXES.get(url);
+        if (prefix == null) {
+            prefix = PREFIXES.computeIfAbsent(url, u -> ("POST" + u).getBytes(StandardCharsets.UTF_8));
+        }
+        if (secret == null) {
+            throw new IllegalArgumentException("appMasterSecret must not be null");
+        }
+        if (!secret.equals(lastSecret)) {
+            lastSecretBytes = secret.getBytes(StandardCharsets.UTF_8);
+            lastSecret = secret;
+        }
+        md5.update(prefix);
+        md5.update(body, off, len);
+        md5.update(lastSecretBytes);
+        try {
+            md5.digest(digest, 0, digest.length);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        for (int i = 0; i < digest.length; i++) {
+            out[i << 1] = HEX[(digest[i] >> 4) & 0xf];
+            out[(i << 1) + 1] = HEX[digest[i] & 0xf];
+        }
+    }
+    
+    /**
+     * @Description 先算出UTF-8长度再一次写入大小刚好的数组, 避免 String.getBytes 的预分配和截断拷贝
+     */
+    static byte[] encodeUtf8(String s) {
+        int len = s.length();
+        int size = 0;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                size++;
+            } else if (c < 0x800) {
+                size += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                size += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                size++;
+            } else {
+                size += 3;
+            }
+        }
+        byte[] out = new byte[size];
+        int p = 0;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out[p++] = (byte) c;
+            } else if (c < 0x800) {
+                out[p++] = (byte) (0xc0 | (c >> 6));
+                out[p++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                out[p++] = (byte) (0xf0 | (cp >> 18));
+                out[p++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                out[p++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                out[p++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // 不成对的代理字符, 与 String.getBytes 一样替换为 '?'
+                out[p++] = '?';
+            } else {
+                out[p++] = (byte) (0xe0 | (c >> 12));
+                out[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                out[p++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return out;
+    }
+    
+    static final class SignedBody {
+        final String sign;
+        final ByteArrayEntity entity;
+        
+        private SignedBody(String sign, ByteArrayEntity entity) {
+            this.sign = sign;
+            this.entity = entity;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package push;
+
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author zzh
+ * @description 失败分类和重试间隔。超时、连接重置等IO异常, 5xx/429, 以及友盟的系统繁忙类错误码可以重试;
+ * 签名错误、参数错误、token无效等永久错误不重试。
+ */
+public class RetryPolicy {
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final Set<String> retryableErrorCodes;
+    
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, Set<String> retryableErrorCodes) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.retryableErrorCodes = retryableErrorCodes;
+    }
+    
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+    
+    /**
+     * @Description 友盟返回的失败结果是否可以重试
+     */
+    public boolean isRetryable(UmengResult result) {
+        int status = result.getStatus();
+        if (status >= 500 || status == 429) {
+            return true;
+        }
+        return status == 200 && result.getErrorCode() != null && retryableErrorCodes.contains(result.getErrorCode());
+    }
+    
+    /**
+     * @Description 异常是否可以重试
+     */
+    public boolean isRetryable(Throwable e) {
+        if (e instanceof PushException) {
+            return ((PushException) e).isRetryable();
+        }
+        if (e instanceof UnknownHostException || e instanceof SSLException || e instanceof ConnectionPoolTimeoutException) {
+            return false;
+        }
+        return e instanceof IOException;
+    }
+    
+    /**
+     * @Description 第attempt次失败后的等待时间, 指数退避加全抖动
+     */
+    public long backoffMillis(int attempt) {
+        long ceiling = baseDelayMillis << Math.min(attempt - 1, 20);
+        if (ceiling <= 0 || ceiling > maxDelayMillis) {
+            ceiling = maxDelayMillis;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+}
@@ -0,0 +1,252 @@
+package push;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author zzh
+ * @description 手写的无依赖编解码器: 序列化复用 {@link Utf8JsonWriter}, 返回结果用 {@link UmengResponseParser} 流式解析,
+ * 对象解析是一个递归下降解析器。写入器和解析器按线程复用。
+ */
+public final class SimpleJsonCodec implements JsonCodec {
+    public static final SimpleJsonCodec INSTANCE = new SimpleJsonCodec();
+    private static final int MAX_RETAINED = 64 * 1024;
+    private static final ThreadLocal<Utf8JsonWriter> WRITER = ThreadLocal.withInitial(Utf8JsonWriter::new);
+    private static final ThreadLocal<UmengResponseParser> PARSER = ThreadLocal.withInitial(UmengResponseParser::new);
+    
+    private SimpleJsonCodec() {
+    }
+    
+    @Override
+    public String toJson(Object value) {
+        Utf8JsonWriter writer = WRITER.get();
+        writer.reset();
+        writer.writeValue(value);
+        String json = writer.toString();
+        if (writer.size() > MAX_RETAINED) {
+            // 不让上传内容等大请求体的缓冲区一直留在线程上
+            WRITER.remove();
+        }
+        return json;
+    }
+    
+    @Override
+    public Map<String, Object> parseObject(String json) {
+        Reader reader = new Reader(json);
+        if (reader.nextNonWhitespace() != '{') {
+            throw reader.malformed();
+        }
+        Map<String, Object> object = reader.readObject();
+        if (reader.nextNonWhitespace() != -1) {
+            throw reader.malformed();
+        }
+        return object;
+    }
+    
+    @Override
+    public UmengResult parseResult(InputStream in, UmengResult result) throws IOException {
+        return PARSER.get().parse(in, result);
+    }
+    
+    private static final class Reader {
+        private final String json;
+        private int pos;
+        private final StringBuilder scratch = new StringBuilder();
+        
+        private Reader(String json) {
+            this.json = json;
+        }
+        
+        /**
+         * @Description 读取对象, 调用时已经读过 {
+         */
+        private Map<String, Object> readObject() {
+            LinkedHashMap<String, Object> object = new LinkedHashMap<>();
+            int c = nextNonWhitespace();
+            if (c == '}') {
+                return object;
+            }
+            while (true) {
+                if (c != '"') {
+                    throw malformed();
+                }
+                String key = readString();
+                if (nextNonWhitespace() != ':') {
+                    throw malformed();
+                }
+                object.put(key, readValue(nextNonWhitespace()));
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return object;
+                }
+                if (c != ',') {
+                    throw malformed();
+                }
+                c = nextNonWhitespace();
+            }
+        }
+        
+        private List<Object> readArray() {
+            List<Object> array = new ArrayList<>();
+            int c = nextNonWhitespace();
+            if (c == ']') {
+                return array;
+            }
+            while (true) {
+                array.add(readValue(c));
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return array;
+                }
+                if (c != ',') {
+                    throw malformed();
+                }
+                c = nextNonWhitespace();
+            }
+        }
+        
+        private Object readValue(int c) {
+            switch (c) {
+                case '{':
+                    return readObject();
+                case '[':
+                    return readArray();
+                case '"':
+                    return readString();
+                case 't':
+                    expect("rue");
+                    return Boolean.TRUE;
+                case 'f':
+                    expect("alse");
+                    return Boolean.FALSE;
+                case 'n':
+                    expect("ull");
+                    return null;
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9')) {
+                        return readNumber();
+                    }
+                    throw malformed();
+            }
+        }
+        
+        /**
+         * @Description 读取字符串, 调用时已经读过开头的引号
+         */
+        private String readString() {
+            int start = pos;
+            // 没有转义时直接截取
+            while (pos < json.length()) {
+                char c = json.charAt(pos++);
+                if (c == '"') {
+                    return json.substring(start, pos - 1);
+                }
+                if (c == '\\') {
+                    break;
+                }
+            }
+            scratch.setLength(0);
+            scratch.append(json, start, --pos);
+            while (pos < json.length()) {
+                char c = json.charAt(pos++);
+                if (c == '"') {
+                    return scratch.toString();
+                }
+                if (c != '\\') {
+                    scratch.append(c);
+                    continue;
+                }
+                if (pos >= json.length()) {
+                    break;
+                }
+                c = json.charAt(pos++);
+                switch (c) {
+                    case 'b':
+                        scratch.append('\b');
+                        break;
+                    case 'f':
+                        scratch.append('\f');
+                        break;
+                    case 'n':
+                        scratch.append('\n');
+                        break;
+                    case 'r':
+                        scratch.append('\r');
+                        break;
+                    case 't':
+                        scratch.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > json.length()) {
+                            throw malformed();
+                        }
+                        try {
+                            scratch.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw malformed();
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        scratch.append(c);
+                }
+            }
+            throw malformed();
+        }
+        
+        /**
+         * @Description 读取数字, 调用时已经读过第一个字符
+         */
+        private Number readNumber() {
+            int start = pos - 1;
+            boolean integral = true;
+            while (pos < json.length()) {
+                char c = json.charAt(pos);
+                if (c >= '0' && c <= '9' || c == '-' || c == '+') {
+                    pos++;
+                } else if (c == '.' || c == 'e' || c == 'E') {
+                    integral = false;
+                    pos++;
+                } else {
+                    break;
+                }
+            }
+            String number = json.substring(start, pos);
+            try {
+                if (integral && number.length() <= 18) {
+                    long value = Long.parseLong(number);
+                    return value == (int) value ? (Number) (int) value : (Number) value;
+                }
+                return integral ? new BigDecimal(number) : (Number) Double.parseDouble(number);
+            } catch (NumberFormatException e) {
+                throw malformed();
+            }
+        }
+        
+        private void expect(String rest) {
+            if (!json.startsWith(rest, pos)) {
+                throw malformed();
+            }
+            pos += rest.length();
+        }
+        
+        private int nextNonWhitespace() {
+            while (pos < json.length()) {
+                char c = json.charAt(pos++);
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    return c;
+                }
+            }
+            return -1;
+        }
+        
+        private IllegalArgumentException malformed() {
+            return new IllegalArgumentException("Malformed JSON at position " + pos);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package push;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author zzh
+ * @description 把推送指标写到日志, 每组指标一行
+ */
+public class Slf4jMetricsExporter implements MetricsExporter {
+    private static Logger logger = LoggerFactory.getLogger(Slf4jMetricsExporter.class);
+    
+    @Override
+    public void export(PushMetrics metrics) {
+        if (!logger.isInfoEnabled()) {
+            return;
+        }
+        logger.info("push in-flight: {}", metrics.getInFlight());
+        for (PushMetrics.Series series : metrics.getSeries()) {
+            logger.info("push {} type={} platform={} success={} failure={} p50={}ms p99={}ms errors={}",
+                    series.getEndpoint().getLabel(), series.getType(), series.getPlatform(),
+                    series.getSuccessCount(), series.getFailureCount(),
+                    series.getLatencyPercentile(0.5), series.getLatencyPercentile(0.99), series.getErrorCounts());
+        }
+    }
+}
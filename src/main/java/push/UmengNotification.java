@@ -3,40 +3,227 @@ package push;
 
 import org.json.JSONObject;
 
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 public abstract class UmengNotification {
     /**
-     * This JSONObject is used for constructing the whole request string.
+     * Root level fields, in the order they are written. payload and policy are written before production_mode.
      */
-    protected final JSONObject rootJson = new JSONObject();
+    static final FieldTable ROOT = new FieldTable("appkey", "timestamp", "type", "device_tokens", "alias", "alias_type",
+            "file_id", "filter", "production_mode", "feedback", "description", "thirdparty_id");
+    /**
+     * Policy level fields
+     */
+    static final FieldTable POLICY = new FieldTable("start_time", "expire_time", "max_send_num");
+    static final int ROOT_LEVEL = 0;
+    static final int POLICY_LEVEL = 1;
+    private static final int APPKEY = ROOT.indexOf("appkey");
+    private static final int TYPE = ROOT.indexOf("type");
+    /**
+     * Serialization buffers are reused per thread
+     */
+    private static final ThreadLocal<Utf8JsonWriter> WRITER = ThreadLocal.withInitial(Utf8JsonWriter::new);
+    private static final byte[] TIMESTAMP_PREFIX = "\"timestamp\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final int TIMESTAMP_DIGITS = 10;
+    /**
+     * Root level values, indexed by {@link #ROOT}
+     */
+    protected final Object[] root = new Object[ROOT.size()];
+    /**
+     * Policy level values, indexed by {@link #POLICY}
+     */
+    protected final Object[] policy = new Object[POLICY.size()];
     /**
      * The app master secret
      */
     protected String appMasterSecret;
+    /**
+     * Cleans title/text/ticker/alert in their setters, null means the content is set as is
+     */
+    protected ContentSanitizer contentSanitizer;
     /**
      * Keys can be set in the root level
      */
-    protected static final HashSet<String> ROOT_KEYS = new HashSet<>(Arrays.asList("appkey", "timestamp", "type", "device_tokens", "alias", "alias_type", "file_id",
-            "filter", "production_mode", "feedback", "description", "thirdparty_id"));
+    protected static final HashSet<String> ROOT_KEYS = ROOT.keys();
     /**
      * Keys can be set in the policy level
      */
-    protected static final HashSet<String> POLICY_KEYS = new HashSet<>(Arrays.asList("start_time", "expire_time", "max_send_num"));
+    protected static final HashSet<String> POLICY_KEYS = POLICY.keys();
     
     /**
-     * @Description Set predefined keys in the rootJson, for extra keys(Android) or customized keys(IOS) please
-     * refer to corresponding methods in the subclass.
+     * @Description Set predefined keys, for extra keys(Android) or customized keys(IOS) please
+     * refer to corresponding methods in the subclass. A null value removes the key.
      */
     public abstract boolean setPredefinedKeyValue(String key, Object value) throws Exception;
     
+    /**
+     * @Description Get the value of a predefined key, null if it is not set or not a predefined key
+     */
+    public abstract Object getPredefinedKeyValue(String key);
+    
+    /**
+     * @Description 按层次取字段数组, 层次见 {@link FieldTable#slots(FieldTable...)}
+     */
+    abstract Object[] level(int level);
+    
+    /**
+     * @Description 按 (层次 << 16 | 下标) 取字段值
+     */
+    final Object value(int slot) {
+        return level(slot >>> 16)[slot & 0xffff];
+    }
+    
+    /**
+     * @Description 平台的消息结构
+     */
+    abstract NotificationLayout layout();
+    
+    /**
+     * @Description 各层字段数组, 顺序与 {@link #layout()} 的字段表一致
+     */
+    abstract Object[][] levels();
+    
+    /**
+     * @Description extra(Android)或自定义字段(iOS), 可能为null
+     */
+    abstract LinkedHashMap<String, String> fields();
+    
+    /**
+     * @Description 按友盟文档的规则校验消息: 必填字段、枚举值、数量和字节数限制。所有错误一次返回, 不会发出请求
+     */
+    public void validate() throws NotificationValidationException {
+        List<ValidationError> errors = NotificationSchema.of(layout(), getType()).validate(levels());
+        if (!errors.isEmpty()) {
+            throw new NotificationValidationException(errors);
+        }
+    }
+    
+    /**
+     * @Description 当前内容的不可变快照, 之后修改本消息不影响快照。嵌套的JSON对象(filter、custom等)按引用共享
+     */
+    public NotificationSnapshot snapshot() {
+        Object[][] levels = levels();
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = levels[i].clone();
+        }
+        LinkedHashMap<String, String> fields = fields();
+        return new NotificationSnapshot(layout(), levels, fields == null ? null : new LinkedHashMap<>(fields), appMasterSecret);
+    }
+    
+    /**
+     * @Description payload序列化后的字节数, 设置字段时增量维护, 不需要序列化
+     */
+    public abstract int getPayloadSize();
+    
+    /**
+     * @Description 按预算截断payload: 未超出时返回当前内容的快照, 超出且预算开启了截断时按字段顺序在字符边界截断并加上省略号,
+     * 返回截断后的快照, 本消息不变。未开启截断或截断后仍超出时抛出异常
+     */
+    public NotificationSnapshot fitPayload(PayloadBudget budget) throws NotificationValidationException {
+        return budget.fit(this);
+    }
+    
+    /**
+     * @Description 设置后title、text、ticker、alert等展示内容在setter中先去掉HTML标签、解码实体并合并空白
+     */
+    public void setContentSanitizer(ContentSanitizer sanitizer) {
+        contentSanitizer = sanitizer;
+    }
+    
+    /**
+     * @Description 设置了清理器时清理展示内容
+     */
+    protected final String sanitize(String content) {
+        return contentSanitizer == null ? content : contentSanitizer.sanitize(content);
+    }
+    
     public void setAppMasterSecret(String secret) {
         appMasterSecret = secret;
     }
     
+    public String getAppkey() {
+        return root[APPKEY] == null ? null : root[APPKEY].toString();
+    }
+    
+    public String getType() {
+        return root[TYPE] == null ? null : root[TYPE].toString();
+    }
+    
     public String getPostBody() {
-        return rootJson.toString();
+        Utf8JsonWriter writer = WRITER.get();
+        writer.reset();
+        layout().write(writer, levels(), fields(), null);
+        return writer.toString();
+    }
+    
+    /**
+     * @Description 由字段表构建的请求体JSON, 供原来直接读 rootJson 的子类过渡使用。返回的是副本, 修改它不影响消息
+     * @deprecated 字段已不再保存在JSONObject中, 读取字段请用 {@link #getPredefinedKeyValue(String)}, 序列化请用 {@link #getPostBodyBytes()}
+     */
+    @Deprecated
+    protected JSONObject getRootJson() {
+        return new JSONObject(getPostBody());
+    }
+    
+    /**
+     * @Description 请求体的UTF-8编码, 直接由字段写出, 不经过String
+     */
+    public byte[] getPostBodyBytes() {
+        return getPostBodyBytes(null);
+    }
+    
+    /**
+     * @Description 请求体的UTF-8编码, timestamp在写出时加入, 不修改消息本身
+     */
+    byte[] getPostBodyBytes(String timestamp) {
+        Utf8JsonWriter writer = WRITER.get();
+        writer.reset();
+        layout().write(writer, levels(), fields(), timestamp);
+        return writer.toByteArray();
+    }
+    
+    /**
+     * @Description 当前秒数的timestamp
+     */
+    static String currentTimestamp() {
+        return Integer.toString((int) (System.currentTimeMillis() / 1000));
+    }
+    
+    /**
+     * @Description 请求体中timestamp值的位置, 值是10位数字时才返回, 可以用 {@link #restamp} 原地改写; 否则返回-1
+     */
+    static int timestampOffset(byte[] body) {
+        outer:
+        for (int i = 0; i + TIMESTAMP_PREFIX.length + TIMESTAMP_DIGITS < body.length; i++) {
+            for (int j = 0; j < TIMESTAMP_PREFIX.length; j++) {
+                if (body[i + j] != TIMESTAMP_PREFIX[j]) {
+                    continue outer;
+                }
+            }
+            int offset = i + TIMESTAMP_PREFIX.length;
+            for (int j = 0; j < TIMESTAMP_DIGITS; j++) {
+                if (body[offset + j] < '0' || body[offset + j] > '9') {
+                    return -1;
+                }
+            }
+            return body[offset + TIMESTAMP_DIGITS] == '"' ? offset : -1;
+        }
+        return -1;
+    }
+    
+    /**
+     * @Description 把 {@link #timestampOffset} 处的timestamp改写为当前秒数
+     */
+    static void restamp(byte[] body, int offset) {
+        String timestamp = currentTimestamp();
+        if (timestamp.length() == TIMESTAMP_DIGITS) {
+            for (int j = 0; j < TIMESTAMP_DIGITS; j++) {
+                body[offset + j] = (byte) timestamp.charAt(j);
+            }
+        }
     }
     
     protected final String getAppMasterSecret() {
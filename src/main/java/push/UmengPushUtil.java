@@ -1,6 +1,5 @@
 package push;
 
-import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import lombok.Data;
@@ -20,7 +19,6 @@ import push.ios.IOSFilecast;
 import push.ios.IOSGroupcast;
 import push.ios.IOSUnicast;
 
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -74,7 +72,7 @@ public class UmengPushUtil {
         hashMap.put("titile", map.get("titile"));
         hashMap.put("subtitle", map.get("titile"));
         hashMap.put("body", getContent(map.get("content") + ""));
-        iosBroadcast.setAlert(JSON.toJSONString(hashMap));
+        iosBroadcast.setAlert(SimpleJsonCodec.INSTANCE.toJson(hashMap));
         iosBroadcast.setBadge(0);
         iosBroadcast.setSound("default");
         //安卓配置
@@ -102,10 +100,12 @@ public class UmengPushUtil {
                 e.printStackTrace();
             }
         });
-        String iosTaskId = client.send(iosBroadcast);
-        String androidTaskId = client.send(androidBroadcast);
-        List<String> taskId = Arrays.asList(androidTaskId, iosTaskId);
-        return taskId;
+        // 两个平台同时发送, 一个平台失败不影响另一个
+        FanoutResult result = client.fanOut(androidBroadcast, iosBroadcast).get();
+        if (!result.isAllSuccess()) {
+            throw new Exception("Broadcast failed: " + result, result.getFirstError());
+        }
+        return result.getTaskIds();
     }
     
     /**
@@ -157,7 +157,6 @@ public class UmengPushUtil {
             androidGroupcast.goAppAfterOpen();
         }
         androidGroupcast.setProductionMode();
-        client.send(androidGroupcast);
         
         //ios组播
         IOSGroupcast iosGroupcast = new IOSGroupcast(iosAppkey, iosAppMasterSecret);
@@ -167,11 +166,15 @@ public class UmengPushUtil {
         hashMap.put("titile", map.get("titile"));
         hashMap.put("subtitle", map.get("titile"));
         hashMap.put("body", getContent(map.get("content") + ""));
-        iosGroupcast.setAlert(JSON.toJSONString(hashMap));
+        iosGroupcast.setAlert(SimpleJsonCodec.INSTANCE.toJson(hashMap));
         iosGroupcast.setBadge(0);
         iosGroupcast.setSound("default");
         iosGroupcast.setTestMode();
-        client.send(iosGroupcast);
+        // 两个平台同时发送, 一个平台失败不影响另一个
+        FanoutResult result = client.fanOut(androidGroupcast, iosGroupcast).get();
+        if (!result.isAllSuccess()) {
+            throw new Exception("Groupcast failed: " + result, result.getFirstError());
+        }
     }
     
     /**
@@ -443,6 +446,6 @@ public class UmengPushUtil {
      * @return 去掉标签的内容
      */
     public String getContent(String content) {
-        return content.replace("<span>", "").replace("<span style='color:#B0C4DE'>", "").replace("</span>", "");
+        return ContentSanitizer.DEFAULT.sanitize(content);
     }
 }
@@ -22,6 +22,8 @@ import push.ios.IOSGroupcast;
 import push.ios.IOSUnicast;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * @author hzh
@@ -116,8 +118,7 @@ public class UmengPushUtils {
             androidBroadcast.setDescription("测试广播通知-Android");
             return client.send(androidBroadcast);
         } catch (Exception e) {
-            e.printStackTrace();
-            logger.info("安卓组播发送失败 map" + map.toString());
+            logger.error("安卓组播发送失败 map" + map.toString(), e);
             return null;
         }
     }
@@ -171,8 +172,7 @@ public class UmengPushUtils {
             iosBroadcast.setDescription("测试广播通知-IOS");
             return client.send(iosBroadcast);
         } catch (Exception e) {
-            e.printStackTrace();
-            logger.info("IOS广播发送失败 map" + map.toString());
+            logger.error("IOS广播发送失败 map" + map.toString(), e);
             return null;
         }
     }
@@ -310,7 +310,7 @@ public class UmengPushUtils {
             //android组播
             AndroidGroupcast androidGroupcast = new AndroidGroupcast(androidAppkey, androidAppMasterSecret);
             //当type=groupcast时，必填，用户筛选条件，如用户标签、渠道等 filter的内容长度最大为3000B
-            androidGroupcast.setFilter(recipient(map.get("userId")));
+            androidGroupcast.setFilter(recipientFilter(map.get("userId")));
             // 必填，消息类型: notification(通知)、message(消息)
             androidGroupcast.setDisplayType(AndroidNotification.DisplayType.NOTIFICATION);
             // 必填，通知栏提示文字
@@ -328,8 +328,7 @@ public class UmengPushUtils {
             androidGroupcast.setDescription("测试组播通知-Android");
             client.send(androidGroupcast);
         } catch (Exception e) {
-            e.printStackTrace();
-            logger.info("安卓组播消息失败 map" + map.toString());
+            logger.error("安卓组播消息失败 map" + map.toString(), e);
         }
     }
     
@@ -376,7 +375,7 @@ public class UmengPushUtils {
         try {
             //ios组播
             IOSGroupcast iosGroupcast = new IOSGroupcast(iosAppkey, iosAppMasterSecret);
-            iosGroupcast.setFilter(recipient(map.get("userId")));
+            iosGroupcast.setFilter(recipientFilter(map.get("userId")));
             //推送信息
             iosGroupcast.setAlert(getJsonObject(map));
             iosGroupcast.setBadge(0);
@@ -385,8 +384,7 @@ public class UmengPushUtils {
             iosGroupcast.setDescription("测试组播通知-ios");
             client.send(iosGroupcast);
         } catch (Exception e) {
-            e.printStackTrace();
-            logger.info("ios组播消息失败 map" + map.toString());
+            logger.error("ios组播消息失败 map" + map.toString(), e);
         }
     }
     
@@ -485,8 +483,7 @@ public class UmengPushUtils {
             customizedcast.setProductionMode();
             client.send(customizedcast);
         } catch (Exception e) {
-            e.printStackTrace();
-            logger.info("IOS自定义播发送失败 map" + map.toString());
+            logger.error("IOS自定义播发送失败 map" + map.toString(), e);
         }
     }
     
@@ -576,7 +573,9 @@ public class UmengPushUtils {
      *
      * @param recipientId 接受者id
      * @return 接受者集合
+     * @deprecated 使用 {@link #recipientFilter(String)}, 过滤条件在构建时检查长度, 序列化结果可以缓存
      */
+    @Deprecated
     public JSONObject recipient(String recipientId) {
         JSONObject filterJson = new JSONObject();
         JSONObject whereJson = new JSONObject();
@@ -589,14 +588,24 @@ public class UmengPushUtils {
         return filterJson;
     }
     
+    /**
+     * 组装接受者
+     *
+     * @param recipientId 接受者id
+     * @return 按tag筛选接受者的过滤条件
+     */
+    public PushFilter recipientFilter(String recipientId) {
+        return PushFilter.tag(recipientId);
+    }
+    
     /**
      * 组装ios参数
      *
      * @param map hashmap 包含userId title content
      * @return ios的alert
      */
-    private org.json.JSONObject getJsonObject(HashMap<String, String> map) {
-        org.json.JSONObject object = new org.json.JSONObject();
+    private Map<String, String> getJsonObject(HashMap<String, String> map) {
+        Map<String, String> object = new LinkedHashMap<>(4);
         object.put("title", map.get("title"));
         object.put("subtitle", "");
         object.put("body", map.get("content"));
@@ -0,0 +1,334 @@
+package push;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author zzh
+ * @description 单遍流式解析友盟返回结果, 直接从响应流中取出 ret 和 data 下的 task_id/file_id/error_code/error_msg,
+ * 其它字段跳过, 不生成中间字符串和Map。非线程安全, 每个线程持有一个实例复用缓冲区。
+ */
+public final class UmengResponseParser {
+    private static final byte[] RET = "ret".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DATA = "data".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TASK_ID = "task_id".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FILE_ID = "file_id".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ERROR_CODE = "error_code".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ERROR_MSG = "error_msg".getBytes(StandardCharsets.US_ASCII);
+    
+    private static final int NONE = 0;
+    private static final int F_RET = 1;
+    private static final int F_DATA = 2;
+    private static final int F_TASK_ID = 3;
+    private static final int F_FILE_ID = 4;
+    private static final int F_ERROR_CODE = 5;
+    private static final int F_ERROR_MSG = 6;
+    
+    private final byte[] buffer = new byte[4096];
+    private int pos;
+    private int limit;
+    private InputStream in;
+    /**
+     * 当前字符串(已处理转义)的UTF-8字节
+     */
+    private byte[] scratch = new byte[256];
+    private int scratchLen;
+    
+    /**
+     * @Description 解析响应流到result中, 不关闭流
+     */
+    public UmengResult parse(InputStream in, UmengResult result) throws IOException {
+        this.in = in;
+        pos = 0;
+        limit = 0;
+        try {
+            if (nextNonWhitespace() != '{') {
+                throw malformed();
+            }
+            parseObject(result, false);
+            return result;
+        } finally {
+            this.in = null;
+        }
+    }
+    
+    private void parseObject(UmengResult result, boolean inData) throws IOException {
+        int c = nextNonWhitespace();
+        if (c == '}') {
+            return;
+        }
+        while (true) {
+            if (c != '"') {
+                throw malformed();
+            }
+            readString();
+            int field = inData ? dataField() : rootField();
+            if (nextNonWhitespace() != ':') {
+                throw malformed();
+            }
+            c = nextNonWhitespace();
+            if (field == F_DATA && c == '{') {
+                parseObject(result, true);
+            } else if (field > F_DATA && c == '"') {
+                readString();
+                set(result, field);
+            } else if (field > F_DATA && (c == '-' || (c >= '0' && c <= '9'))) {
+                readNumber(c);
+                set(result, field);
+            } else if (field == F_RET && c == '"') {
+                readString();
+                result.setRet(new String(scratch, 0, scratchLen, StandardCharsets.UTF_8));
+            } else {
+                skipValue(c);
+            }
+            c = nextNonWhitespace();
+            if (c == ',') {
+                c = nextNonWhitespace();
+            } else if (c == '}') {
+                return;
+            } else {
+                throw malformed();
+            }
+        }
+    }
+    
+    private int rootField() {
+        if (keyEquals(RET)) {
+            return F_RET;
+        }
+        return keyEquals(DATA) ? F_DATA : NONE;
+    }
+    
+    private int dataField() {
+        if (keyEquals(TASK_ID)) {
+            return F_TASK_ID;
+        } else if (keyEquals(FILE_ID)) {
+            return F_FILE_ID;
+        } else if (keyEquals(ERROR_CODE)) {
+            return F_ERROR_CODE;
+        }
+        return keyEquals(ERROR_MSG) ? F_ERROR_MSG : NONE;
+    }
+    
+    private boolean keyEquals(byte[] key) {
+        if (scratchLen != key.length) {
+            return false;
+        }
+        for (int i = 0; i < scratchLen; i++) {
+            if (scratch[i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void set(UmengResult result, int field) {
+        String value = new String(scratch, 0, scratchLen, StandardCharsets.UTF_8);
+        switch (field) {
+            case F_TASK_ID:
+                result.setTaskId(value);
+                break;
+            case F_FILE_ID:
+                result.setFileId(value);
+                break;
+            case F_ERROR_CODE:
+                result.setErrorCode(value);
+                break;
+            default:
+                result.setErrorMsg(value);
+        }
+    }
+    
+    /**
+     * @Description 读取字符串到scratch, 调用时已经读过开头的引号
+     */
+    private void readString() throws IOException {
+        scratchLen = 0;
+        while (true) {
+            int c = next();
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                c = next();
+                switch (c) {
+                    case 'b':
+                        append('\b');
+                        break;
+                    case 'f':
+                        append('\f');
+                        break;
+                    case 'n':
+                        append('\n');
+                        break;
+                    case 'r':
+                        append('\r');
+                        break;
+                    case 't':
+                        append('\t');
+                        break;
+                    case 'u':
+                        appendCodePoint(readUnicodeEscape());
+                        break;
+                    case -1:
+                        throw malformed();
+                    default:
+                        append(c);
+                }
+            } else if (c == -1) {
+                throw malformed();
+            } else {
+                append(c);
+            }
+        }
+    }
+    
+    private int readUnicodeEscape() throws IOException {
+        int ch = readHex4();
+        if (Character.isHighSurrogate((char) ch)) {
+            // 代理对: 紧跟 \\uDCxx
+            if (next() != '\\' || next() != 'u') {
+                throw malformed();
+            }
+            int low = readHex4();
+            return Character.toCodePoint((char) ch, (char) low);
+        }
+        return ch;
+    }
+    
+    private int readHex4() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int c = next();
+            int digit = Character.digit(c, 16);
+            if (c == -1 || digit < 0) {
+                throw malformed();
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+    
+    private void appendCodePoint(int cp) {
+        if (cp < 0x80) {
+            append(cp);
+        } else if (cp < 0x800) {
+            append(0xc0 | (cp >> 6));
+            append(0x80 | (cp & 0x3f));
+        } else if (cp < 0x10000) {
+            append(0xe0 | (cp >> 12));
+            append(0x80 | ((cp >> 6) & 0x3f));
+            append(0x80 | (cp & 0x3f));
+        } else {
+            append(0xf0 | (cp >> 18));
+            append(0x80 | ((cp >> 12) & 0x3f));
+            append(0x80 | ((cp >> 6) & 0x3f));
+            append(0x80 | (cp & 0x3f));
+        }
+    }
+    
+    private void append(int b) {
+        if (scratchLen == scratch.length) {
+            byte[] grown = new byte[scratch.length * 2];
+            System.arraycopy(scratch, 0, grown, 0, scratchLen);
+            scratch = grown;
+        }
+        scratch[scratchLen++] = (byte) b;
+    }
+    
+    private void readNumber(int first) throws IOException {
+        scratchLen = 0;
+        append(first);
+        while (true) {
+            int c = peek();
+            if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                append(next());
+            } else {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * @Description 跳过一个值(对象、数组、字符串或字面量)
+     */
+    private void skipValue(int c) throws IOException {
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                c = next();
+                if (c == '"') {
+                    skipString();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                } else if (c == -1) {
+                    throw malformed();
+                }
+            }
+        } else {
+            while (true) {
+                c = peek();
+                if (c == ',' || c == '}' || c == ']' || c == -1 || c <= ' ') {
+                    return;
+                }
+                next();
+            }
+        }
+    }
+    
+    private void skipString() throws IOException {
+        while (true) {
+            int c = next();
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                c = next();
+            }
+            if (c == -1) {
+                throw malformed();
+            }
+        }
+    }
+    
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = next();
+        } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+        return c;
+    }
+    
+    private int peek() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos] & 0xff;
+    }
+    
+    private int next() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos++] & 0xff;
+    }
+    
+    private boolean fill() throws IOException {
+        int n = in.read(buffer, 0, buffer.length);
+        if (n <= 0) {
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+    
+    private static IOException malformed() {
+        return new IOException("Malformed umeng response");
+    }
+}
@@ -0,0 +1,37 @@
+package push;
+
+import lombok.Data;
+
+/**
+ * @author zzh
+ * @description 友盟接口返回结果, 只保留用到的字段:
+ * {"ret":"SUCCESS/FAIL","data":{"task_id":"..","file_id":"..","error_code":"..","error_msg":".."}}
+ */
+@Data
+public class UmengResult {
+    /**
+     * HTTP状态码
+     */
+    private int status;
+    private String ret;
+    private String taskId;
+    private String fileId;
+    private String errorCode;
+    private String errorMsg;
+    
+    public boolean isSuccess() {
+        return status == 200 && "SUCCESS".equals(ret);
+    }
+    
+    /**
+     * @Description 清空字段以便复用
+     */
+    public void reset() {
+        status = 0;
+        ret = null;
+        taskId = null;
+        fileId = null;
+        errorCode = null;
+        errorMsg = null;
+    }
+}
@@ -0,0 +1,207 @@
+package push;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * @author zzh
+ * @description 上传文件请求体 {"appkey":"..","timestamp":"..","content":".."}, content直接从文件流式读取并做JSON转义,
+ * 不在内存中拼接整个文件。签名和发送各读一遍文件。
+ */
+final class UploadContentEntity extends AbstractHttpEntity {
+    /**
+     * 文件读取缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] SUFFIX = "\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    
+    private final byte[] prefix;
+    private final Path file;
+    private long length = -1;
+    
+    UploadContentEntity(String appkey, String timestamp, Path file) {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append("{\"appkey\":\"");
+        for (int i = 0; i < appkey.length(); i++) {
+            char c = appkey.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        sb.append("\",\"timestamp\":\"").append(timestamp).append("\",\"content\":\"");
+        this.prefix = sb.toString().getBytes(StandardCharsets.UTF_8);
+        this.file = file;
+        setContentType(ContentType.create("text/plain", StandardCharsets.UTF_8).toString());
+    }
+    
+    /**
+     * @Description 流式计算签名 MD5($http_method$url$post-body$app_master_secret), 同时得到请求体长度
+     */
+    String sign(String url, String secret) throws IOException {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        md5.update(("POST" + url).getBytes(StandardCharsets.UTF_8));
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        try (InputStream in = getContent()) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                md5.update(buffer, 0, n);
+                total += n;
+            }
+        }
+        md5.update(secret.getBytes(StandardCharsets.UTF_8));
+        length = total;
+        return Hex.encodeHexString(md5.digest());
+    }
+    
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+    
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+    
+    @Override
+    public InputStream getContent() throws IOException {
+        return new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream(prefix),
+                new EscapingInputStream(FileChannel.open(file, StandardOpenOption.READ)),
+                new ByteArrayInputStream(SUFFIX))));
+    }
+    
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = getContent()) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+    }
+    
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+    
+    /**
+     * 按字节做JSON字符串转义。UTF-8多字节序列的每个字节都不小于0x80, 只需处理引号、反斜杠和控制字符。
+     */
+    private static final class EscapingInputStream extends InputStream {
+        private final FileChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        /**
+         * 一个转义序列中尚未输出的部分, 最长为 \\u00XX 的6个字节
+         */
+        private final byte[] pending = new byte[6];
+        private int pendingPos;
+        private int pendingLen;
+        private boolean eof;
+        
+        private EscapingInputStream(FileChannel channel) {
+            this.channel = channel;
+            in.flip();
+        }
+        
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n = 0;
+            while (n < len) {
+                if (pendingPos < pendingLen) {
+                    b[off + n++] = pending[pendingPos++];
+                    continue;
+                }
+                if (!in.hasRemaining() && !fill()) {
+                    break;
+                }
+                byte c = in.get();
+                if (c == '"' || c == '\\') {
+                    escape('\\', c);
+                } else if (c == '\n') {
+                    escape('\\', 'n');
+                } else if (c == '\r') {
+                    escape('\\', 'r');
+                } else if (c == '\t') {
+                    escape('\\', 't');
+                } else if (c >= 0 && c < 0x20) {
+                    pending[0] = '\\';
+                    pending[1] = 'u';
+                    pending[2] = '0';
+                    pending[3] = '0';
+                    pending[4] = HEX[c >> 4];
+                    pending[5] = HEX[c & 0xf];
+                    pendingPos = 0;
+                    pendingLen = 6;
+                } else {
+                    b[off + n++] = c;
+                }
+            }
+            return n == 0 ? -1 : n;
+        }
+        
+        private void escape(int first, int second) {
+            pending[0] = (byte) first;
+            pending[1] = (byte) second;
+            pendingPos = 0;
+            pendingLen = 2;
+        }
+        
+        private boolean fill() throws IOException {
+            if (eof) {
+                return false;
+            }
+            in.clear();
+            int read;
+            do {
+                read = channel.read(in);
+            } while (read == 0);
+            in.flip();
+            if (read == -1) {
+                eof = true;
+                return false;
+            }
+            return true;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package push;
+
+import org.json.JSONObject;
+import org.json.JSONString;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * @author zzh
+ * @description 直接输出UTF-8字节的JSON写入器, 字符串边转义边编码, 不生成中间String。
+ * 缓冲区可以reset后复用。
+ */
+final class Utf8JsonWriter {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final ThreadLocal<Utf8JsonWriter> SCRATCH = ThreadLocal.withInitial(Utf8JsonWriter::new);
+    
+    private byte[] buf;
+    private int len;
+    
+    Utf8JsonWriter() {
+        this(512);
+    }
+    
+    Utf8JsonWriter(int capacity) {
+        buf = new byte[capacity];
+    }
+    
+    void reset() {
+        len = 0;
+    }
+    
+    int size() {
+        return len;
+    }
+    
+    byte[] toByteArray() {
+        return Arrays.copyOf(buf, len);
+    }
+    
+    @Override
+    public String toString() {
+        return new String(buf, 0, len, StandardCharsets.UTF_8);
+    }
+    
+    void writeByte(int b) {
+        ensure(1);
+        buf[len++] = (byte) b;
+    }
+    
+    void writeRaw(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, len, bytes.length);
+        len += bytes.length;
+    }
+    
+    /**
+     * @Description 内部缓冲区, 有效内容为 [0, size())
+     */
+    byte[] buffer() {
+        return buf;
+    }
+    
+    /**
+     * @Description 字段名的UTF-8编码 "name": , 供字段表预先生成
+     */
+    static byte[] namePrefix(String name) {
+        Utf8JsonWriter writer = new Utf8JsonWriter(name.length() + 8);
+        writer.writeString(name);
+        writer.writeByte(':');
+        return writer.toByteArray();
+    }
+    
+    /**
+     * @Description 写入字段值: 字符串转义输出, 数字和布尔值原样输出, Map(包括fastjson的JSONObject)、Collection和数组递归写入,
+     * org.json的对象按其自身序列化结果输出
+     */
+    void writeValue(Object value) {
+        if (value instanceof String) {
+            writeString((String) value);
+        } else if (value instanceof PushFilter.CompiledFilter) {
+            writeRaw(((PushFilter.CompiledFilter) value).bytes());
+        } else if (value == null || value == JSONObject.NULL) {
+            writeRaw(NULL);
+        } else if (value instanceof Boolean) {
+            writeRaw((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Integer || value instanceof Long) {
+            writeAscii(value.toString());
+        } else if (value instanceof Map) {
+            writeMap((Map<?, ?>) value);
+        } else if (value instanceof Iterable) {
+            writeByte('[');
+            boolean first = true;
+            for (Object element : (Iterable<?>) value) {
+                if (!first) {
+                    writeByte(',');
+                }
+                writeValue(element);
+                first = false;
+            }
+            writeByte(']');
+        } else if (value instanceof Object[]) {
+            writeValue(Arrays.asList((Object[]) value));
+        } else if (value instanceof Number) {
+            writeNumber((Number) value);
+        } else if (value instanceof JSONString) {
+            writeUtf8(((JSONString) value).toJSONString());
+        } else if (value instanceof JSONObject) {
+            // org.json的JSONObject不是Map, 用它自身的序列化结果
+            writeUtf8(value.toString());
+        } else {
+            writeString(value.toString());
+        }
+    }
+    
+    private void writeMap(Map<?, ?> map) {
+        writeByte('{');
+        boolean first = true;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (!first) {
+                writeByte(',');
+            }
+            writeString(String.valueOf(entry.getKey()));
+            writeByte(':');
+            writeValue(entry.getValue());
+            first = false;
+        }
+        writeByte('}');
+    }
+    
+    private void writeNumber(Number number) {
+        if (number instanceof Double || number instanceof Float) {
+            double d = number.doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                writeRaw(NULL);
+                return;
+            }
+        }
+        writeAscii(number.toString());
+    }
+    
+    /**
+     * @Description 写入字符串键值对象 {"k":"v",...}
+     */
+    void writeStringMap(Map<String, String> map) {
+        writeByte('{');
+        boolean first = true;
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            if (!first) {
+                writeByte(',');
+            }
+            writeString(entry.getKey());
+            writeByte(':');
+            writeValue(entry.getValue());
+            first = false;
+        }
+        writeByte('}');
+    }
+    
+    /**
+     * @Description 写入带引号并转义的字符串, 非法的单个代理字符按 String.getBytes 的方式写成'?'
+     */
+    void writeString(CharSequence s) {
+        writeByte('"');
+        writeEscaped(s);
+        writeByte('"');
+    }
+    
+    /**
+     * @Description 写入转义后的字符串内容, 不带引号
+     */
+    void writeEscaped(CharSequence s) {
+        int n = s.length();
+        // 最坏情况: 每个字符3字节, 控制字符6字节
+        ensure(n * 3);
+        byte[] b = buf;
+        int p = len;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    b[p++] = (byte) c;
+                    continue;
+                }
+                len = p;
+                ensure(6 + (n - i) * 3);
+                b = buf;
+                b[p++] = '\\';
+                switch (c) {
+                    case '"':
+                        b[p++] = '"';
+                        break;
+                    case '\\':
+                        b[p++] = '\\';
+                        break;
+                    case '\n':
+                        b[p++] = 'n';
+                        break;
+                    case '\r':
+                        b[p++] = 'r';
+                        break;
+                    case '\t':
+                        b[p++] = 't';
+                        break;
+                    case '\b':
+                        b[p++] = 'b';
+                        break;
+                    case '\f':
+                        b[p++] = 'f';
+                        break;
+                    default:
+                        b[p++] = 'u';
+                        b[p++] = '0';
+                        b[p++] = '0';
+                        b[p++] = HEX[c >> 4];
+                        b[p++] = HEX[c & 0xf];
+                }
+            } else if (c < 0x800) {
+                b[p++] = (byte) (0xc0 | (c >> 6));
+                b[p++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                b[p++] = (byte) (0xf0 | (cp >> 18));
+                b[p++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                b[p++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                b[p++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                b[p++] = '?';
+            } else {
+                b[p++] = (byte) (0xe0 | (c >> 12));
+                b[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                b[p++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        len = p;
+    }
+    
+    /**
+     * @Description 字符串按UTF-8编码后的字节数, 不含转义
+     */
+    static int utf8Length(CharSequence s) {
+        int n = s.length();
+        int bytes = n;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x800) {
+                if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    bytes += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    bytes += 2;
+                }
+            } else if (c >= 0x80) {
+                bytes++;
+            }
+        }
+        return bytes;
+    }
+    
+    /**
+     * @Description 字符串转义并按UTF-8编码后的字节数, 不含引号, 与 {@link #writeEscaped(CharSequence)} 一致
+     */
+    static int escapedLength(CharSequence s) {
+        int n = s.length();
+        int bytes = 0;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += escapedLength(c);
+            }
+        }
+        return bytes;
+    }
+    
+    /**
+     * @Description 转义后不超过maxBytes字节的最长前缀的字符数, 不会拆开代理对, 截断后仍是合法的UTF-8
+     */
+    static int escapedPrefix(CharSequence s, int maxBytes) {
+        int n = s.length();
+        int bytes = 0;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            boolean pair = Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1));
+            bytes += pair ? 4 : escapedLength(c);
+            if (bytes > maxBytes) {
+                return i;
+            }
+            if (pair) {
+                i++;
+            }
+        }
+        return n;
+    }
+    
+    /**
+     * @Description 单个字符(不是代理对)转义后的字节数
+     */
+    private static int escapedLength(char c) {
+        if (c < 0x80) {
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                return 1;
+            }
+            return c == '"' || c == '\\' || c == '\n' || c == '\r' || c == '\t' || c == '\b' || c == '\f' ? 2 : 6;
+        }
+        if (c < 0x800) {
+            return 2;
+        }
+        // 单个代理字符写成'?'
+        return Character.isSurrogate(c) ? 1 : 3;
+    }
+    
+    /**
+     * @Description 值序列化后的字节数, 字符串直接计算, 其它对象写入临时缓冲区得出
+     */
+    static int valueLength(Object value) {
+        if (value instanceof String) {
+            return escapedLength((String) value) + 2;
+        }
+        if (value instanceof PushFilter.CompiledFilter) {
+            return ((PushFilter.CompiledFilter) value).size();
+        }
+        Utf8JsonWriter writer = SCRATCH.get();
+        writer.reset();
+        writer.writeValue(value);
+        return writer.size();
+    }
+    
+    private void writeAscii(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            buf[len++] = (byte) s.charAt(i);
+        }
+    }
+    
+    private void writeUtf8(String json) {
+        writeRaw(json.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private void ensure(int extra) {
+        if (len + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+        }
+    }
+}
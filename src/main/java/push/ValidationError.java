@@ -0,0 +1,57 @@
+package push;
+
+import java.io.Serializable;
+
+/**
+ * @author zzh
+ * @description 消息校验错误: 出错的字段、错误类型和说明
+ */
+public class ValidationError implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    public enum Code {
+        /**
+         * 缺少必填字段
+         */
+        MISSING,
+        /**
+         * 取值不在允许的范围内
+         */
+        INVALID_VALUE,
+        /**
+         * 超过字节数限制
+         */
+        TOO_LONG,
+        /**
+         * 逗号分隔的个数超过限制
+         */
+        TOO_MANY
+    }
+    
+    private final String field;
+    private final Code code;
+    private final String message;
+    
+    public ValidationError(String field, Code code, String message) {
+        this.field = field;
+        this.code = code;
+        this.message = message;
+    }
+    
+    public String getField() {
+        return field;
+    }
+    
+    public Code getCode() {
+        return code;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+    
+    @Override
+    public String toString() {
+        return field + ": " + code + " (" + message + ")";
+    }
+}
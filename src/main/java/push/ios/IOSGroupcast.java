@@ -1,8 +1,9 @@
 package push.ios;
 
-import com.alibaba.fastjson.JSONObject;
 import push.IOSNotification;
+import push.PushFilter;
 
+import java.util.Map;
 
 public class IOSGroupcast extends IOSNotification {
     public IOSGroupcast(String appkey, String appMasterSecret) throws Exception {
@@ -11,7 +12,17 @@ public class IOSGroupcast extends IOSNotification {
         this.setPredefinedKeyValue("type", "groupcast");
     }
     
-    public void setFilter(JSONObject filter) throws Exception {
+    /**
+     * @Description filter可以是fastjson的JSONObject或任意Map, 发送时直接写入请求体
+     */
+    public void setFilter(Map<String, ?> filter) throws Exception {
         setPredefinedKeyValue("filter", filter);
     }
+    
+    /**
+     * @Description 使用filter表达式, 编译结果会被缓存
+     */
+    public void setFilter(PushFilter filter) throws Exception {
+        setPredefinedKeyValue("filter", filter.compile());
+    }
 }
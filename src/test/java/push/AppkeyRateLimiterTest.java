@@ -0,0 +1,81 @@
+package push;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author zzh
+ */
+public class AppkeyRateLimiterTest {
+    
+    @Test
+    public void burstIsServedImmediatelyThenPaced() throws Exception {
+        // 10个/秒, 两个令牌间隔100ms
+        AppkeyRateLimiter limiter = new AppkeyRateLimiter(10, 3, AppkeyRateLimiter.Mode.TIMEOUT, 1, TimeUnit.SECONDS);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.reserve("appkey"));
+        }
+        long fourth = limiter.reserve("appkey");
+        long fifth = limiter.reserve("appkey");
+        assertTrue(fourth > 0 && fourth <= TimeUnit.MILLISECONDS.toNanos(100));
+        long spacing = fifth - fourth;
+        // 两次调用之间经过的时间会从间隔中扣除
+        assertTrue(spacing > TimeUnit.MILLISECONDS.toNanos(50) && spacing <= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+    
+    @Test
+    public void failFastRejectsWithoutReserving() throws Exception {
+        AppkeyRateLimiter limiter = new AppkeyRateLimiter(1, 2, AppkeyRateLimiter.Mode.FAIL_FAST, 0, TimeUnit.SECONDS);
+        limiter.reserve("appkey");
+        limiter.reserve("appkey");
+        for (int i = 0; i < 3; i++) {
+            try {
+                limiter.reserve("appkey");
+                fail();
+            } catch (RateLimitedException e) {
+                // 被拒绝的请求不占用令牌
+            }
+        }
+        // 各appkey的桶互不影响, 也可以单独配置
+        limiter.configure("other", 1, 1);
+        assertEquals(0, limiter.reserve("other"));
+        try {
+            limiter.reserve("other");
+            fail();
+        } catch (RateLimitedException e) {
+            // 突发量为1
+        }
+        assertEquals(0, limiter.reserve("third"));
+    }
+    
+    @Test
+    public void idleTimeRefillsOnlyUpToTheBurst() throws Exception {
+        // 100个/秒, 两个令牌间隔10ms
+        AppkeyRateLimiter limiter = new AppkeyRateLimiter(100, 2, AppkeyRateLimiter.Mode.FAIL_FAST, 0, TimeUnit.SECONDS);
+        limiter.reserve("appkey");
+        limiter.reserve("appkey");
+        Thread.sleep(100);
+        limiter.reserve("appkey");
+        limiter.reserve("appkey");
+        try {
+            limiter.reserve("appkey");
+            fail();
+        } catch (RateLimitedException e) {
+            // 空闲再久也只积累burst个令牌
+        }
+    }
+    
+    @Test
+    public void acquireWaitsForTheReservedToken() throws Exception {
+        AppkeyRateLimiter limiter = new AppkeyRateLimiter(20, 1, AppkeyRateLimiter.Mode.BLOCK, 0, TimeUnit.SECONDS);
+        limiter.acquire("appkey");
+        long start = System.nanoTime();
+        limiter.acquire("appkey");
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+    }
+}
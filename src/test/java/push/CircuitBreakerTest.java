@@ -0,0 +1,96 @@
+package push;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author zzh
+ */
+public class CircuitBreakerTest {
+    
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 1, TimeUnit.HOURS);
+        breaker.onFailure(breaker.allowRequest());
+        breaker.onFailure(breaker.allowRequest());
+        breaker.onSuccess(breaker.allowRequest());
+        breaker.onFailure(breaker.allowRequest());
+        breaker.onFailure(breaker.allowRequest());
+        CircuitBreaker.Permit permit = breaker.allowRequest();
+        assertEquals(CircuitBreaker.Permit.NORMAL, permit);
+        breaker.onFailure(permit);
+        assertTrue(breaker.isOpen());
+        assertNull(breaker.allowRequest());
+    }
+    
+    @Test
+    public void rejectedProbeDoesNotWedgeTheBreaker() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 20, TimeUnit.MILLISECONDS);
+        breaker.onFailure(breaker.allowRequest());
+        assertTrue(breaker.isOpen());
+        assertNull(breaker.allowRequest());
+        Thread.sleep(40);
+        // 半开: 只放行一个探测请求
+        CircuitBreaker.Permit probe = breaker.allowRequest();
+        assertEquals(CircuitBreaker.Permit.PROBE, probe);
+        assertNull(breaker.allowRequest());
+        // 探测请求被限流或舱壁拒绝, 没有发出
+        breaker.release(probe);
+        assertTrue(breaker.isOpen());
+        probe = breaker.allowRequest();
+        assertEquals(CircuitBreaker.Permit.PROBE, probe);
+        breaker.onSuccess(probe);
+        assertFalse(breaker.isOpen());
+        assertEquals(CircuitBreaker.Permit.NORMAL, breaker.allowRequest());
+        assertEquals(CircuitBreaker.Permit.NORMAL, breaker.allowRequest());
+    }
+    
+    @Test
+    public void failedProbeReopens() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 20, TimeUnit.MILLISECONDS);
+        breaker.onFailure(breaker.allowRequest());
+        Thread.sleep(40);
+        breaker.onFailure(breaker.allowRequest());
+        assertTrue(breaker.isOpen());
+        assertNull(breaker.allowRequest());
+        Thread.sleep(40);
+        assertNotNull(breaker.allowRequest());
+    }
+    
+    @Test
+    public void releaseWhileClosedHasNoEffect() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1, TimeUnit.HOURS);
+        breaker.release(breaker.allowRequest());
+        assertFalse(breaker.isOpen());
+        assertEquals(CircuitBreaker.Permit.NORMAL, breaker.allowRequest());
+    }
+    
+    @Test
+    public void lateResultsFromBeforeOpeningDoNotTouchTheProbe() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 20, TimeUnit.MILLISECONDS);
+        CircuitBreaker.Permit early = breaker.allowRequest();
+        CircuitBreaker.Permit late = breaker.allowRequest();
+        CircuitBreaker.Permit released = breaker.allowRequest();
+        CircuitBreaker.Permit succeeded = breaker.allowRequest();
+        breaker.onFailure(early);
+        assertTrue(breaker.isOpen());
+        Thread.sleep(40);
+        CircuitBreaker.Permit probe = breaker.allowRequest();
+        assertEquals(CircuitBreaker.Permit.PROBE, probe);
+        // 打开前放行的请求现在才结束: 探测仍在进行, 不能放行第二个探测, 也不能关闭熔断器
+        breaker.onFailure(late);
+        breaker.release(released);
+        breaker.onSuccess(succeeded);
+        assertTrue(breaker.isOpen());
+        assertNull(breaker.allowRequest());
+        breaker.onSuccess(probe);
+        assertFalse(breaker.isOpen());
+    }
+}
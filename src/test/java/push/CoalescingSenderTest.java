@@ -0,0 +1,95 @@
+package push;
+
+import org.junit.Test;
+import push.android.AndroidUnicast;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author zzh
+ */
+public class CoalescingSenderTest {
+    
+    /**
+     * 记录发出的消息体, 第n次发送返回 "task-n"
+     */
+    static class RecordingClient extends PushClient {
+        final List<Map<String, Object>> sent = new ArrayList<>();
+        
+        @Override
+        synchronized CompletableFuture<String> sendAsync(String appkey, String postBody, String appMasterSecret,
+                                                         PushMetrics.Series series) {
+            sent.add(getJsonCodec().parseObject(postBody));
+            notifyAll();
+            return CompletableFuture.completedFuture("task-" + sent.size());
+        }
+        
+        synchronized int awaitSent(int n, long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (sent.size() < n && System.currentTimeMillis() < deadline) {
+                wait(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+            return sent.size();
+        }
+    }
+    
+    @Test
+    public void sameContentIsMergedIntoOneListcast() throws Exception {
+        try (RecordingClient client = new RecordingClient();
+             CoalescingSender sender = new CoalescingSender(client, 10, TimeUnit.MINUTES.toMillis(1))) {
+            CompletableFuture<String> a = sender.submit(unicast("a", "text"));
+            CompletableFuture<String> b = sender.submit(unicast("b", "text"));
+            CompletableFuture<String> other = sender.submit(unicast("c", "other"));
+            assertFalse(a.isDone());
+            sender.flush();
+            assertEquals(2, client.sent.size());
+            Map<String, Object> merged = client.sent.get(0).get("device_tokens").equals("a,b") ? client.sent.get(0) : client.sent.get(1);
+            assertEquals("a,b", merged.get("device_tokens"));
+            assertEquals("listcast", merged.get("type"));
+            assertEquals(a.get(), b.get());
+            assertFalse(a.get().equals(other.get()));
+        }
+    }
+    
+    @Test
+    public void fullBatchIsSentWithoutWaitingForTheWindow() throws Exception {
+        try (RecordingClient client = new RecordingClient();
+             CoalescingSender sender = new CoalescingSender(client, 2, TimeUnit.MINUTES.toMillis(1))) {
+            CompletableFuture<String> a = sender.submit(unicast("a", "text"));
+            CompletableFuture<String> b = sender.submit(unicast("b", "text"));
+            CompletableFuture<String> c = sender.submit(unicast("c", "text"));
+            assertEquals(1, client.sent.size());
+            assertEquals("a,b", client.sent.get(0).get("device_tokens"));
+            assertTrue(a.isDone() && b.isDone());
+            assertFalse(c.isDone());
+        }
+    }
+    
+    @Test
+    public void partialBatchIsSentWhenTheWindowEnds() throws Exception {
+        try (RecordingClient client = new RecordingClient();
+             CoalescingSender sender = new CoalescingSender(client, 10, 50)) {
+            CompletableFuture<String> a = sender.submit(unicast("a", "text"));
+            assertEquals(1, client.awaitSent(1, 5000));
+            assertEquals("task-1", a.get(1, TimeUnit.SECONDS));
+            // 单个接收者仍按单播发送
+            assertEquals("unicast", client.sent.get(0).get("type"));
+            assertEquals("a", client.sent.get(0).get("device_tokens"));
+        }
+    }
+    
+    private static AndroidUnicast unicast(String token, String text) throws Exception {
+        AndroidUnicast msg = TestMessages.unicast("ticker");
+        msg.setDeviceToken(token);
+        msg.setText(text);
+        return msg;
+    }
+}
@@ -0,0 +1,99 @@
+package push;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author zzh
+ * @description 对本地模拟的友盟接口(每个请求耗时5毫秒)并发发出一批请求的吞吐量。
+ * maxPerRoute=2 相当于原来 HttpClientBuilder.create().build() 每个路由2个连接的上限
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConnectionPoolBenchmark {
+    private static final int BATCH = 64;
+    private static final byte[] RESPONSE = "{\"ret\":\"SUCCESS\",\"data\":{}}".getBytes(StandardCharsets.UTF_8);
+    
+    @Param({"2", "16", "100"})
+    public int maxPerRoute;
+    
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private PushClient client;
+    private String url;
+    private HashMap<String, String> body;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+        server.createContext("/api/cancel", exchange -> {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, RESPONSE.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(RESPONSE);
+            }
+        });
+        serverThreads = Executors.newFixedThreadPool(128);
+        server.setExecutor(serverThreads);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/api/cancel";
+        PushClientConfig config = new PushClientConfig();
+        config.setMaxPerRoute(maxPerRoute);
+        config.setMaxTotal(Math.max(maxPerRoute, config.getMaxTotal()));
+        client = new PushClient(config);
+        body = new HashMap<>();
+        body.put("appkey", "appkey");
+        body.put("timestamp", "1600000000");
+        body.put("task_id", "task");
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.close();
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+    
+    /**
+     * @Description 一次操作为并发的 {@link #BATCH} 个请求全部完成
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void cancel() {
+        CompletableFuture<?>[] futures = new CompletableFuture[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            futures[i] = client.cancelNoticeAsync(url, body, "secret", "1600000000");
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+}
@@ -0,0 +1,64 @@
+package push;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author zzh
+ * @description 清理一条推送内容: 单遍的ContentSanitizer 对比 原来 UmengPushUtil.getContent 的三次 String.replace。
+ * 原来的做法只去掉固定的span标签, rich输入中的其它标签和实体会原样留下
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentSanitizerBenchmark {
+    
+    /**
+     * plain: 纯文本; span: 原来CMS输出的span; rich: 富文本编辑器的常见输出
+     */
+    @Param({"plain", "span", "rich"})
+    public String input;
+    
+    private String content;
+    
+    @Setup
+    public void setUp() {
+        switch (input) {
+            case "plain":
+                content = "您关注的商品已降价, 限时优惠仅剩最后3小时, 点击查看详情并领取专属优惠券。";
+                break;
+            case "span":
+                content = "<span>您关注的商品</span><span style='color:#B0C4DE'>已降价</span>, 限时优惠仅剩最后<span>3小时</span>, "
+                        + "点击查看详情并领取专属优惠券。";
+                break;
+            default:
+                content = "<p style=\"margin:0\"><strong>您关注的商品</strong>&nbsp;已降价&hellip;</p>\n<p>限时优惠仅剩最后"
+                        + "<span style='color:#B0C4DE'>3小时</span>, <a href=\"https://example.com/p?id=1&amp;src=push\">"
+                        + "点击查看详情</a>并领取&ldquo;专属优惠券&rdquo;<br/></p><!-- tracking -->";
+        }
+    }
+    
+    @Benchmark
+    public String sanitizer() {
+        return ContentSanitizer.DEFAULT.sanitize(content);
+    }
+    
+    @Benchmark
+    public String chainedReplace() {
+        return content.replace("<span>", "").replace("<span style='color:#B0C4DE'>", "").replace("</span>", "");
+    }
+}
@@ -0,0 +1,62 @@
+package push;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import push.ios.IOSUnicast;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author zzh
+ */
+public class ContentSanitizerTest {
+    private final ContentSanitizer sanitizer = ContentSanitizer.DEFAULT;
+    
+    @Test
+    public void stripsTagsAndDecodesEntities() {
+        assertEquals("Tom & Jerry's <sale>", sanitizer.sanitize("<b>Tom</b> &amp; Jerry&#39;s &lt;sale&gt;"));
+        assertEquals("中文 A", sanitizer.sanitize("&#x4e2d;&#25991;&nbsp;A"));
+        assertEquals("a b", sanitizer.sanitize("a<script>alert('x')</script><br/>b"));
+        assertEquals("one two", sanitizer.sanitize("  one<!-- note -->\n\t <p>two</p> "));
+        // 不认识的实体原样保留
+        assertEquals("&unknown; 5 < 6", sanitizer.sanitize("&unknown; 5 < 6"));
+        assertNull(sanitizer.sanitize(null));
+    }
+    
+    @Test
+    public void returnsCleanContentUnchanged() {
+        String clean = "已经是纯文本";
+        assertSame(clean, sanitizer.sanitize(clean));
+    }
+    
+    @Test
+    public void sanitizesEveryAlertForm() throws Exception {
+        IOSUnicast msg = new IOSUnicast("appkey", "secret");
+        msg.setContentSanitizer(sanitizer);
+        msg.setAlert("<i>hi</i>");
+        assertEquals("hi", msg.getPredefinedKeyValue("alert"));
+        
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("title", "<b>title</b>");
+        map.put("body", "a&amp;b");
+        msg.setAlert(map);
+        assertEquals("{\"title\":\"title\",\"body\":\"a&b\"}", new JSONObject((Map<?, ?>) msg.getPredefinedKeyValue("alert")).toString());
+        
+        JSONObject json = new JSONObject();
+        json.put("title", "<b>title</b>");
+        json.put("body", "a&amp;b");
+        json.put("launch-image", 1);
+        msg.setAlert(json);
+        JSONObject alert = (JSONObject) msg.getPredefinedKeyValue("alert");
+        assertEquals("title", alert.getString("title"));
+        assertEquals("a&b", alert.getString("body"));
+        assertEquals(1, alert.getInt("launch-image"));
+        // 传入的对象不变
+        assertEquals("a&amp;b", json.getString("body"));
+    }
+}
@@ -0,0 +1,126 @@
+package push;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author zzh
+ */
+public class DeliveryPlannerTest {
+    
+    private final DeliveryPlanner planner = new DeliveryPlanner();
+    
+    @Test
+    public void singleTokenIsUnicast() {
+        DeliveryPlan plan = planner.plan(Audience.deviceTokens(Collections.singletonList("t0")));
+        assertEquals(DeliveryPlan.Mode.UNICAST, plan.getMode());
+        assertEquals(1, plan.getSends());
+        assertEquals(0, plan.getUploads());
+        // alias没有单播, 一个也用customizedcast
+        plan = planner.plan(Audience.aliases("user_id", Collections.singletonList("a0")));
+        assertEquals(DeliveryPlan.Mode.CUSTOMIZEDCAST, plan.getMode());
+        assertEquals(DeliveryPlan.Mode.NONE, planner.plan(Audience.deviceTokens(Collections.emptyList())).getMode());
+    }
+    
+    @Test
+    public void inlineSendsUntilTheyCostMoreThanAnUpload() {
+        // 默认一次上传按2次发送计, 一个文件的代价为 2 + 1 = 3 次请求: 3批(1500个)以内逐批发送
+        DeliveryPlan plan = planner.plan(Audience.deviceTokens(tokens(1500)));
+        assertEquals(DeliveryPlan.Mode.LISTCAST, plan.getMode());
+        assertEquals(3, plan.getSends());
+        assertEquals(0, plan.getUploads());
+        for (List<String> batch : plan.getBatches()) {
+            assertEquals(500, batch.size());
+        }
+        
+        plan = planner.plan(Audience.deviceTokens(tokens(1501)));
+        assertEquals(DeliveryPlan.Mode.FILECAST, plan.getMode());
+        assertEquals(1, plan.getSends());
+        assertEquals(1, plan.getUploads());
+        assertEquals(1501, plan.getBatches().get(0).size());
+        
+        plan = planner.plan(Audience.aliases("user_id", tokens(1501)));
+        assertEquals(DeliveryPlan.Mode.CUSTOMIZEDCAST_FILE, plan.getMode());
+        assertEquals("customizedcast", plan.getMode().getType());
+    }
+    
+    @Test
+    public void thresholdsFollowTheConfiguration() {
+        planner.setUploadCost(0);
+        assertEquals(DeliveryPlan.Mode.LISTCAST, planner.plan(Audience.deviceTokens(tokens(2))).getMode());
+        assertEquals(DeliveryPlan.Mode.FILECAST, planner.plan(Audience.deviceTokens(tokens(501))).getMode());
+        
+        // 每个文件最多1000个, 2500个分成3个文件
+        planner.setMaxFileRecipients(1000);
+        DeliveryPlan plan = planner.plan(Audience.deviceTokens(tokens(2500)));
+        assertEquals(DeliveryPlan.Mode.FILECAST, plan.getMode());
+        assertEquals(3, plan.getUploads());
+        assertEquals(Arrays.asList(1000, 1000, 500), sizes(plan));
+        
+        // 每批上限不能超过友盟的500
+        planner.setUploadCost(100);
+        planner.setMaxInlineRecipients(800);
+        plan = planner.plan(Audience.deviceTokens(tokens(800)));
+        assertEquals(DeliveryPlan.Mode.LISTCAST, plan.getMode());
+        assertEquals(Arrays.asList(500, 300), sizes(plan));
+    }
+    
+    @Test
+    public void everyoneAndFilterNeedOneSend() {
+        DeliveryPlan plan = planner.plan(Audience.everyone());
+        assertEquals(DeliveryPlan.Mode.BROADCAST, plan.getMode());
+        assertEquals(1, plan.getSends());
+        plan = planner.plan(Audience.filter(PushFilter.tag("vip")));
+        assertEquals(DeliveryPlan.Mode.GROUPCAST, plan.getMode());
+        assertEquals(1, plan.getSends());
+        assertTrue(plan.getBatches().isEmpty());
+    }
+    
+    @Test
+    public void executeSendsEachBatchAsAListcast() throws Exception {
+        planner.setUploadCost(100);
+        planner.setMaxInlineRecipients(2);
+        DeliveryPlan plan = planner.plan(Audience.deviceTokens(tokens(3)));
+        List<NotificationSnapshot> sent = new ArrayList<>();
+        try (PushClient client = new PushClient() {
+            @Override
+            public synchronized CompletableFuture<String> sendAsync(NotificationSnapshot snapshot) {
+                sent.add(snapshot);
+                return CompletableFuture.completedFuture("task-" + sent.size());
+            }
+        }) {
+            List<String> taskIds = plan.execute(client, TestMessages.unicast("ticker")).get(5, TimeUnit.SECONDS);
+            assertEquals(Arrays.asList("task-1", "task-2"), taskIds);
+        }
+        assertEquals("listcast", sent.get(0).getType());
+        assertEquals("t0,t1", sent.get(0).get("device_tokens"));
+        assertEquals("t2", sent.get(1).get("device_tokens"));
+        assertNull(sent.get(1).get("file_id"));
+    }
+    
+    private static List<String> tokens(int n) {
+        List<String> tokens = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            tokens.add("t" + i);
+        }
+        return tokens;
+    }
+    
+    private static List<Integer> sizes(DeliveryPlan plan) {
+        List<Integer> sizes = new ArrayList<>();
+        for (List<String> batch : plan.getBatches()) {
+            sizes.add(batch.size());
+        }
+        return sizes;
+    }
+}
@@ -0,0 +1,252 @@
+package push;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author zzh
+ */
+public class DurablePushQueueTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    /**
+     * 按请求体决定成功还是可重试的失败
+     */
+    static class ScriptedClient extends PushClient {
+        final AtomicInteger calls = new AtomicInteger();
+        final ConcurrentHashMap<String, Integer> attempts = new ConcurrentHashMap<>();
+        private final Predicate<String> fails;
+        
+        ScriptedClient(Predicate<String> fails) {
+            this.fails = fails;
+        }
+        
+        @Override
+        CompletableFuture<String> sendAsync(String appkey, byte[] postBody, String appMasterSecret, PushMetrics.Series series) {
+            calls.incrementAndGet();
+            String body = new String(postBody, StandardCharsets.UTF_8);
+            attempts.merge(body.substring(body.indexOf("\"ticker\"")), 1, Integer::sum);
+            CompletableFuture<String> future = new CompletableFuture<>();
+            if (fails.test(body)) {
+                future.completeExceptionally(new PushException(TestMessages.failure(503), true));
+            } else {
+                future.complete("task");
+            }
+            return future;
+        }
+    }
+    
+    @Test
+    public void redeliversTransientFailuresInProcess() throws Exception {
+        AtomicInteger failuresLeft = new AtomicInteger(1);
+        try (ScriptedClient client = new ScriptedClient(body -> failuresLeft.getAndDecrement() > 0);
+             DurablePushQueue queue = new DurablePushQueue(folder.getRoot().toPath(), client, appkey -> "secret")) {
+            CompletableFuture<String> future = queue.submit(TestMessages.unicast("hello"));
+            assertEquals("task", future.get(10, TimeUnit.SECONDS));
+            assertEquals(2, client.calls.get());
+            awaitPending(queue, 0);
+        }
+    }
+    
+    @Test
+    public void replaysUndeliveredOnRestart() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        try (ScriptedClient client = new ScriptedClient(body -> true)) {
+            DurablePushQueue queue = new DurablePushQueue(dir, client, appkey -> "secret");
+            for (int i = 0; i < 3; i++) {
+                futures.add(queue.submit(TestMessages.unicast("m" + i)));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (client.calls.get() < 3 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            queue.close();
+        }
+        for (CompletableFuture<String> future : futures) {
+            try {
+                future.get(1, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof PushException);
+            }
+        }
+        try (ScriptedClient client = new ScriptedClient(body -> false);
+             DurablePushQueue queue = new DurablePushQueue(dir, client, appkey -> "secret")) {
+            awaitPending(queue, 0);
+            assertEquals(3, client.attempts.size());
+        }
+    }
+    
+    @Test
+    public void segmentCountStaysBoundedWhileEntriesArePending() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        try (ScriptedClient client = new ScriptedClient(body -> body.contains("\"ticker\":\"fail"));
+             DurablePushQueue queue = new DurablePushQueue(dir, client, appkey -> "secret", 4096)) {
+            for (int i = 0; i < 1000; i++) {
+                queue.submit(TestMessages.unicast((i % 5 == 0 ? "fail" : "ok") + i));
+            }
+            awaitPending(queue, 200);
+            // 每段1/5的消息一直失败, 超过1/8, 按比例永远不会搬迁, 整个日志约70段;
+            // 200条未确认的消息约占14段, 整理后不超过它的两倍
+            assertTrue("segments: " + segmentCount(dir), segmentCount(dir) <= 30);
+        }
+    }
+    
+    @Test
+    public void synchronousClientFailureDoesNotStopTheFlusher() throws Exception {
+        AtomicInteger throwsLeft = new AtomicInteger(1);
+        try (ScriptedClient client = new ScriptedClient(body -> false) {
+            @Override
+            CompletableFuture<String> sendAsync(String appkey, byte[] postBody, String appMasterSecret, PushMetrics.Series series) {
+                if (throwsLeft.getAndDecrement() > 0) {
+                    throw new IllegalStateException("boom");
+                }
+                return super.sendAsync(appkey, postBody, appMasterSecret, series);
+            }
+        };
+             DurablePushQueue queue = new DurablePushQueue(folder.getRoot().toPath(), client, appkey -> "secret")) {
+            CompletableFuture<String> first = queue.submit(TestMessages.unicast("first"));
+            // 后台线程还在运行, 之后提交的消息照常发送, 第一条消息重新发送后成功
+            assertEquals("task", queue.submit(TestMessages.unicast("second")).get(10, TimeUnit.SECONDS));
+            assertEquals("task", first.get(10, TimeUnit.SECONDS));
+            awaitPending(queue, 0);
+        }
+    }
+    
+    @Test
+    public void localDeterministicFailuresAreNotRedelivered() throws Exception {
+        try (ScriptedClient client = new ScriptedClient(body -> false) {
+            @Override
+            CompletableFuture<String> sendAsync(String appkey, byte[] postBody, String appMasterSecret, PushMetrics.Series series) {
+                calls.incrementAndGet();
+                CompletableFuture<String> future = new CompletableFuture<>();
+                String body = new String(postBody, StandardCharsets.UTF_8);
+                future.completeExceptionally(body.contains("invalid") ? new NotificationValidationException(
+                        Collections.singletonList(new ValidationError("ticker", ValidationError.Code.INVALID_VALUE, "invalid")))
+                        : new IllegalArgumentException("bad secret"));
+                return future;
+            }
+        };
+             DurablePushQueue queue = new DurablePushQueue(folder.getRoot().toPath(), client, appkey -> "secret")) {
+            CompletableFuture<String> invalid = queue.submit(TestMessages.unicast("invalid"));
+            CompletableFuture<String> badSecret = queue.submit(TestMessages.unicast("secret"));
+            try {
+                invalid.get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof NotificationValidationException);
+            }
+            try {
+                badSecret.get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalArgumentException);
+            }
+            // 确认掉, 不会在进程内或下次启动时重发
+            awaitPending(queue, 0);
+            assertEquals(2, client.calls.get());
+        }
+    }
+    
+    @Test
+    public void rejectsNotificationWithoutSecret() throws Exception {
+        try (ScriptedClient client = new ScriptedClient(body -> false);
+             DurablePushQueue queue = new DurablePushQueue(folder.getRoot().toPath(), client, appkey -> "secret")) {
+            UmengNotification msg = TestMessages.unicast("hello");
+            msg.setAppMasterSecret(null);
+            try {
+                queue.submit(msg).get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalArgumentException);
+            }
+            assertEquals(0, queue.pendingCount());
+            assertEquals(0, client.calls.get());
+        }
+    }
+    
+    @Test
+    public void replaysStoredBytesWithFreshTimestamp() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        List<byte[]> bodies = new ArrayList<>();
+        try (ScriptedClient client = new ScriptedClient(body -> true) {
+            @Override
+            CompletableFuture<String> sendAsync(String appkey, byte[] postBody, String appMasterSecret, PushMetrics.Series series) {
+                synchronized (bodies) {
+                    bodies.add(postBody.clone());
+                }
+                return super.sendAsync(appkey, postBody, appMasterSecret, series);
+            }
+        }) {
+            DurablePushQueue queue = new DurablePushQueue(dir, client, appkey -> "secret");
+            queue.submit(TestMessages.unicast("replay"));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (client.calls.get() < 1 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            queue.close();
+            // 缺少secret时不发送也不确认
+            try (DurablePushQueue missing = new DurablePushQueue(dir, client, appkey -> null)) {
+                assertEquals(1, missing.pendingCount());
+            }
+            assertEquals(1, client.calls.get());
+            try (DurablePushQueue replayed = new DurablePushQueue(dir, client, appkey -> "secret")) {
+                deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (client.calls.get() < 2 && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+            }
+        }
+        assertTrue(bodies.size() >= 2);
+        byte[] original = bodies.get(0);
+        byte[] replayed = bodies.get(1);
+        // 除timestamp的10位数字外与原请求体逐字节相同
+        int offset = UmengNotification.timestampOffset(original);
+        assertTrue(offset >= 0);
+        assertEquals(offset, UmengNotification.timestampOffset(replayed));
+        for (int i = offset; i < offset + 10; i++) {
+            replayed[i] = original[i];
+        }
+        assertTrue(Arrays.equals(original, replayed));
+    }
+    
+    private static void awaitPending(DurablePushQueue queue, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (queue.pendingCount() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, queue.pendingCount());
+    }
+    
+    private static int segmentCount(Path dir) throws Exception {
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "segment-*.log")) {
+            for (Path ignored : stream) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,106 @@
+package push;
+
+import org.junit.Test;
+import push.android.AndroidUnicast;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author zzh
+ */
+public class FanoutResultTest {
+    
+    /**
+     * 发送由测试逐个完成, ticker为 "fail" 的消息失败
+     */
+    static class PendingClient extends PushClient {
+        final List<CompletableFuture<String>> pending = new ArrayList<>();
+        final List<String> tickers = new ArrayList<>();
+        
+        @Override
+        synchronized CompletableFuture<String> sendAsync(String appkey, byte[] postBody, String appMasterSecret,
+                                                         PushMetrics.Series series) {
+            tickers.add(new String(postBody, StandardCharsets.UTF_8).contains("\"ticker\":\"fail\"") ? "fail" : "ok");
+            CompletableFuture<String> future = new CompletableFuture<>();
+            pending.add(future);
+            return future;
+        }
+        
+        synchronized void complete(int i) {
+            if ("fail".equals(tickers.get(i))) {
+                pending.get(i).completeExceptionally(new PushException(TestMessages.failure(500), true));
+            } else {
+                pending.get(i).complete("task-" + i);
+            }
+        }
+    }
+    
+    @Test
+    public void resultsKeepArgumentOrderWhenCompletedOutOfOrder() throws Exception {
+        try (PendingClient client = new PendingClient()) {
+            CompletableFuture<FanoutResult> fanout = client.fanOut(
+                    TestMessages.unicast("a"), TestMessages.unicast("fail"), TestMessages.unicast("c"));
+            assertEquals(3, client.pending.size());
+            client.complete(2);
+            client.complete(0);
+            assertFalse(fanout.isDone());
+            client.complete(1);
+            FanoutResult result = fanout.get(5, TimeUnit.SECONDS);
+            
+            // 一个平台失败不影响其它平台, 结果顺序与参数一致
+            assertFalse(result.isAllSuccess());
+            assertEquals(Arrays.asList("task-0", null, "task-2"), result.getTaskIds());
+            List<FanoutResult.PlatformResult> results = result.getResults();
+            assertTrue(results.get(0).isSuccess());
+            assertTrue(results.get(1).getError() instanceof PushException);
+            assertSame(results.get(1).getError(), result.getFirstError());
+            assertTrue(results.get(2).isSuccess());
+            assertEquals(PushMetrics.ANDROID, results.get(0).getPlatform());
+            assertSame(results.get(0), result.get(PushMetrics.ANDROID));
+            assertNull(result.get(PushMetrics.IOS));
+        }
+    }
+    
+    @Test
+    public void builderFailureIsRecordedAsAnUnknownPlatform() throws Exception {
+        try (PendingClient client = new PendingClient()) {
+            IllegalStateException broken = new IllegalStateException("broken");
+            List<Callable<AndroidUnicast>> builders = Arrays.asList(
+                    () -> TestMessages.unicast("a"),
+                    () -> {
+                        throw broken;
+                    });
+            CompletableFuture<FanoutResult> fanout = client.fanOut(Runnable::run, builders);
+            client.complete(0);
+            FanoutResult result = fanout.get(5, TimeUnit.SECONDS);
+            assertEquals(Arrays.asList("task-0", null), result.getTaskIds());
+            assertEquals(PushMetrics.UNKNOWN, result.getResults().get(1).getPlatform());
+            assertSame(broken, result.getFirstError());
+        }
+    }
+    
+    @Test
+    public void allSuccess() throws Exception {
+        try (PendingClient client = new PendingClient()) {
+            CompletableFuture<FanoutResult> fanout = client.fanOut(TestMessages.unicast("a"), TestMessages.unicast("b"));
+            client.complete(1);
+            client.complete(0);
+            FanoutResult result = fanout.get(5, TimeUnit.SECONDS);
+            assertTrue(result.isAllSuccess());
+            assertNull(result.getFirstError());
+            assertEquals(Arrays.asList("task-0", "task-1"), result.getTaskIds());
+        }
+    }
+}
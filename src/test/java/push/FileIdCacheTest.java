@@ -0,0 +1,44 @@
+package push;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author zzh
+ */
+public class FileIdCacheTest {
+    
+    @Test
+    public void invalidationSurvivesRestart() throws Exception {
+        Path file = Files.createTempFile("file-id-cache", ".txt");
+        byte[] first = FileIdCache.digest("a\nb");
+        byte[] second = FileIdCache.digest("c\nd");
+        try {
+            try (FileIdCache cache = new FileIdCache(100, 1, TimeUnit.DAYS, file)) {
+                assertEquals("f1", cache.fileIdAsync("appkey", first, () -> CompletableFuture.completedFuture("f1")).get());
+                assertEquals("f2", cache.fileIdAsync("appkey", second, () -> CompletableFuture.completedFuture("f2")).get());
+                cache.invalidate("appkey", first);
+                // 其它appkey的相同file_id不受影响
+                cache.invalidateFileId("other", "f2");
+                assertEquals(1, cache.size());
+            }
+            try (FileIdCache cache = new FileIdCache(100, 1, TimeUnit.DAYS, file)) {
+                assertNull(cache.get("appkey", first));
+                assertEquals("f2", cache.get("appkey", second));
+                cache.invalidateFileId("appkey", "f2");
+            }
+            try (FileIdCache cache = new FileIdCache(100, 1, TimeUnit.DAYS, file)) {
+                assertEquals(0, cache.size());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
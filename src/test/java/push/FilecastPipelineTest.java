@@ -0,0 +1,122 @@
+package push;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author zzh
+ */
+public class FilecastPipelineTest {
+    
+    /**
+     * 上传返回 f0, f1...; 发送返回 t+file_id, file_id等于failOn时失败一次
+     */
+    static class RecordingClient extends PushClient {
+        final List<String> uploads = new ArrayList<>();
+        final List<String> sends = new ArrayList<>();
+        String failOn;
+        
+        @Override
+        public synchronized CompletableFuture<String> uploadContentsAsync(String appkey, String appMasterSecret, Path contents) {
+            try {
+                uploads.add(new String(Files.readAllBytes(contents), StandardCharsets.UTF_8));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            return CompletableFuture.completedFuture("f" + (uploads.size() - 1));
+        }
+        
+        @Override
+        public synchronized CompletableFuture<String> sendAsync(NotificationSnapshot snapshot) {
+            String fileId = (String) snapshot.get("file_id");
+            CompletableFuture<String> result = new CompletableFuture<>();
+            if (fileId.equals(failOn)) {
+                failOn = null;
+                result.completeExceptionally(new PushException(TestMessages.failure(500), true));
+            } else {
+                sends.add(fileId);
+                result.complete("t" + fileId);
+            }
+            return result;
+        }
+    }
+    
+    @Test
+    public void resumesFromCheckpoint() throws Exception {
+        Path checkpoint = Files.createTempFile("filecast", ".ckpt");
+        Files.delete(checkpoint);
+        List<String> tokens = Arrays.asList("a", "b", "a", "c", "d", "b", "e");
+        FilecastPipeline pipeline = new FilecastPipeline();
+        pipeline.setChunkSize(2);
+        pipeline.setMaxConcurrentChunks(1);
+        pipeline.setExpectedRecipients(16);
+        try (RecordingClient client = new RecordingClient()) {
+            client.failOn = "f1";
+            try {
+                pipeline.filecast(client, prototype(), tokens.iterator(), checkpoint, Runnable::run).get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof PushException);
+            }
+            // 去重后 [a b] [c d] [e], 第二个文件已上传但发送失败
+            assertEquals(Arrays.asList("a\nb", "c\nd"), client.uploads);
+            assertEquals(Arrays.asList("f0"), client.sends);
+            
+            // 模拟中断在一条记录的中间: 这条记录不能被当作已发送
+            Files.write(checkpoint, "S\t1\tt".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            List<String> taskIds = pipeline.filecast(client, prototype(), tokens.iterator(), checkpoint, Runnable::run).get();
+            assertEquals(Arrays.asList("tf0", "tf1", "tf2"), taskIds);
+            // 第一个文件不再发送, 第二个文件用记录的file_id发送, 不再上传
+            assertEquals(Arrays.asList("a\nb", "c\nd", "e"), client.uploads);
+            assertEquals(Arrays.asList("f0", "f1", "f2"), client.sends);
+            
+            // 全部完成后再执行只返回记录的结果
+            taskIds = pipeline.filecast(client, prototype(), tokens.iterator(), checkpoint, Runnable::run).get();
+            assertEquals(Arrays.asList("tf0", "tf1", "tf2"), taskIds);
+            assertEquals(3, client.sends.size());
+        } finally {
+            Files.deleteIfExists(checkpoint);
+        }
+    }
+    
+    @Test
+    public void rejectsCheckpointWithDifferentChunking() throws Exception {
+        Path checkpoint = Files.createTempFile("filecast", ".ckpt");
+        Files.delete(checkpoint);
+        List<String> tokens = Arrays.asList("a", "a", "b");
+        FilecastPipeline pipeline = new FilecastPipeline();
+        pipeline.setChunkSize(2);
+        pipeline.setExpectedRecipients(16);
+        try (RecordingClient client = new RecordingClient()) {
+            pipeline.filecast(client, prototype(), tokens.iterator(), checkpoint, Runnable::run).get();
+            // 不去重时各文件的内容不同, 不能接着上次的检查点执行
+            pipeline.setDeduplicate(false);
+            try {
+                pipeline.filecast(client, prototype(), tokens.iterator(), checkpoint, Runnable::run).get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            assertEquals(1, client.sends.size());
+        } finally {
+            Files.deleteIfExists(checkpoint);
+        }
+    }
+    
+    private static UmengNotification prototype() throws Exception {
+        return TestMessages.unicast("filecast");
+    }
+}
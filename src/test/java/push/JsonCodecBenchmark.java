@@ -0,0 +1,84 @@
+package push;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import push.android.AndroidGroupcast;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author zzh
+ * @description 按包内实际的用法比较各编解码器: 取消请求体序列化、filter序列化、消息体重新解析和返回结果解析。
+ * 结果用于选择 {@link PushClientConfig#setJsonCodec(JsonCodec)}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark {
+    
+    @Param({"simple", "fastjson"})
+    public String codecName;
+    
+    private JsonCodec codec;
+    private HashMap<String, String> cancel;
+    private Map<String, Object> filter;
+    private String body;
+    private byte[] response;
+    
+    @Setup
+    public void setUp() throws Exception {
+        codec = "fastjson".equals(codecName) ? FastjsonCodec.INSTANCE : SimpleJsonCodec.INSTANCE;
+        cancel = new HashMap<>();
+        cancel.put("appkey", "5a1b2c3d4e5f6a7b8c9d0e1f");
+        cancel.put("timestamp", "1792293037");
+        cancel.put("task_id", "us12345678901234567890");
+        filter = codec.parseObject(PushFilter.tag("用户42").and(PushFilter.channel("huawei")).compile().toString());
+        AndroidGroupcast groupcast = new AndroidGroupcast("5a1b2c3d4e5f6a7b8c9d0e1f", "secret");
+        groupcast.setFilter(filter);
+        groupcast.setTicker("ticker");
+        groupcast.setTitle("标题");
+        groupcast.setText("内容\"引号\"");
+        groupcast.goAppAfterOpen();
+        groupcast.setDisplayType(AndroidNotification.DisplayType.NOTIFICATION);
+        groupcast.setExtraField("k", "v");
+        body = groupcast.getPostBody();
+        response = "{\"ret\":\"SUCCESS\",\"data\":{\"task_id\":\"us12345678901234567890\"}}".getBytes(StandardCharsets.UTF_8);
+    }
+    
+    @Benchmark
+    public String cancelBody() {
+        return codec.toJson(cancel);
+    }
+    
+    @Benchmark
+    public String filter() {
+        return codec.toJson(filter);
+    }
+    
+    @Benchmark
+    public Map<String, Object> parseBody() {
+        return codec.parseObject(body);
+    }
+    
+    @Benchmark
+    public UmengResult parseResult() throws IOException {
+        return codec.parseResult(new ByteArrayInputStream(response), new UmengResult());
+    }
+}
@@ -0,0 +1,92 @@
+package push;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @author zzh
+ */
+public class JsonCodecTest {
+    private static final JsonCodec[] CODECS = {SimpleJsonCodec.INSTANCE, FastjsonCodec.INSTANCE};
+    
+    @Test
+    public void serializesTheSameWayAcrossCodecs() {
+        Map<String, Object> value = new LinkedHashMap<>();
+        value.put("appkey", "k");
+        value.put("text", "引号\" 反斜杠\\ 换行\n 控制\u0001");
+        value.put("count", 3);
+        value.put("flag", true);
+        value.put("list", Arrays.asList("a", 1L, null));
+        for (JsonCodec codec : CODECS) {
+            String json = codec.toJson(value);
+            // 各编解码器的输出互相可以解析, 字段顺序不变
+            for (JsonCodec other : CODECS) {
+                Map<String, Object> parsed = other.parseObject(json);
+                assertEquals(codec + " -> " + other, Arrays.asList("appkey", "text", "count", "flag", "list"),
+                        Arrays.asList(parsed.keySet().toArray()));
+                assertEquals(value.get("text"), parsed.get("text"));
+                assertEquals(3, ((Number) parsed.get("count")).intValue());
+                assertEquals(true, parsed.get("flag"));
+                List<?> list = (List<?>) parsed.get("list");
+                assertEquals("a", list.get(0));
+                assertEquals(1, ((Number) list.get(1)).intValue());
+                assertEquals(null, list.get(2));
+            }
+        }
+    }
+    
+    @Test
+    public void parsesNestedObjectsAsMaps() {
+        String json = "{\"where\":{\"and\":[{\"tag\":\"vip\"},{\"not\":{\"channel\":\"x\"}}]}}";
+        for (JsonCodec codec : CODECS) {
+            Map<?, ?> where = (Map<?, ?>) codec.parseObject(json).get("where");
+            List<?> and = (List<?>) where.get("and");
+            assertEquals("vip", ((Map<?, ?>) and.get(0)).get("tag"));
+            assertEquals(json, codec.toJson(codec.parseObject(json)));
+        }
+    }
+    
+    @Test
+    public void parsesResults() throws Exception {
+        byte[] response = "{\"ret\":\"FAIL\",\"data\":{\"error_code\":\"2019\",\"error_msg\":\"\\u6587\\u4ef6\",\"extra\":[1,{}]}}"
+                .getBytes(StandardCharsets.UTF_8);
+        for (JsonCodec codec : CODECS) {
+            UmengResult result = codec.parseResult(new ByteArrayInputStream(response), new UmengResult());
+            assertEquals("FAIL", result.getRet());
+            assertEquals("2019", result.getErrorCode());
+            assertEquals("文件", result.getErrorMsg());
+        }
+    }
+    
+    @Test
+    public void handlesMalformedDataTheSameWayAcrossCodecs() throws Exception {
+        String[] ignored = {"\"oops\"", "[1,2]", "3", "null", "{\"task_id\":{\"nested\":1}}"};
+        for (JsonCodec codec : CODECS) {
+            // data不是对象时只解析ret
+            for (String data : ignored) {
+                byte[] response = ("{\"ret\":\"SUCCESS\",\"data\":" + data + "}").getBytes(StandardCharsets.UTF_8);
+                UmengResult result = codec.parseResult(new ByteArrayInputStream(response), new UmengResult());
+                assertEquals(codec + " " + data, "SUCCESS", result.getRet());
+            }
+            // 不完整的data以IOException失败, 不会抛出运行时异常
+            for (String data : new String[]{"{\"task_id\":", "{\"task_id\" \"t\"}", "[1,"}) {
+                byte[] response = ("{\"ret\":\"SUCCESS\",\"data\":" + data + "}").getBytes(StandardCharsets.UTF_8);
+                try {
+                    codec.parseResult(new ByteArrayInputStream(response), new UmengResult());
+                    fail(codec + " " + data);
+                } catch (IOException expected) {
+                }
+            }
+        }
+    }
+}
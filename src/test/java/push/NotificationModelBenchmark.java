@@ -0,0 +1,84 @@
+package push;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import push.android.AndroidUnicast;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author zzh
+ * @description 组装并序列化一条Android单播: 字段表+直接写UTF-8 对比 原来的org.json树+toString+getBytes。
+ * orgJsonTree 按原来 setPredefinedKeyValue 的方式逐个查找或创建 payload/body/extra/policy 节点
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NotificationModelBenchmark {
+    private int sequence;
+    
+    @Benchmark
+    public byte[] fieldTable() throws Exception {
+        int i = sequence++;
+        AndroidUnicast msg = new AndroidUnicast("5a1b2c3d4e5f6a7b8c9d0e1f", "secret");
+        msg.setDeviceToken("Am" + i + "xyzabcdefghijklmnopqrstuvwxyz0123456789");
+        msg.setPredefinedKeyValue("timestamp", "1700000000");
+        msg.setTicker("新消息提醒");
+        msg.setTitle("您有一条新的订单消息 #" + i);
+        msg.setText("您的订单已发货, 请注意查收。点击查看\"详情\"");
+        msg.goAppAfterOpen();
+        msg.setDisplayType(AndroidNotification.DisplayType.NOTIFICATION);
+        msg.setProductionMode();
+        msg.setDescription("订单通知");
+        msg.setPredefinedKeyValue("expire_time", "2030-01-01 00:00:00");
+        msg.setExtraField("orderId", Integer.toString(i));
+        msg.setExtraField("kind", "ship");
+        return msg.getPostBodyBytes();
+    }
+    
+    @Benchmark
+    public byte[] orgJsonTree() {
+        int i = sequence++;
+        JSONObject root = new JSONObject();
+        root.put("appkey", "5a1b2c3d4e5f6a7b8c9d0e1f");
+        root.put("type", "unicast");
+        root.put("device_tokens", "Am" + i + "xyzabcdefghijklmnopqrstuvwxyz0123456789");
+        root.put("timestamp", "1700000000");
+        body(root).put("ticker", "新消息提醒");
+        body(root).put("title", "您有一条新的订单消息 #" + i);
+        body(root).put("text", "您的订单已发货, 请注意查收。点击查看\"详情\"");
+        body(root).put("after_open", "go_app");
+        child(root, "payload").put("display_type", "notification");
+        root.put("production_mode", "true");
+        root.put("description", "订单通知");
+        child(root, "policy").put("expire_time", "2030-01-01 00:00:00");
+        child(child(root, "payload"), "extra").put("orderId", Integer.toString(i));
+        child(child(root, "payload"), "extra").put("kind", "ship");
+        return root.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static JSONObject body(JSONObject root) {
+        return child(child(root, "payload"), "body");
+    }
+    
+    private static JSONObject child(JSONObject parent, String key) {
+        if (parent.has(key)) {
+            return parent.getJSONObject(key);
+        }
+        JSONObject child = new JSONObject();
+        parent.put(key, child);
+        return child;
+    }
+}
@@ -0,0 +1,91 @@
+package push;
+
+import org.junit.Test;
+import push.android.AndroidCustomizedcast;
+import push.android.AndroidGroupcast;
+import push.android.AndroidUnicast;
+import push.ios.IOSBroadcast;
+import push.ios.IOSUnicast;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @author zzh
+ */
+public class NotificationSchemaTest {
+    
+    @Test
+    public void acceptsValidMessages() throws Exception {
+        TestMessages.unicast("ticker").validate();
+        IOSBroadcast ios = new IOSBroadcast("appkey", "secret");
+        ios.setContentAvailable(1);
+        ios.validate();
+    }
+    
+    @Test
+    public void reportsEveryErrorInOnePass() throws Exception {
+        AndroidUnicast msg = new AndroidUnicast("appkey", "secret");
+        msg.setDisplayType(AndroidNotification.DisplayType.NOTIFICATION);
+        msg.setTitle("title");
+        msg.goUrlAfterOpen(null);
+        Set<String> errors = errors(msg);
+        assertEquals(set("device_tokens:MISSING", "ticker:MISSING", "text:MISSING", "url:MISSING"), errors);
+    }
+    
+    @Test
+    public void checksRecipientCountsAndByteLimits() throws Exception {
+        AndroidUnicast unicast = TestMessages.unicast("ticker");
+        unicast.setDeviceToken("a,b");
+        assertEquals(set("device_tokens:TOO_MANY"), errors(unicast));
+        
+        AndroidGroupcast groupcast = new AndroidGroupcast("appkey", "secret");
+        StringBuilder or = new StringBuilder();
+        for (int i = 0; i < 400; i++) {
+            or.append(i == 0 ? "" : ",").append("{\"tag\":\"标签\"}");
+        }
+        groupcast.setPredefinedKeyValue("filter", "{\"where\":{\"or\":[" + or + "]}}");
+        groupcast.setDisplayType(AndroidNotification.DisplayType.MESSAGE);
+        assertEquals(set("filter:TOO_LONG"), errors(groupcast));
+    }
+    
+    @Test
+    public void checksEnumsAndTypeSpecificFields() throws Exception {
+        AndroidCustomizedcast customizedcast = new AndroidCustomizedcast("appkey", "secret");
+        customizedcast.setDisplayType(AndroidNotification.DisplayType.MESSAGE);
+        customizedcast.setPredefinedKeyValue("alias", "u1");
+        customizedcast.setPredefinedKeyValue("play_sound", "maybe");
+        assertEquals(set("alias_type:MISSING", "play_sound:INVALID_VALUE"), errors(customizedcast));
+        
+        IOSUnicast ios = new IOSUnicast("appkey", "secret");
+        ios.setDeviceToken("token");
+        assertEquals(1, errors(ios).size());
+    }
+    
+    private static Set<String> errors(UmengNotification msg) {
+        try {
+            msg.validate();
+            fail("expected validation errors");
+        } catch (NotificationValidationException e) {
+            List<ValidationError> list = e.getErrors();
+            Set<String> result = new HashSet<>();
+            for (ValidationError error : list) {
+                result.add(error.getField() + ":" + error.getCode());
+            }
+            return result;
+        }
+        return null;
+    }
+    
+    private static Set<String> set(String... values) {
+        Set<String> result = new HashSet<>();
+        for (String value : values) {
+            result.add(value);
+        }
+        return result;
+    }
+}
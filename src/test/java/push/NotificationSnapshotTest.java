@@ -0,0 +1,141 @@
+package push;
+
+import org.junit.Test;
+import push.android.AndroidUnicast;
+import push.ios.IOSUnicast;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author zzh
+ */
+public class NotificationSnapshotTest {
+    
+    @Test
+    public void withCopiesOnlyTheChangedValue() throws Exception {
+        AndroidUnicast msg = TestMessages.unicast("ticker");
+        msg.setExtraField("k", "v");
+        NotificationSnapshot original = msg.snapshot();
+        byte[] before = original.getPostBodyBytes("0000000000");
+        NotificationSnapshot changed = original.with("text", "changed").withField("k", "w");
+        // 原快照不变, 新快照只改了这两个值
+        assertArrayEquals(before, original.getPostBodyBytes("0000000000"));
+        assertEquals("text", original.get("text"));
+        assertEquals("changed", changed.get("text"));
+        assertEquals("v", original.getFields().get("k"));
+        assertEquals("w", changed.getFields().get("k"));
+        assertEquals(original.get("ticker"), changed.get("ticker"));
+        assertEquals(original.getFields(), original.with("title", "t2").getFields());
+        // 没有修改的值按引用共享, 嵌套对象不会被复制
+        Map<String, Object> alert = new LinkedHashMap<>();
+        alert.put("body", "hi");
+        NotificationSnapshot ios = new IOSUnicast("appkey", "secret").snapshot().with("alert", alert);
+        assertSame(alert, ios.with("badge", 1).with("sound", "default").get("alert"));
+        // 修改快照不影响消息本身
+        assertEquals("text", msg.getPredefinedKeyValue("text"));
+        try {
+            changed.getFields().put("x", "y");
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+    
+    @Test
+    public void validationIsCachedPerSnapshot() throws Exception {
+        NotificationSnapshot invalid = TestMessages.unicast("ticker").snapshot().with("device_tokens", null);
+        NotificationValidationException first = validationError(invalid);
+        NotificationValidationException second = validationError(invalid);
+        assertEquals(first.getErrors(), second.getErrors());
+        assertEquals("device_tokens", first.getErrors().get(0).getField());
+        // 新快照重新校验, 不会沿用原快照的结果
+        invalid.with("device_tokens", "token").validate();
+        NotificationSnapshot valid = TestMessages.unicast("ticker").snapshot();
+        valid.validate();
+        assertEquals("device_tokens", validationError(valid.with("device_tokens", null)).getErrors().get(0).getField());
+        valid.validate();
+    }
+    
+    @Test
+    public void payloadSizeMatchesTheMessage() throws Exception {
+        AndroidUnicast android = TestMessages.unicast("ticker");
+        android.setExtraField("k", "值\"");
+        assertEquals(android.getPayloadSize(), android.snapshot().getPayloadSize());
+        NotificationSnapshot changed = android.snapshot().with("text", "a longer text");
+        android.setText("a longer text");
+        assertEquals(android.getPayloadSize(), changed.getPayloadSize());
+        IOSUnicast ios = new IOSUnicast("appkey", "secret");
+        ios.setDeviceToken("token");
+        ios.setAlert("alert");
+        ios.setCustomizedField("k", "v");
+        assertEquals(ios.getPayloadSize(), ios.snapshot().getPayloadSize());
+    }
+    
+    @Test
+    public void sendingASnapshotAppliesThePayloadBudget() throws Exception {
+        AndroidUnicast msg = TestMessages.unicast("ticker");
+        msg.setText(repeat('x', 5000));
+        NotificationSnapshot oversized = msg.snapshot();
+        AtomicReference<byte[]> sent = new AtomicReference<>();
+        PushClientConfig config = new PushClientConfig();
+        try (PushClient client = recording(config, sent)) {
+            try {
+                client.sendAsync(oversized).get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                NotificationValidationException cause = (NotificationValidationException) e.getCause();
+                assertEquals(ValidationError.Code.TOO_LONG, cause.getErrors().get(0).getCode());
+            }
+            assertNull(sent.get());
+        }
+        PayloadBudget budget = new PayloadBudget();
+        budget.setTruncate(true);
+        config.setPayloadBudget(budget);
+        try (PushClient client = recording(config, sent)) {
+            assertEquals("task", client.sendAsync(oversized).get(5, TimeUnit.SECONDS));
+            String body = new String(sent.get(), StandardCharsets.UTF_8);
+            Map<?, ?> payload = (Map<?, ?>) SimpleJsonCodec.INSTANCE.parseObject(body).get("payload");
+            String truncated = (String) ((Map<?, ?>) payload.get("body")).get("text");
+            assertTrue(truncated.endsWith("…"));
+            assertTrue(sent.get().length < oversized.getPostBodyBytes("0000000000").length);
+            // 原快照不变
+            assertEquals(5000, ((String) oversized.get("text")).length());
+        }
+    }
+    
+    private static PushClient recording(PushClientConfig config, AtomicReference<byte[]> sent) {
+        return new PushClient(config) {
+            @Override
+            CompletableFuture<String> sendAsync(String appkey, byte[] postBody, String appMasterSecret, PushMetrics.Series series) {
+                sent.set(postBody);
+                return CompletableFuture.completedFuture("task");
+            }
+        };
+    }
+    
+    private static NotificationValidationException validationError(NotificationSnapshot snapshot) {
+        try {
+            snapshot.validate();
+            throw new AssertionError("expected a validation error");
+        } catch (NotificationValidationException e) {
+            return e;
+        }
+    }
+    
+    private static String repeat(char c, int n) {
+        return String.join("", Collections.nCopies(n, String.valueOf(c)));
+    }
+}
@@ -0,0 +1,114 @@
+package push;
+
+import org.junit.Test;
+import push.android.AndroidUnicast;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author zzh
+ */
+public class NotificationTemplateTest {
+    
+    @Test
+    public void rendersTheSameBytesAsTheMessage() throws Exception {
+        NotificationTemplate template = NotificationTemplate.compile(prototype(), "device_tokens", "title", "extra.k");
+        String title = "quote\" slash\\ newline\n tab\t ctrl\u0001 中文 😀";
+        NotificationTemplate.Renderer renderer = template.newRenderer()
+                .set("device_tokens", "token-1").set("title", title).set("extra.k", "</v>");
+        byte[] rendered = renderer.render().toByteArray();
+        
+        AndroidUnicast expected = prototype();
+        expected.setDeviceToken("token-1");
+        expected.setTitle(title);
+        expected.setExtraField("k", "</v>");
+        int offset = UmengNotification.timestampOffset(rendered);
+        assertTrue(offset > 0);
+        String timestamp = new String(rendered, offset, 10, StandardCharsets.US_ASCII);
+        assertArrayEquals(((UmengNotification) expected).getPostBodyBytes(timestamp), rendered);
+        // 渲染器复用缓冲区, 再次渲染不残留上次的值
+        byte[] again = renderer.set("title", "t").render().toByteArray();
+        expected.setTitle("t");
+        timestamp = new String(again, UmengNotification.timestampOffset(again), 10, StandardCharsets.US_ASCII);
+        assertArrayEquals(((UmengNotification) expected).getPostBodyBytes(timestamp), again);
+    }
+    
+    @Test
+    public void blankRequiredSlotIsRejected() throws Exception {
+        NotificationTemplate template = NotificationTemplate.compile(prototype(), "title", "text");
+        NotificationTemplate.Renderer renderer = template.newRenderer().set("title", "title").set("text", "");
+        try {
+            renderer.render();
+            fail();
+        } catch (NotificationValidationException e) {
+            assertEquals("text", e.getErrors().get(0).getField());
+        }
+        try {
+            template.newRenderer().set("title", "title").render();
+            fail();
+        } catch (IllegalStateException e) {
+            // 没有设置的槽位
+        }
+    }
+    
+    @Test
+    public void payloadBudgetIsCheckedOnTheRenderedBody() throws Exception {
+        NotificationTemplate template = NotificationTemplate.compile(prototype(), "text", "extra.k");
+        NotificationTemplate.Renderer renderer = template.newRenderer().set("text", "\"text\"").set("extra.k", "v\n");
+        
+        // 槽位值转义后的长度与消息本身的payload一致
+        AndroidUnicast msg = prototype();
+        msg.setText("\"text\"");
+        msg.setExtraField("k", "v\n");
+        int size = msg.getPayloadSize();
+        renderer.setPayloadBudget(budget(size)).render();
+        renderer.setPayloadBudget(budget(size - 1));
+        try {
+            renderer.render();
+            fail();
+        } catch (NotificationValidationException e) {
+            assertTrue(e.getMessage().contains(String.valueOf(size)));
+        }
+        // 发送时使用客户端的预算, 超出时不签名也不发送
+        AtomicInteger sent = new AtomicInteger();
+        PushClientConfig config = new PushClientConfig();
+        config.setPayloadBudget(budget(size - 1));
+        try (PushClient client = new PushClient(config) {
+            @Override
+            CompletableFuture<String> sendAsync(String appkey, byte[] postBody, String appMasterSecret,
+                                                PushMetrics.Series series) {
+                sent.incrementAndGet();
+                return CompletableFuture.completedFuture("task");
+            }
+        }) {
+            CompletableFuture<String> result = template.newRenderer().set("text", "\"text\"").set("extra.k", "v\n").send(client);
+            try {
+                result.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof NotificationValidationException);
+            }
+            assertEquals(0, sent.get());
+        }
+    }
+    
+    private static PayloadBudget budget(int limit) {
+        PayloadBudget budget = new PayloadBudget();
+        budget.setAndroidLimit(limit);
+        return budget;
+    }
+    
+    private static AndroidUnicast prototype() throws Exception {
+        AndroidUnicast msg = TestMessages.unicast("ticker");
+        msg.setExtraField("k", "v");
+        return msg;
+    }
+}
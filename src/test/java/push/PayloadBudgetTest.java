@@ -0,0 +1,83 @@
+package push;
+
+import org.junit.Test;
+import push.android.AndroidUnicast;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author zzh
+ */
+public class PayloadBudgetTest {
+    
+    @Test
+    public void rejectsByDefault() throws Exception {
+        AndroidUnicast msg = TestMessages.unicast("ticker");
+        msg.setText(repeat('x', 5000));
+        try {
+            msg.fitPayload(new PayloadBudget());
+            fail();
+        } catch (NotificationValidationException e) {
+            assertEquals("payload", e.getErrors().get(0).getField());
+        }
+    }
+    
+    @Test
+    public void truncatesTextOnCharacterBoundary() throws Exception {
+        AndroidUnicast msg = TestMessages.unicast("ticker");
+        // 4字节的字符, 截断不能拆开代理对
+        String emoji = new String(Character.toChars(0x1F600));
+        StringBuilder sb = new StringBuilder("aaaaaaaaaa");
+        for (int i = 0; i < 1500; i++) {
+            sb.append(emoji);
+        }
+        msg.setText(sb.toString());
+        PayloadBudget budget = new PayloadBudget();
+        budget.setTruncate(true);
+        NotificationSnapshot snapshot = msg.fitPayload(budget);
+        String text = (String) snapshot.get("text");
+        assertTrue(text.endsWith("…"));
+        assertFalse(Character.isHighSurrogate(text.charAt(text.length() - 2)));
+        // payload之外的部分不变, 请求体至少缩短超出的字节数
+        int shrunk = msg.snapshot().getPostBodyBytes("0000000000").length - snapshot.getPostBodyBytes("0000000000").length;
+        assertTrue(shrunk >= msg.getPayloadSize() - budget.getAndroidLimit());
+        // 原消息不变
+        assertEquals(3010, ((String) msg.getPredefinedKeyValue("text")).length());
+    }
+    
+    @Test
+    public void leavesJsonValuesIntact() throws Exception {
+        AndroidUnicast msg = TestMessages.unicast("ticker");
+        String json = "{\"items\":\"" + repeat('x', 5000) + "\"}";
+        msg.setExtraField("payload", json);
+        PayloadBudget budget = new PayloadBudget();
+        budget.setTruncate(true);
+        budget.setAndroidFields(Arrays.asList("extra.payload", "text"));
+        try {
+            msg.fitPayload(budget);
+            fail();
+        } catch (NotificationValidationException e) {
+            assertEquals("payload", e.getErrors().get(0).getField());
+        }
+        msg.setExtraField("payload", "[" + repeat('1', 5000) + "]");
+        try {
+            msg.fitPayload(budget);
+            fail();
+        } catch (NotificationValidationException e) {
+            assertEquals("payload", e.getErrors().get(0).getField());
+        }
+    }
+    
+    private static String repeat(char c, int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
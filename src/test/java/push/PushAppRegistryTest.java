@@ -0,0 +1,143 @@
+package push;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+import push.ios.IOSUnicast;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author zzh
+ */
+public class PushAppRegistryTest {
+    
+    @Test(timeout = 20000)
+    public void saturatedAppDoesNotBlockOtherApps() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        Semaphore slowArrived = new Semaphore(0);
+        CountDownLatch gate = new CountDownLatch(1);
+        server.createContext("/slow/api/cancel", exchange -> {
+            slowArrived.release();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange);
+        });
+        server.createContext("/fast/api/cancel", PushAppRegistryTest::respond);
+        server.start();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        
+        PushClientConfig config = PushAppRegistry.defaultAppConfig();
+        config.setMaxInFlight(1);
+        config.setInFlightTimeout(100);
+        config.setMaxAttempts(1);
+        try (PushAppRegistry registry = new PushAppRegistry(config)) {
+            registry.register(app("slow", "k1"));
+            registry.register(app("fast", "k2"));
+            PushClient slow = registry.client("slow");
+            PushClient fast = registry.client("fast");
+            assertNotSame(slow, fast);
+            
+            CompletableFuture<Boolean> stuck = slow.cancelNoticeAsync(base + "/slow/api/cancel", cancelBody("k1"), "s1", "0");
+            assertTrue(slowArrived.tryAcquire(5, TimeUnit.SECONDS));
+            // slow的唯一在途名额被占用, 它的下一个请求等待超时后失败
+            try {
+                slow.cancelNoticeAsync(base + "/slow/api/cancel", cancelBody("k1"), "s1", "0").get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof BulkheadFullException);
+            }
+            // fast有自己的名额和连接池, 不受影响
+            for (int i = 0; i < 3; i++) {
+                assertTrue(fast.cancelNoticeAsync(base + "/fast/api/cancel", cancelBody("k2"), "s2", "0").get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, slow.getMetrics().getInFlight());
+            assertEquals(0, fast.getMetrics().getInFlight());
+            gate.countDown();
+            assertTrue(stuck.get(5, TimeUnit.SECONDS));
+        } finally {
+            gate.countDown();
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void routesByAppIdAndAppkey() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("umeng.push.apps.shop.android.appkey", "k1");
+        properties.setProperty("umeng.push.apps.shop.android.appMasterSecret", "s1");
+        properties.setProperty("umeng.push.apps.shop.ios.appkey", "k2");
+        properties.setProperty("umeng.push.apps.shop.ios.appMasterSecret", "s2");
+        properties.setProperty("umeng.push.apps.shop.maxInFlight", "5");
+        properties.setProperty("umeng.push.apps.news.android.appkey", "k3");
+        properties.setProperty("umeng.push.apps.news.android.appMasterSecret", "s3");
+        try (PushAppRegistry registry = PushAppRegistry.fromProperties(properties)) {
+            assertEquals(2, registry.getAppIds().size());
+            assertEquals("s2", registry.secretOf("k2"));
+            assertEquals("s3", registry.secretOf("k3"));
+            assertNull(registry.secretOf("k4"));
+            assertEquals(5, registry.getApp("shop").getClientConfig().getMaxInFlight());
+            assertNull(registry.getApp("news").getClientConfig());
+            try {
+                registry.sendAsync("news", new IOSUnicast(null, null)).get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                // news没有iOS的appkey
+                assertTrue(e.getCause() instanceof IllegalArgumentException);
+            }
+            try {
+                registry.register(app("other", "k1"));
+                fail();
+            } catch (IllegalArgumentException e) {
+                // appkey已属于shop, 注册失败时路由表不变
+                assertEquals(2, registry.getAppIds().size());
+            }
+        }
+    }
+    
+    private static PushApp app(String appId, String appkey) {
+        PushApp app = new PushApp(appId);
+        app.setAndroidAppkey(appkey);
+        app.setAndroidAppMasterSecret("secret-" + appkey);
+        return app;
+    }
+    
+    private static HashMap<String, String> cancelBody(String appkey) {
+        HashMap<String, String> body = new HashMap<>();
+        body.put("appkey", appkey);
+        body.put("task_id", "t");
+        return body;
+    }
+    
+    private static void respond(HttpExchange exchange) throws IOException {
+        byte[] response = "{\"ret\":\"SUCCESS\",\"data\":{}}".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+}
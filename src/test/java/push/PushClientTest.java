@@ -0,0 +1,348 @@
+package push;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author zzh
+ */
+public class PushClientTest {
+    
+    @Test
+    public void nullAppkeyFailsFast() throws Exception {
+        PushClientConfig config = new PushClientConfig();
+        config.setRateLimit(10);
+        try (PushClient client = new PushClient(config)) {
+            try {
+                client.sendAsync(null, "{}", "secret").get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalArgumentException);
+            }
+            HashMap<String, String> body = new HashMap<>();
+            body.put("task_id", "t");
+            try {
+                client.cancelNoticeAsync("http://msg.umeng.com/api/cancel", body, "secret", "0").get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalArgumentException);
+            }
+        }
+    }
+    
+    @Test
+    public void missingFileIsRemovedFromCache() throws Exception {
+        FileIdCache cache = new FileIdCache();
+        byte[] digest = FileIdCache.digest("a\nb");
+        cache.fileIdAsync("appkey", digest, () -> CompletableFuture.completedFuture("f1")).get();
+        PushClientConfig config = new PushClientConfig();
+        config.setFileIdCache(cache);
+        UmengResult result = TestMessages.failure(200);
+        result.setErrorCode("2019");
+        try (PushClient client = new PushClient(config) {
+            @Override
+            CompletableFuture<String> sendAsync(String appkey, byte[] postBody, String appMasterSecret, PushMetrics.Series series) {
+                CompletableFuture<String> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new PushException(result, false));
+                return failed;
+            }
+        }) {
+            NotificationSnapshot snapshot = TestMessages.unicast("t").snapshot()
+                    .with("device_tokens", null).with("type", "filecast").with("file_id", "f1");
+            try {
+                client.sendAsync(snapshot).get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertEquals("2019", ((PushException) e.getCause()).getErrorCode());
+            }
+            assertNull(cache.get("appkey", digest));
+        }
+    }
+    
+    @Test
+    public void connectionsAreReleasedOnEveryResponse() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        AtomicInteger requests = new AtomicInteger();
+        server.createContext("/api/cancel", exchange -> {
+            // 交替返回失败和成功, 失败的响应也带有内容
+            boolean fail = requests.getAndIncrement() % 2 == 0;
+            byte[] response = (fail ? "{\"ret\":\"FAIL\",\"data\":{\"error_code\":\"2005\"}}"
+                    : "{\"ret\":\"SUCCESS\",\"data\":{}}").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(fail ? 400 : 200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+        PushClientConfig config = new PushClientConfig();
+        config.setMaxTotal(2);
+        config.setMaxPerRoute(2);
+        config.setMaxAttempts(1);
+        config.setConnectionRequestTimeout(2000);
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/api/cancel";
+        HashMap<String, String> body = new HashMap<>();
+        body.put("appkey", "appkey");
+        body.put("task_id", "t");
+        try (PushClient client = new PushClient(config)) {
+            // 连接没有归还时第3个请求就会等待连接超时
+            int succeeded = 0;
+            for (int i = 0; i < 20; i++) {
+                if (client.cancelNoticeAsync(url, body, "secret", "0").get(5, TimeUnit.SECONDS)) {
+                    succeeded++;
+                }
+            }
+            assertEquals(10, succeeded);
+            assertEquals(20, requests.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+    
+    @Test
+    public void codecFailureCompletesExceptionallyAndReturnsPermit() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/cancel", exchange -> {
+            byte[] response = "{\"ret\":\"SUCCESS\",\"data\":{}}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+        AtomicInteger parses = new AtomicInteger();
+        PushClientConfig config = new PushClientConfig();
+        config.setMaxInFlight(1);
+        config.setInFlightTimeout(2000);
+        config.setMaxAttempts(1);
+        config.setJsonCodec(new JsonCodec() {
+            @Override
+            public String toJson(Object value) {
+                return SimpleJsonCodec.INSTANCE.toJson(value);
+            }
+            
+            @Override
+            public Map<String, Object> parseObject(String json) {
+                return SimpleJsonCodec.INSTANCE.parseObject(json);
+            }
+            
+            @Override
+            public UmengResult parseResult(InputStream in, UmengResult result) throws IOException {
+                if (parses.getAndIncrement() == 0) {
+                    throw new IllegalStateException("boom");
+                }
+                return SimpleJsonCodec.INSTANCE.parseResult(in, result);
+            }
+        });
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/api/cancel";
+        try (PushClient client = new PushClient(config)) {
+            try {
+                client.cancelNoticeAsync(url, cancelBody(), "secret", "0").get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            // 唯一的在途许可已经还回, 下一个请求不会等待超时
+            assertTrue(client.cancelNoticeAsync(url, cancelBody(), "secret", "0").get(5, TimeUnit.SECONDS));
+        } finally {
+            server.stop(0);
+        }
+    }
+    
+    @Test
+    public void failedSpoolingDeletesTheSpoolFile() throws Exception {
+        Path tmp = Paths.get(System.getProperty("java.io.tmpdir"));
+        int before = spoolFiles(tmp);
+        try (PushClient client = new PushClient()) {
+            InputStream broken = new InputStream() {
+                private int left = 1000;
+                
+                @Override
+                public int read() throws IOException {
+                    if (left-- <= 0) {
+                        throw new IOException("broken");
+                    }
+                    return 'a';
+                }
+            };
+            try {
+                client.uploadContentsAsync("appkey", "secret", broken).get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            Iterator<String> tokens = new Iterator<String>() {
+                private int left = 3;
+                
+                @Override
+                public boolean hasNext() {
+                    return true;
+                }
+                
+                @Override
+                public String next() {
+                    if (left-- <= 0) {
+                        throw new IllegalStateException("source failed");
+                    }
+                    return "token";
+                }
+            };
+            // 迭代器的异常不会同步抛出
+            CompletableFuture<String> upload = client.uploadContentsAsync("appkey", "secret", tokens);
+            try {
+                upload.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        assertEquals(before, spoolFiles(tmp));
+    }
+    
+    private static int spoolFiles(Path dir) throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "umeng-upload*.txt")) {
+            for (Path ignored : stream) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    private static HashMap<String, String> cancelBody() {
+        HashMap<String, String> body = new HashMap<>();
+        body.put("appkey", "appkey");
+        body.put("task_id", "t");
+        return body;
+    }
+    
+    @Test(timeout = 20000)
+    public void saturatedWindowQueuesWithoutBlockingTheCaller() throws Exception {
+        GatedServer server = new GatedServer();
+        PushClientConfig config = new PushClientConfig();
+        config.setMaxInFlight(1);
+        config.setMaxAttempts(1);
+        try (PushClient client = new PushClient(config)) {
+            CompletableFuture<Boolean> first = client.cancelNoticeAsync(server.url, cancelBody(), "secret", "0");
+            assertTrue(server.arrived.tryAcquire(5, TimeUnit.SECONDS));
+            // 唯一的在途许可被占用, 第二个请求排队, 调用立即返回
+            CompletableFuture<Boolean> second = client.cancelNoticeAsync(server.url, cancelBody(), "secret", "0");
+            assertFalse(server.arrived.tryAcquire(200, TimeUnit.MILLISECONDS));
+            assertFalse(second.isDone());
+            server.gate.countDown();
+            assertTrue(first.get(5, TimeUnit.SECONDS));
+            assertTrue(second.get(5, TimeUnit.SECONDS));
+            assertEquals(2, server.requests.get());
+        } finally {
+            server.stop();
+        }
+    }
+    
+    @Test(timeout = 20000)
+    public void queuedRequestFailsAfterInFlightTimeout() throws Exception {
+        GatedServer server = new GatedServer();
+        PushClientConfig config = new PushClientConfig();
+        config.setMaxInFlight(1);
+        config.setInFlightTimeout(100);
+        config.setMaxAttempts(1);
+        try (PushClient client = new PushClient(config)) {
+            CompletableFuture<Boolean> first = client.cancelNoticeAsync(server.url, cancelBody(), "secret", "0");
+            assertTrue(server.arrived.tryAcquire(5, TimeUnit.SECONDS));
+            try {
+                client.cancelNoticeAsync(server.url, cancelBody(), "secret", "0").get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof BulkheadFullException);
+            }
+            server.gate.countDown();
+            assertTrue(first.get(5, TimeUnit.SECONDS));
+            assertEquals(1, server.requests.get());
+        } finally {
+            server.stop();
+        }
+    }
+    
+    @Test(timeout = 20000)
+    public void cancelledRequestLeavesTheQueue() throws Exception {
+        GatedServer server = new GatedServer();
+        PushClientConfig config = new PushClientConfig();
+        config.setMaxInFlight(1);
+        config.setMaxAttempts(1);
+        try (PushClient client = new PushClient(config)) {
+            CompletableFuture<Boolean> first = client.cancelNoticeAsync(server.url, cancelBody(), "secret", "0");
+            assertTrue(server.arrived.tryAcquire(5, TimeUnit.SECONDS));
+            CompletableFuture<Boolean> cancelled = client.cancelNoticeAsync(server.url, cancelBody(), "secret", "0");
+            CompletableFuture<Boolean> third = client.cancelNoticeAsync(server.url, cancelBody(), "secret", "0");
+            assertTrue(cancelled.cancel(true));
+            server.gate.countDown();
+            assertTrue(first.get(5, TimeUnit.SECONDS));
+            assertTrue(third.get(5, TimeUnit.SECONDS));
+            // 取消的请求没有发出
+            assertEquals(2, server.requests.get());
+        } finally {
+            server.stop();
+        }
+    }
+    
+    /**
+     * 每个请求到达时释放一个arrived, 然后等gate打开才返回成功
+     */
+    private static class GatedServer {
+        final HttpServer server;
+        final String url;
+        final AtomicInteger requests = new AtomicInteger();
+        final Semaphore arrived = new Semaphore(0);
+        final CountDownLatch gate = new CountDownLatch(1);
+        
+        GatedServer() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.createContext("/api/cancel", exchange -> {
+                requests.incrementAndGet();
+                arrived.release();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] response = "{\"ret\":\"SUCCESS\",\"data\":{}}".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, response.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(response);
+                }
+            });
+            server.start();
+            url = "http://127.0.0.1:" + server.getAddress().getPort() + "/api/cancel";
+        }
+        
+        void stop() {
+            gate.countDown();
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package push;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author zzh
+ */
+public class PushFilterTest {
+    
+    @Test
+    public void estimatedSizeMatchesCompiledBytes() {
+        PushFilter[] filters = {
+                PushFilter.tag("vip"),
+                PushFilter.tag("引号\"和\\反斜杠"),
+                PushFilter.not(PushFilter.channel("huawei")),
+                PushFilter.tag("vip").and(PushFilter.channel("huawei")),
+                PushFilter.or(PushFilter.deviceModel("iPhone"), PushFilter.appVersion(">=2.0"))
+                        .and(PushFilter.launchFrom("2020-01-01")).and(PushFilter.not(PushFilter.notLaunchFrom("2020-02-01"))),
+        };
+        for (PushFilter filter : filters) {
+            PushFilter.CompiledFilter compiled = filter.compile();
+            String json = compiled.toString();
+            assertEquals(json, json.getBytes(StandardCharsets.UTF_8).length, filter.size());
+            assertEquals(json, compiled.size(), filter.size());
+            // 是合法的JSON, 外层是 where.and
+            assertTrue(json, new JSONObject(json).getJSONObject("where").has("and"));
+        }
+    }
+    
+    @Test
+    @SuppressWarnings("deprecation")
+    public void deprecatedRecipientBuildsTheSameFilter() {
+        UmengPushUtils utils = new UmengPushUtils();
+        JSONObject legacy = new JSONObject(utils.recipient("user-1").toJSONString());
+        assertTrue(legacy.similar(new JSONObject(utils.recipientFilter("user-1").compile().toString())));
+    }
+    
+    @Test
+    public void canonicalFormIgnoresOrderAndDuplicates() {
+        PushFilter a = PushFilter.tag("vip").and(PushFilter.channel("android"));
+        PushFilter b = PushFilter.and(PushFilter.channel("android"), PushFilter.tag("vip"), PushFilter.tag("vip"));
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertEquals(a.size(), b.size());
+        // 规范形式相同的表达式共用缓存的编译结果
+        assertSame(a.compile(), b.compile());
+        assertEquals(PushFilter.and(PushFilter.tag("a"), PushFilter.and(PushFilter.tag("b"), PushFilter.tag("c"))),
+                PushFilter.and(PushFilter.tag("c"), PushFilter.tag("b"), PushFilter.tag("a")));
+    }
+    
+    @Test
+    public void rejectsOversizeFiltersWhileBuilding() {
+        PushFilter filter = PushFilter.tag("t0");
+        int i = 1;
+        try {
+            for (; i < 1000; i++) {
+                filter = filter.or(PushFilter.tag("标签" + i));
+            }
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("exceeds the limit"));
+        }
+        // 最后一个合法的表达式不超过限制, 再加一个条件(条件本身和一个逗号)就会超过
+        int leaf = PushFilter.tag("标签" + i).size() - PushFilter.tag("x").size() + "{\"tag\":\"x\"}".length();
+        assertTrue(filter.size() <= NotificationSchema.MAX_FILTER_BYTES);
+        assertTrue(filter.size() + leaf + 1 > NotificationSchema.MAX_FILTER_BYTES);
+        assertEquals(filter.size(), filter.compile().size());
+    }
+    
+    @Test
+    public void validatesConditionValues() {
+        for (Runnable invalid : new Runnable[]{() -> PushFilter.tag(""), () -> PushFilter.launchFrom("2020/01/01")}) {
+            try {
+                invalid.run();
+                fail();
+            } catch (IllegalArgumentException expected) {
+                // 空值或日期格式不对
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package push;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author zzh
+ */
+public class PushMetricsTest {
+    
+    @Test
+    public void seriesAreGroupedByEndpointTypeAndPlatform() {
+        PushMetrics metrics = new PushMetrics(() -> 3);
+        PushMetrics.Series send = metrics.series(PushMetrics.Endpoint.SEND, "unicast", PushMetrics.ANDROID);
+        assertSame(send, metrics.series(PushMetrics.Endpoint.SEND, "unicast", PushMetrics.ANDROID));
+        assertNotSame(send, metrics.series(PushMetrics.Endpoint.SEND, "unicast", PushMetrics.IOS));
+        assertNotSame(send, metrics.series(PushMetrics.Endpoint.SEND, "listcast", PushMetrics.ANDROID));
+        assertNotSame(send, metrics.series(PushMetrics.Endpoint.CANCEL, "unicast", PushMetrics.ANDROID));
+        assertEquals(4, metrics.getSeries().size());
+        assertEquals(PushMetrics.Endpoint.SEND, send.getEndpoint());
+        assertEquals("unicast", send.getType());
+        assertEquals(PushMetrics.ANDROID, send.getPlatform());
+        assertEquals(3, metrics.getInFlight());
+    }
+    
+    @Test
+    public void countsSuccessesFailuresAndErrorCodes() {
+        PushMetrics.Series series = new PushMetrics(() -> 0).series(PushMetrics.Endpoint.SEND, "unicast", PushMetrics.ANDROID);
+        assertEquals(Collections.emptyMap(), series.getErrorCounts());
+        series.recordSuccess(TimeUnit.MILLISECONDS.toNanos(3));
+        series.recordSuccess(TimeUnit.MILLISECONDS.toNanos(3));
+        series.recordFailure(TimeUnit.MILLISECONDS.toNanos(40), "2016");
+        series.recordFailure(TimeUnit.MILLISECONDS.toNanos(40), "2016");
+        series.recordFailure(TimeUnit.SECONDS.toNanos(60), "IOException");
+        series.recordFailure(0, null);
+        assertEquals(2, series.getSuccessCount());
+        assertEquals(4, series.getFailureCount());
+        assertEquals(2L, (long) series.getErrorCounts().get("2016"));
+        assertEquals(1L, (long) series.getErrorCounts().get("IOException"));
+        assertEquals(2, series.getErrorCounts().size());
+        
+        long[] buckets = series.getLatencyBuckets();
+        assertEquals(PushMetrics.getBucketBounds().length + 1, buckets.length);
+        // 0ms落在 <1 的桶, 3ms落在 <5, 40ms落在 <50, 60s落在最后一个无上界的桶
+        long[] expected = new long[buckets.length];
+        expected[0] = 1;
+        expected[2] = 2;
+        expected[5] = 2;
+        expected[buckets.length - 1] = 1;
+        assertArrayEquals(expected, buckets);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(86) + TimeUnit.SECONDS.toNanos(60), series.getLatencySumNanos());
+        assertEquals(5, series.getLatencyPercentile(0.5));
+        assertEquals(50, series.getLatencyPercentile(0.8));
+        assertEquals(-1, series.getLatencyPercentile(1));
+    }
+    
+    @Test
+    public void concurrentRecordsAreNotLost() throws Exception {
+        PushMetrics metrics = new PushMetrics(() -> 0);
+        int threads = 4;
+        int perThread = 10000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            for (int t = 0; t < threads; t++) {
+                pool.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        PushMetrics.Series series = metrics.series(PushMetrics.Endpoint.SEND, "unicast", PushMetrics.IOS);
+                        if (i % 2 == 0) {
+                            series.recordSuccess(0);
+                        } else {
+                            series.recordFailure(0, "code");
+                        }
+                    }
+                });
+            }
+            start.countDown();
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+        PushMetrics.Series series = metrics.series(PushMetrics.Endpoint.SEND, "unicast", PushMetrics.IOS);
+        assertEquals(threads * perThread / 2, series.getSuccessCount());
+        assertEquals(threads * perThread / 2, series.getFailureCount());
+        assertEquals(threads * perThread / 2, (long) series.getErrorCounts().get("code"));
+        assertEquals(1, metrics.getSeries().size());
+    }
+}
@@ -0,0 +1,159 @@
+package push;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author zzh
+ */
+public class PushSchedulerTest {
+    
+    /**
+     * 记录每条消息(按ticker区分)的发出时间, 可以在发送时阻塞
+     */
+    static class RecordingClient extends PushClient {
+        final List<String> tickers = new ArrayList<>();
+        final List<Long> times = new ArrayList<>();
+        final List<String> bodies = new ArrayList<>();
+        volatile CountDownLatch gate;
+        
+        @Override
+        CompletableFuture<String> sendAsync(String appkey, byte[] postBody, String appMasterSecret, PushMetrics.Series series) {
+            long now = System.nanoTime();
+            CountDownLatch latch = gate;
+            if (latch != null) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            String body = new String(postBody, StandardCharsets.UTF_8);
+            int start = body.indexOf("\"ticker\":\"") + 10;
+            synchronized (this) {
+                tickers.add(body.substring(start, body.indexOf('"', start)));
+                times.add(now);
+                bodies.add(body);
+            }
+            return CompletableFuture.completedFuture("task");
+        }
+        
+        synchronized int count() {
+            return tickers.size();
+        }
+    }
+    
+    @Test
+    public void releasesInDeadlineOrderAcrossLevels() throws Exception {
+        try (RecordingClient client = new RecordingClient()) {
+            // 10微秒一个tick: 第1层从5毫秒开始, 第2层从2.6秒开始
+            PushScheduler scheduler = new PushScheduler(client, 10, TimeUnit.MICROSECONDS, 16, 1, 100000);
+            Random random = new Random(7);
+            int n = 300;
+            // 调度器读取时间在两者之间, 实际的到期时间落在 [earliest, latest] 内
+            long[] earliest = new long[n];
+            long[] latest = new long[n];
+            for (int i = 0; i < n; i++) {
+                long delay = i % 3 == 0 ? random.nextInt(5000) : i % 3 == 1 ? 5000 + random.nextInt(500000)
+                        : 2700000 + random.nextInt(300000);
+                earliest[i] = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(delay);
+                scheduler.schedule(TestMessages.unicast("m" + i), delay, TimeUnit.MICROSECONDS);
+                latest[i] = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(delay + 10);
+            }
+            awaitCount(client, n, 10);
+            long released = 0;
+            for (int i = 0; i < n; i++) {
+                int index = Integer.parseInt(client.tickers.get(i).substring(1));
+                assertTrue("released early: " + index, client.times.get(i) >= earliest[index]);
+                // 先发出的消息到期不会更晚
+                assertTrue("out of order: " + index, released <= latest[index]);
+                released = Math.max(released, earliest[index]);
+            }
+            assertEquals(0, scheduler.size());
+            assertEquals(n, scheduler.getReleased());
+            scheduler.close();
+        }
+    }
+    
+    @Test
+    public void cancelledPushesAreNotSent() throws Exception {
+        try (RecordingClient client = new RecordingClient()) {
+            PushScheduler scheduler = new PushScheduler(client);
+            long keep = scheduler.schedule(TestMessages.unicast("keep"), 50, TimeUnit.MILLISECONDS);
+            long drop = scheduler.schedule(TestMessages.unicast("drop"), 50, TimeUnit.MILLISECONDS);
+            assertTrue(scheduler.cancel(drop));
+            assertFalse(scheduler.cancel(drop));
+            assertEquals(1, scheduler.size());
+            awaitCount(client, 1, 5);
+            Thread.sleep(100);
+            assertEquals(1, client.count());
+            assertEquals("keep", client.tickers.get(0));
+            assertFalse(scheduler.cancel(keep));
+            assertEquals(1, scheduler.getCancelled());
+            // timestamp在发出时写入
+            assertFalse(client.bodies.get(0).contains("\"timestamp\":\"0000000000\""));
+            scheduler.close();
+        }
+    }
+    
+    @Test
+    public void blockedSendsDoNotStallTheWheel() throws Exception {
+        try (RecordingClient client = new RecordingClient()) {
+            client.gate = new CountDownLatch(1);
+            // 一个发送线程, 队列容量4: 发送被卡住时最多取出5条
+            PushScheduler scheduler = new PushScheduler(client, 1, TimeUnit.MILLISECONDS, 16, 1, 2);
+            long[] handles = new long[10];
+            for (int i = 0; i < handles.length; i++) {
+                handles[i] = scheduler.schedule(TestMessages.unicast("m" + i), 0, TimeUnit.MILLISECONDS);
+            }
+            Thread.sleep(100);
+            assertEquals(5, scheduler.getReleased());
+            assertEquals(5, scheduler.size());
+            // 已到期但没有取出的消息仍可取消, 已取出的不能取消
+            int cancelled = -1;
+            int taken = 0;
+            for (int i = 0; i < handles.length; i++) {
+                if (cancelled < 0 && scheduler.cancel(handles[i])) {
+                    cancelled = i;
+                } else if (cancelled < 0) {
+                    taken++;
+                }
+            }
+            assertTrue(cancelled >= 0);
+            assertTrue(taken <= 5);
+            client.gate.countDown();
+            awaitCount(client, 9, 5);
+            assertEquals(0, scheduler.size());
+            // 同一个tick到期的消息之间没有顺序
+            Set<String> expected = new HashSet<>();
+            for (int i = 0; i < handles.length; i++) {
+                if (i != cancelled) {
+                    expected.add("m" + i);
+                }
+            }
+            assertEquals(expected, new HashSet<>(client.tickers));
+            scheduler.close();
+        }
+    }
+    
+    private static void awaitCount(RecordingClient client, int expected, int seconds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        while (client.count() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, client.count());
+    }
+}
@@ -0,0 +1,65 @@
+package push;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author zzh
+ */
+public class RecipientDeduplicatorTest {
+    
+    @Test
+    public void keepsFirstOccurrenceInOrder() {
+        try (RecipientDeduplicator dedup = new RecipientDeduplicator(16)) {
+            Iterator<String> it = dedup.filter(Arrays.asList("b", "a", "b", "中文", "a", "c", "中文").iterator());
+            List<String> result = new ArrayList<>();
+            while (it.hasNext()) {
+                result.add(it.next());
+            }
+            assertEquals(Arrays.asList("b", "a", "中文", "c"), result);
+            assertEquals(4, dedup.size());
+            assertEquals(3, dedup.getDuplicates());
+        }
+    }
+    
+    @Test
+    public void growsPastExpectedSize() {
+        // 按10个分配, 实际加入10万个, 需要多次扩容
+        for (boolean exact : new boolean[]{false, true}) {
+            try (RecipientDeduplicator dedup = new RecipientDeduplicator(10, exact)) {
+                Random random = new Random(42);
+                Set<String> expected = new HashSet<>();
+                for (int i = 0; i < 200000; i++) {
+                    String token = "token-" + random.nextInt(100000);
+                    assertEquals(token, expected.add(token), dedup.add(token));
+                }
+                assertEquals(expected.size(), dedup.size());
+                assertEquals(200000 - expected.size(), dedup.getDuplicates());
+                assertTrue(dedup.getMemoryBytes() >= expected.size() * 8L);
+            }
+        }
+    }
+    
+    @Test
+    public void exactModeComparesValues() {
+        try (RecipientDeduplicator dedup = new RecipientDeduplicator(16, true)) {
+            assertTrue(dedup.isExact());
+            // 等值的不同CharSequence实现视为同一个值
+            assertTrue(dedup.add("alias-1"));
+            assertFalse(dedup.add(new StringBuilder("alias-1")));
+            assertTrue(dedup.add("alias-1 "));
+            assertEquals(2, dedup.size());
+        }
+    }
+}
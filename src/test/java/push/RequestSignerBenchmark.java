@@ -0,0 +1,65 @@
+package push;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.http.entity.StringEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author zzh
+ * @description 签名并生成请求实体: 编码一次的RequestSigner 对比 原来的字符串拼接+md5Hex+StringEntity。
+ * 用 -prof gc 查看 gc.alloc.rate.norm(bytes/op)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestSignerBenchmark {
+    private static final String URL = "http://msg.umeng.com/api/send";
+    private static final String SECRET = "uzbvlm6f2ycvdog6swwbejh4zph4zys7";
+    
+    /**
+     * 请求体的字符数
+     */
+    @Param({"1024", "65536"})
+    public int size;
+    
+    private String body;
+    
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder("{\"payload\":{\"body\":{\"text\":\"");
+        while (sb.length() < size) {
+            sb.append("推送内容abc");
+        }
+        body = sb.append("\"}}}").toString();
+    }
+    
+    @Benchmark
+    public void encodeOnce(Blackhole bh) {
+        RequestSigner.SignedBody signed = RequestSigner.sign(URL, body, SECRET);
+        bh.consume(signed.sign);
+        bh.consume(signed.entity);
+    }
+    
+    @Benchmark
+    public void concatenate(Blackhole bh) {
+        bh.consume(DigestUtils.md5Hex(("POST" + URL + body + SECRET).getBytes(StandardCharsets.UTF_8)));
+        bh.consume(new StringEntity(body, StandardCharsets.UTF_8));
+    }
+}
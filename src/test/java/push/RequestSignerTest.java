@@ -0,0 +1,55 @@
+package push;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author zzh
+ */
+public class RequestSignerTest {
+    private static final String URL = "http://msg.umeng.com/api/send";
+    
+    @Test
+    public void matchesMd5OfConcatenation() throws Exception {
+        String[] bodies = {"", "{\"appkey\":\"a\"}", "推送内容 😀 emoji", "lone \uD800 surrogate"};
+        for (String body : bodies) {
+            for (String secret : new String[]{"secret", "另一个secret"}) {
+                RequestSigner.SignedBody signed = RequestSigner.sign(URL, body, secret);
+                assertEquals(body, DigestUtils.md5Hex(("POST" + URL + body + secret).getBytes(StandardCharsets.UTF_8)), signed.sign);
+                // 签名和请求实体是同一份字节
+                assertArrayEquals(body.getBytes(StandardCharsets.UTF_8), EntityUtils.toByteArray(signed.entity));
+                assertEquals("text/plain; charset=UTF-8", signed.entity.getContentType().getValue());
+            }
+        }
+    }
+    
+    @Test
+    public void encodesUtf8LikeString() {
+        StringBuilder all = new StringBuilder();
+        for (int c = 0; c < 0x10000; c += 7) {
+            all.append((char) c);
+        }
+        all.appendCodePoint(0x1F600).append('\uDC00').append("tail\uD83D");
+        String s = all.toString();
+        assertArrayEquals(s.getBytes(StandardCharsets.UTF_8), RequestSigner.encodeUtf8(s));
+    }
+    
+    @Test
+    public void signsSliceIntoCallerBuffer() {
+        byte[] body = "xx{\"a\":1}yy".getBytes(StandardCharsets.UTF_8);
+        char[] out = new char[32];
+        RequestSigner.sign(URL, body, 2, body.length - 4, "secret", out);
+        assertEquals(DigestUtils.md5Hex("POST" + URL + "{\"a\":1}secret"), new String(out));
+        // 缓存的secret字节随secret变化
+        RequestSigner.sign(URL, Arrays.copyOfRange(body, 2, body.length - 2), "other");
+        RequestSigner.sign(URL, body, 2, body.length - 4, "secret2", out);
+        assertEquals(DigestUtils.md5Hex("POST" + URL + "{\"a\":1}secret2"), new String(out));
+    }
+}
@@ -0,0 +1,83 @@
+package push;
+
+import com.alibaba.fastjson.JSON;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author zzh
+ * @description 解析一个友盟返回结果: 流式解析 对比 原来send的按行读取+fastjson解析两次、uploadContents的org.json
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseParserBenchmark {
+    
+    @Param({"send", "fail"})
+    public String response;
+    
+    private byte[] body;
+    private final UmengResponseParser parser = new UmengResponseParser();
+    private final UmengResult result = new UmengResult();
+    
+    @Setup
+    public void setUp() {
+        String json = "send".equals(response)
+                ? "{\"ret\":\"SUCCESS\",\"data\":{\"task_id\":\"us65502150612345678901\"}}"
+                : "{\"ret\":\"FAIL\",\"data\":{\"error_code\":\"2007\",\"error_msg\":\"\\u672a\\u5bf9\\u8bf7\\u6c42\\u8fdb\\u884c\\u7b7e\\u540d\"}}";
+        body = json.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    @Benchmark
+    public UmengResult streaming() throws IOException {
+        result.reset();
+        return parser.parse(new ByteArrayInputStream(body), result);
+    }
+    
+    @Benchmark
+    public Object fastjsonTwice() throws IOException {
+        BufferedReader rd = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        String line;
+        while ((line = rd.readLine()) != null) {
+            sb.append(line);
+        }
+        Map<?, ?> map = (Map<?, ?>) JSON.parse(sb.toString());
+        Map<?, ?> data = (Map<?, ?>) JSON.parse(map.get("data").toString());
+        return data.get("task_id");
+    }
+    
+    @Benchmark
+    public Object orgJson() throws IOException {
+        BufferedReader rd = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        String line;
+        while ((line = rd.readLine()) != null) {
+            sb.append(line);
+        }
+        JSONObject json = new JSONObject(sb.toString());
+        json.getString("ret");
+        return json.getJSONObject("data").opt("task_id");
+    }
+}
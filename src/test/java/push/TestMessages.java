@@ -0,0 +1,32 @@
+package push;
+
+import push.android.AndroidUnicast;
+
+/**
+ * @author zzh
+ * @description 测试用的合法消息
+ */
+final class TestMessages {
+    
+    private TestMessages() {
+    }
+    
+    static AndroidUnicast unicast(String ticker) throws Exception {
+        AndroidUnicast msg = new AndroidUnicast("appkey", "secret");
+        msg.setDeviceToken("token");
+        msg.setTicker(ticker);
+        msg.setTitle("title");
+        msg.setText("text");
+        msg.goAppAfterOpen();
+        msg.setDisplayType(AndroidNotification.DisplayType.NOTIFICATION);
+        msg.setProductionMode();
+        return msg;
+    }
+    
+    static UmengResult failure(int status) {
+        UmengResult result = new UmengResult();
+        result.setStatus(status);
+        result.setRet("FAIL");
+        return result;
+    }
+}
@@ -0,0 +1,107 @@
+package push;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import push.android.AndroidUnicast;
+import push.ios.IOSBroadcast;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author zzh
+ */
+public class UmengNotificationTest {
+    
+    @Test
+    public void writesAndroidFieldsIntoTheirLevels() throws Exception {
+        AndroidUnicast msg = TestMessages.unicast("新消息");
+        msg.setText("点击查看\"详情\"\n\u0001");
+        msg.setPredefinedKeyValue("expire_time", "2030-01-01 00:00:00");
+        msg.setExtraField("orderId", "42");
+        JSONObject json = new JSONObject(msg.getPostBody());
+        assertEquals("appkey", json.getString("appkey"));
+        assertEquals("token", json.getString("device_tokens"));
+        JSONObject payload = json.getJSONObject("payload");
+        assertEquals("notification", payload.getString("display_type"));
+        assertEquals("点击查看\"详情\"\n\u0001", payload.getJSONObject("body").getString("text"));
+        assertEquals("42", payload.getJSONObject("extra").getString("orderId"));
+        assertEquals("2030-01-01 00:00:00", json.getJSONObject("policy").getString("expire_time"));
+        assertArrayEquals(msg.getPostBody().getBytes(StandardCharsets.UTF_8), msg.getPostBodyBytes());
+    }
+    
+    @Test
+    @SuppressWarnings("deprecation")
+    public void rootJsonIsACopyOfTheFields() throws Exception {
+        AndroidUnicast msg = TestMessages.unicast("ticker");
+        msg.setExtraField("k", "v");
+        JSONObject root = msg.getRootJson();
+        assertTrue(root.similar(new JSONObject(msg.getPostBody())));
+        assertEquals("v", root.getJSONObject("payload").getJSONObject("extra").getString("k"));
+        root.put("appkey", "changed");
+        assertEquals("appkey", msg.getAppkey());
+    }
+    
+    @Test
+    public void tracksPayloadSizeIncrementally() throws Exception {
+        AndroidUnicast msg = TestMessages.unicast("ticker");
+        assertEquals(payloadBytes(msg), msg.getPayloadSize());
+        msg.setText("中文和 \"引号\" \\ 反斜杠");
+        msg.setExtraField("a", "1");
+        msg.setExtraField("a", "22");
+        msg.setExtraField("b", "\u0002");
+        assertEquals(payloadBytes(msg), msg.getPayloadSize());
+        msg.removeExtraField("a");
+        msg.removeExtraField("b");
+        assertEquals(payloadBytes(msg), msg.getPayloadSize());
+    }
+    
+    @Test
+    public void rejectsUnknownKeys() throws Exception {
+        try {
+            TestMessages.unicast("ticker").setPredefinedKeyValue("no_such_key", "x");
+            fail();
+        } catch (Exception expected) {
+            // 未知的key
+        }
+        IOSBroadcast ios = new IOSBroadcast("appkey", "secret");
+        ios.setAlert("hello");
+        ios.setBadge(1);
+        ios.setCustomizedField("k", "v");
+        JSONObject json = new JSONObject(ios.getPostBody());
+        assertEquals("hello", json.getJSONObject("payload").getJSONObject("aps").getString("alert"));
+        assertEquals("v", json.getJSONObject("payload").getString("k"));
+        assertTrue(ios.getPayloadSize() > 0);
+    }
+    
+    /**
+     * @Description 从请求体中截出payload对象的字节数
+     */
+    private static int payloadBytes(UmengNotification msg) {
+        String body = msg.getPostBody();
+        int start = body.indexOf("\"payload\":") + "\"payload\":".length();
+        int depth = 0;
+        boolean inString = false;
+        for (int i = start; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (inString) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return body.substring(start, i + 1).getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        throw new IllegalStateException(body);
+    }
+}
@@ -0,0 +1,97 @@
+package push;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * @author zzh
+ */
+public class UmengResponseParserTest {
+    private final UmengResponseParser parser = new UmengResponseParser();
+    
+    @Test
+    public void parsesSuccess() throws IOException {
+        UmengResult result = parse("{\"ret\":\"SUCCESS\",\"data\":{\"task_id\":\"us65502150612345678901\"}}");
+        assertEquals("SUCCESS", result.getRet());
+        assertEquals("us65502150612345678901", result.getTaskId());
+        assertNull(result.getFileId());
+        assertNull(result.getErrorCode());
+    }
+    
+    @Test
+    public void parsesFailureWithEscapesAndSkipsUnknownFields() throws IOException {
+        UmengResult result = parse("{ \"ret\" : \"FAIL\", \"data\" : { \"error_code\" : \"2007\", "
+                + "\"error_msg\":\"\\u672a\\u5bf9\\u8bf7\\u6c42 \\\"x\\\" 中文\", \"extra\":[1,{\"a\":\"}\"}],\"n\":null } }");
+        assertEquals("FAIL", result.getRet());
+        assertEquals("2007", result.getErrorCode());
+        assertEquals("未对请求 \"x\" 中文", result.getErrorMsg());
+    }
+    
+    @Test
+    public void acceptsAnyFieldOrderAndNumericCodes() throws IOException {
+        UmengResult result = parse("{\"data\":{\"file_id\":\"PF1\",\"error_code\":2001},\"ret\":\"SUCCESS\"}");
+        assertEquals("SUCCESS", result.getRet());
+        assertEquals("PF1", result.getFileId());
+        assertEquals("2001", result.getErrorCode());
+    }
+    
+    @Test
+    public void readsAcrossBufferBoundaries() throws IOException {
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            padding.append("好");
+        }
+        String json = "{\"skip\":\"" + padding + "\",\"ret\":\"SUCCESS\",\"data\":{\"error_msg\":\"" + padding
+                + "\",\"task_id\":\"t1\"}}";
+        // 每次只返回一个字节
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        UmengResult result = parser.parse(in, new UmengResult());
+        assertEquals("t1", result.getTaskId());
+        assertEquals(padding.toString(), result.getErrorMsg());
+    }
+    
+    @Test
+    public void rejectsMalformedInput() {
+        String[] samples = {"", "[]", "{\"ret\":\"SUCCESS\"", "{\"ret\" \"SUCCESS\"}", "<html>502 Bad Gateway</html>"};
+        for (String sample : samples) {
+            try {
+                parse(sample);
+                fail(sample);
+            } catch (IOException expected) {
+                // 不是合法的友盟返回结果
+            }
+        }
+    }
+    
+    @Test
+    public void reusesParserAndResult() throws IOException {
+        UmengResult result = new UmengResult();
+        parser.parse(stream("{\"ret\":\"FAIL\",\"data\":{\"error_code\":\"2005\"}}"), result);
+        result.reset();
+        parser.parse(stream("{\"ret\":\"SUCCESS\",\"data\":{\"task_id\":\"t2\"}}"), result);
+        assertEquals("t2", result.getTaskId());
+        assertNull(result.getErrorCode());
+    }
+    
+    private UmengResult parse(String json) throws IOException {
+        return parser.parse(stream(json), new UmengResult());
+    }
+    
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,85 @@
+package push;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author zzh
+ */
+public class UploadContentEntityTest {
+    private static final String URL = "http://msg.umeng.com/upload";
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void escapesContentByteByByte() throws Exception {
+        String contents = "a\"b\\c\nd\re\tf\u0001g\u001f中文é";
+        UploadContentEntity entity = new UploadContentEntity("k\"1", "1700000000", write(contents));
+        byte[] body = read(entity);
+        String expected = "{\"appkey\":\"k\\\"1\",\"timestamp\":\"1700000000\",\"content\":\""
+                + "a\\\"b\\\\c\\nd\\re\\tf\\u0001g\\u001f中文é\"}";
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), body);
+        // 多字节的UTF-8字符原样保留, 解析后与原内容相同
+        Map<String, Object> json = SimpleJsonCodec.INSTANCE.parseObject(new String(body, StandardCharsets.UTF_8));
+        assertEquals(contents, json.get("content"));
+        assertEquals("k\"1", json.get("appkey"));
+    }
+    
+    @Test
+    public void streamedSignatureMatchesInMemorySigning() throws Exception {
+        StringBuilder contents = new StringBuilder();
+        // 超过一个读缓冲区, 转义序列会跨过缓冲区边界
+        for (int i = 0; i < 20000; i++) {
+            contents.append("token\"").append(i).append('\n');
+        }
+        UploadContentEntity entity = new UploadContentEntity("appkey", "1700000000", write(contents.toString()));
+        assertEquals(-1, entity.getContentLength());
+        String sign = entity.sign(URL, "secret");
+        byte[] body = read(entity);
+        assertEquals(RequestSigner.sign(URL, body, "secret").sign, sign);
+        // 签名时得到Content-Length, 与实际写出的字节数一致
+        assertEquals(body.length, entity.getContentLength());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        assertArrayEquals(body, out.toByteArray());
+    }
+    
+    @Test
+    public void emptyFileHasEmptyContent() throws Exception {
+        UploadContentEntity entity = new UploadContentEntity("appkey", "1700000000", write(""));
+        entity.sign(URL, "secret");
+        byte[] expected = "{\"appkey\":\"appkey\",\"timestamp\":\"1700000000\",\"content\":\"\"}".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(expected, read(entity));
+        assertEquals(expected.length, entity.getContentLength());
+    }
+    
+    private Path write(String contents) throws Exception {
+        Path file = folder.newFile().toPath();
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+    
+    private static byte[] read(UploadContentEntity entity) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        try (InputStream in = entity.getContent()) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+}